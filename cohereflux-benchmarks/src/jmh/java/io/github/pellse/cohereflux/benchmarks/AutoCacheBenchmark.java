@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.benchmarks;
+
+import io.github.pellse.cohereflux.benchmarks.FakeDataSource.BillingInfo;
+import io.github.pellse.cohereflux.caching.CacheFactory;
+import io.github.pellse.cohereflux.caching.CacheFactory.CacheContext;
+import io.github.pellse.cohereflux.caching.CacheFactory.CacheTransformer;
+import io.github.pellse.util.collection.CollectionUtil;
+import org.openjdk.jmh.annotations.*;
+import reactor.core.publisher.Sinks;
+import reactor.core.publisher.Sinks.Many;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.github.pellse.cohereflux.caching.AutoCacheFactoryBuilder.autoCacheBuilder;
+import static io.github.pellse.cohereflux.caching.CacheFactory.cache;
+import static java.util.Map.of;
+import static reactor.core.publisher.Mono.just;
+
+/**
+ * Measures the throughput of applying change events to a cache through {@code autoCache()}, one invocation
+ * emits {@code EVENT_COUNT} events and waits until all of them are visible in the underlying cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AutoCacheBenchmark {
+
+    private static final int EVENT_COUNT = 10_000;
+
+    @Param({"1", "10", "100"})
+    int maxWindowSize;
+
+    @Param({"1000"})
+    int keySpace;
+
+    private final AtomicLong appliedEventCount = new AtomicLong();
+
+    private Many<BillingInfo> eventSink;
+
+    private long eventIndex;
+
+    @Setup
+    public void setup() {
+        eventSink = Sinks.many().unicast().onBackpressureBuffer();
+
+        final CacheFactory<Long, BillingInfo, BillingInfo> cacheFactory = cache(
+                (ids, fetchFunction) -> just(of()),
+                map -> just(appliedEventCount.addAndGet(map.values().stream().mapToLong(List::size).sum())),
+                map -> just(map));
+
+        final CacheTransformer<Long, BillingInfo, BillingInfo> autoCache = autoCacheBuilder(eventSink.asFlux())
+                .maxWindowSize(maxWindowSize)
+                .build();
+
+        autoCache.apply(cacheFactory).create(new CacheContext<>(false, BillingInfo::customerId, CollectionUtil::first, List::of));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public long updateCache() {
+        final long target = appliedEventCount.get() + EVENT_COUNT;
+
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            eventSink.tryEmitNext(new BillingInfo(eventIndex++ % keySpace, "4540977822220971"));
+        }
+
+        while (appliedEventCount.get() < target) {
+            Thread.onSpinWait();
+        }
+        return appliedEventCount.get();
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventSink.tryEmitComplete();
+    }
+}
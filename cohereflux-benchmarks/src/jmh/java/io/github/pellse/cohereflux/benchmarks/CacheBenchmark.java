@@ -0,0 +1,106 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.benchmarks;
+
+import io.github.pellse.cohereflux.CohereFlux;
+import io.github.pellse.cohereflux.benchmarks.FakeDataSource.BillingInfo;
+import io.github.pellse.cohereflux.benchmarks.FakeDataSource.Customer;
+import io.github.pellse.cohereflux.caching.CacheFactory;
+import org.openjdk.jmh.annotations.*;
+import org.reactivestreams.Publisher;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static io.github.pellse.cohereflux.CohereFluxBuilder.cohereFluxOf;
+import static io.github.pellse.cohereflux.FluxAdapter.fluxAdapter;
+import static io.github.pellse.cohereflux.Rule.rule;
+import static io.github.pellse.cohereflux.RuleMapper.oneToOne;
+import static io.github.pellse.cohereflux.benchmarks.FakeDataSource.billingInfoSource;
+import static io.github.pellse.cohereflux.benchmarks.FakeDataSource.customers;
+import static io.github.pellse.cohereflux.cache.caffeine.CaffeineCacheFactory.caffeineCache;
+import static io.github.pellse.cohereflux.caching.CacheFactory.cache;
+import static io.github.pellse.cohereflux.caching.CacheFactory.cached;
+import static reactor.core.publisher.Flux.fromIterable;
+import static reactor.core.scheduler.Schedulers.immediate;
+
+/**
+ * Measures a {@code cached()} rule for the built-in cache implementations at a given hit ratio, i.e. including the
+ * default {@code concurrent()} lock, the merge strategy wrapper and the round trip to the data source for the misses.
+ * The data source only returns results for the cached customers, misses are never cached so the hit ratio stays
+ * stable across invocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CacheBenchmark {
+
+    record CustomerBillingInfo(Customer customer, BillingInfo billingInfo) {
+    }
+
+    @Param({"map", "caffeine"})
+    String cacheType;
+
+    @Param({"0.0", "0.5", "0.9", "1.0"})
+    double hitRatio;
+
+    @Param({"100", "10000"})
+    int batchSize;
+
+    @Param({"1", "10"})
+    long latencyMillis;
+
+    private CohereFlux<Customer, CustomerBillingInfo> cohereFlux;
+
+    private List<Customer> customers;
+
+    @Setup
+    public void setup() {
+        final CacheFactory<Long, BillingInfo, BillingInfo> cacheFactory = switch (cacheType) {
+            case "map" -> cache(HashMap::new);
+            case "caffeine" -> caffeineCache();
+            default -> throw new IllegalArgumentException("Unknown cache type: " + cacheType);
+        };
+
+        final long hitCount = (long) (batchSize * hitRatio);
+
+        cohereFlux = cohereFluxOf(CustomerBillingInfo.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(rule(BillingInfo::customerId, oneToOne(cached(cachedCustomersOnly(billingInfoSource(latencyMillis), hitCount), cacheFactory))), CustomerBillingInfo::new)
+                .build(fluxAdapter(immediate()));
+
+        customers = customers(batchSize);
+
+        // Warms up the cache with the customers to hit
+        cohereFlux.process(fromIterable(customers(0, (int) hitCount))).blockLast();
+    }
+
+    @Benchmark
+    public List<CustomerBillingInfo> cachedLookup() {
+        return cohereFlux.process(fromIterable(customers)).collectList().block();
+    }
+
+    private static <R> Function<List<Customer>, Publisher<R>> cachedCustomersOnly(
+            Function<List<Customer>, Publisher<R>> queryFunction,
+            long hitCount) {
+        return customers -> queryFunction.apply(customers.stream()
+                .filter(customer -> customer.customerId() < hitCount)
+                .toList());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.benchmarks;
+
+import io.github.pellse.cohereflux.CohereFlux;
+import io.github.pellse.cohereflux.Rule;
+import io.github.pellse.cohereflux.benchmarks.FakeDataSource.Customer;
+import io.github.pellse.cohereflux.benchmarks.FakeDataSource.Item;
+import io.github.pellse.cohereflux.benchmarks.FakeDataSource.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static io.github.pellse.cohereflux.CohereFluxBuilder.cohereFluxOf;
+import static io.github.pellse.cohereflux.FluxAdapter.fluxAdapter;
+import static io.github.pellse.cohereflux.Rule.rule;
+import static io.github.pellse.cohereflux.RuleMapper.oneToOne;
+import static io.github.pellse.cohereflux.benchmarks.FakeDataSource.customers;
+import static io.github.pellse.cohereflux.benchmarks.FakeDataSource.itemSource;
+import static reactor.core.publisher.Flux.fromIterable;
+import static reactor.core.scheduler.Schedulers.immediate;
+
+/**
+ * Measures {@link CohereFlux#process} end to end, sub-queries plus the join of every rule result
+ * with each top level entity, for an increasing number of rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CohereFluxBenchmark {
+
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11"})
+    int ruleCount;
+
+    @Param({"100", "10000"})
+    int batchSize;
+
+    @Param({"0"})
+    long latencyMillis;
+
+    private CohereFlux<Customer, Transaction> cohereFlux;
+
+    private List<Customer> customers;
+
+    @Setup
+    public void setup() {
+        final List<Rule<Customer, Long, ?>> rules = IntStream.range(0, ruleCount)
+                .<Rule<Customer, Long, ?>>mapToObj(i -> rule(Item::customerId, oneToOne(itemSource(i, latencyMillis))))
+                .toList();
+
+        cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(rules, Transaction::new)
+                .build(fluxAdapter(immediate()));
+
+        customers = customers(batchSize);
+    }
+
+    @Benchmark
+    public List<Transaction> process() {
+        return cohereFlux.process(fromIterable(customers))
+                .collectList()
+                .block();
+    }
+}
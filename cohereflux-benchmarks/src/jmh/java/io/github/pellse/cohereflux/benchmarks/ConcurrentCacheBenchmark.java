@@ -0,0 +1,100 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.benchmarks;
+
+import io.github.pellse.cohereflux.benchmarks.FakeDataSource.BillingInfo;
+import io.github.pellse.cohereflux.caching.Cache;
+import io.github.pellse.cohereflux.caching.Cache.FetchFunction;
+import io.github.pellse.cohereflux.caching.CacheFactory;
+import io.github.pellse.cohereflux.caching.CacheFactory.CacheContext;
+import io.github.pellse.cohereflux.caching.ConcurrentCache.ConcurrencyStrategy;
+import io.github.pellse.util.collection.CollectionUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static io.github.pellse.cohereflux.caching.CacheFactory.cache;
+import static io.github.pellse.cohereflux.caching.ConcurrentCacheFactory.concurrent;
+import static java.util.Map.of;
+import static java.util.stream.Collectors.toMap;
+import static reactor.core.publisher.Mono.just;
+
+/**
+ * Measures lock contention in {@code ConcurrentCache} with concurrent readers (cache hits) and writers
+ * ({@code putAll()}) sharing the same cache instance.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConcurrentCacheBenchmark {
+
+    private static final int KEY_SPACE = 10_000;
+
+    @Param({"SINGLE_READER", "MULTIPLE_READERS"})
+    ConcurrencyStrategy concurrencyStrategy;
+
+    @Param({"10"})
+    int batchSize;
+
+    private Cache<Long, BillingInfo> cache;
+
+    private final FetchFunction<Long, BillingInfo> fetchFunction = ids -> just(of());
+
+    @Setup
+    public void setup() {
+        final CacheFactory<Long, BillingInfo, BillingInfo> cacheFactory = concurrent(cache(ConcurrentHashMap::new), Long.MAX_VALUE, concurrencyStrategy);
+
+        cache = cacheFactory.create(new CacheContext<>(false, BillingInfo::customerId, CollectionUtil::first, List::of));
+
+        cache.putAll(entries(0, KEY_SPACE)).block();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public Map<Long, List<BillingInfo>> read() {
+        return cache.getAll(randomIds(), fetchFunction).block();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public Object write() {
+        return cache.putAll(entries(randomStart(), batchSize)).block();
+    }
+
+    private List<Long> randomIds() {
+        final long start = randomStart();
+        return LongStream.range(start, start + batchSize).boxed().toList();
+    }
+
+    private long randomStart() {
+        return ThreadLocalRandom.current().nextLong(KEY_SPACE - batchSize);
+    }
+
+    private static Map<Long, List<BillingInfo>> entries(long start, int count) {
+        return LongStream.range(start, start + count)
+                .boxed()
+                .collect(toMap(id -> id, id -> List.of(new BillingInfo(id, "4540977822220971")), (l1, l2) -> l1, HashMap::new));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.benchmarks;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.LongStream;
+
+import static io.github.pellse.util.collection.CollectionUtil.toStream;
+
+public interface FakeDataSource {
+
+    record Customer(long customerId) {
+    }
+
+    record BillingInfo(long customerId, String creditCardNumber) {
+    }
+
+    record OrderItem(long id, long customerId, double price) {
+    }
+
+    record Item(long customerId, int ruleIndex) {
+    }
+
+    record Transaction(Customer customer, Object[] items) {
+    }
+
+    static List<Customer> customers(int count) {
+        return customers(0, count);
+    }
+
+    static List<Customer> customers(long startId, int count) {
+        return LongStream.range(startId, startId + count)
+                .mapToObj(Customer::new)
+                .toList();
+    }
+
+    static Function<List<Customer>, Publisher<BillingInfo>> billingInfoSource(long latencyMillis) {
+        return customers -> withLatency(Flux.fromStream(toStream(customers)
+                .map(customer -> new BillingInfo(customer.customerId(), "4540977822220971"))), latencyMillis);
+    }
+
+    static Function<List<Customer>, Publisher<OrderItem>> orderItemSource(int ordersPerCustomer, long latencyMillis) {
+        return customers -> withLatency(Flux.fromStream(toStream(customers)
+                .flatMap(customer -> LongStream.range(0, ordersPerCustomer)
+                        .mapToObj(i -> new OrderItem(customer.customerId() * ordersPerCustomer + i, customer.customerId(), 19.99)))), latencyMillis);
+    }
+
+    static Function<List<Customer>, Publisher<Item>> itemSource(int ruleIndex, long latencyMillis) {
+        return customers -> withLatency(Flux.fromStream(toStream(customers)
+                .map(customer -> new Item(customer.customerId(), ruleIndex))), latencyMillis);
+    }
+
+    static <T> Flux<T> withLatency(Flux<T> flux, long latencyMillis) {
+        return latencyMillis > 0 ? flux.delaySubscription(Duration.ofMillis(latencyMillis)) : flux;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.benchmarks;
+
+import io.github.pellse.cohereflux.CohereFlux;
+import io.github.pellse.cohereflux.benchmarks.FakeDataSource.BillingInfo;
+import io.github.pellse.cohereflux.benchmarks.FakeDataSource.Customer;
+import io.github.pellse.cohereflux.benchmarks.FakeDataSource.OrderItem;
+import org.openjdk.jmh.annotations.*;
+import org.reactivestreams.Publisher;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static io.github.pellse.cohereflux.CohereFluxBuilder.cohereFluxOf;
+import static io.github.pellse.cohereflux.FluxAdapter.fluxAdapter;
+import static io.github.pellse.cohereflux.Rule.rule;
+import static io.github.pellse.cohereflux.RuleMapper.oneToMany;
+import static io.github.pellse.cohereflux.RuleMapper.oneToOne;
+import static io.github.pellse.cohereflux.benchmarks.FakeDataSource.*;
+import static java.lang.Math.min;
+import static reactor.core.publisher.Flux.fromIterable;
+import static reactor.core.scheduler.Schedulers.immediate;
+
+/**
+ * Compares the cost of {@code oneToOne()} and {@code oneToMany()} result mapping, including default value
+ * generation for top level entities with no matching sub-query result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RuleMapperBenchmark {
+
+    record CustomerBillingInfo(Customer customer, BillingInfo billingInfo) {
+    }
+
+    record CustomerOrders(Customer customer, List<OrderItem> orderItems) {
+    }
+
+    @Param({"100", "10000"})
+    int batchSize;
+
+    @Param({"1", "10"})
+    int ordersPerCustomer;
+
+    @Param({"1.0", "0.5"})
+    double matchRatio;
+
+    private CohereFlux<Customer, CustomerBillingInfo> oneToOneCohereFlux;
+
+    private CohereFlux<Customer, CustomerOrders> oneToManyCohereFlux;
+
+    private List<Customer> customers;
+
+    @Setup
+    public void setup() {
+        final int matchCount = (int) (batchSize * matchRatio);
+
+        oneToOneCohereFlux = cohereFluxOf(CustomerBillingInfo.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(rule(BillingInfo::customerId, oneToOne(matching(billingInfoSource(0), matchCount))), CustomerBillingInfo::new)
+                .build(fluxAdapter(immediate()));
+
+        oneToManyCohereFlux = cohereFluxOf(CustomerOrders.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(rule(OrderItem::customerId, oneToMany(OrderItem::id, matching(orderItemSource(ordersPerCustomer, 0), matchCount))), CustomerOrders::new)
+                .build(fluxAdapter(immediate()));
+
+        customers = customers(batchSize);
+    }
+
+    @Benchmark
+    public List<CustomerBillingInfo> oneToOneMapping() {
+        return oneToOneCohereFlux.process(fromIterable(customers)).collectList().block();
+    }
+
+    @Benchmark
+    public List<CustomerOrders> oneToManyMapping() {
+        return oneToManyCohereFlux.process(fromIterable(customers)).collectList().block();
+    }
+
+    private static <R> Function<List<Customer>, Publisher<R>> matching(
+            Function<List<Customer>, Publisher<R>> queryFunction,
+            int matchCount) {
+        return customers -> queryFunction.apply(customers.subList(0, min(matchCount, customers.size())));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+import io.github.pellse.cohereflux.metrics.CacheMetrics;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Records the statistics of a Caffeine cache built with {@code recordStats()} into a {@link CacheMetrics}.
+ */
+final class CacheMetricsStatsCounter implements StatsCounter {
+
+    private final CacheMetrics cacheMetrics;
+
+    CacheMetricsStatsCounter(CacheMetrics cacheMetrics) {
+        this.cacheMetrics = requireNonNull(cacheMetrics, "cacheMetrics cannot be null");
+    }
+
+    @Override
+    public void recordHits(int count) {
+        cacheMetrics.recordHits(count);
+    }
+
+    @Override
+    public void recordMisses(int count) {
+        cacheMetrics.recordMisses(count);
+    }
+
+    @Override
+    public void recordLoadSuccess(long loadTime) {
+        cacheMetrics.recordLoadSuccess(loadTime);
+    }
+
+    @Override
+    public void recordLoadFailure(long loadTime) {
+        cacheMetrics.recordLoadFailure(loadTime);
+    }
+
+    @Override
+    public void recordEviction(int weight, RemovalCause cause) {
+        cacheMetrics.recordEviction(weight);
+    }
+
+    @Override
+    public CacheStats snapshot() {
+        return CacheStats.of(
+                cacheMetrics.hitCount(),
+                cacheMetrics.missCount(),
+                cacheMetrics.loadSuccessCount(),
+                cacheMetrics.loadFailureCount(),
+                cacheMetrics.loadTime().totalNanos(),
+                cacheMetrics.evictionCount(),
+                cacheMetrics.evictionWeight());
+    }
+}
@@ -18,16 +18,24 @@ package io.github.pellse.cohereflux.cache.caffeine;
 
 import com.github.benmanes.caffeine.cache.AsyncCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
 import io.github.pellse.cohereflux.caching.Cache;
+import io.github.pellse.cohereflux.caching.Cache.RemappingFunction;
 import io.github.pellse.cohereflux.caching.CacheFactory;
+import io.github.pellse.cohereflux.metrics.CacheMetrics;
 
 import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
 
 import static com.github.benmanes.caffeine.cache.Caffeine.newBuilder;
+import static io.github.pellse.cohereflux.caching.CacheFactory.nullIfEmpty;
 import static java.util.Collections.emptyMap;
+import static java.util.concurrent.CompletableFuture.allOf;
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static reactor.core.publisher.Mono.defer;
 import static reactor.core.publisher.Mono.fromFuture;
 import static reactor.core.scheduler.Schedulers.fromExecutor;
 
@@ -55,17 +63,66 @@ public interface CaffeineCacheFactory {
         return caffeineCache(customizer.apply(newBuilder()));
     }
 
-    static <ID, R, RRC> CacheFactory<ID, R, RRC> caffeineCache(Caffeine<Object, Object> caffeine) {
+    // Bounds the cache by the total number of cached entities instead of the number of ids, so that oneToMany()
+    // entries holding many entities weigh accordingly
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> weighedCaffeineCache(long maximumEntityCount) {
+        return caffeineCache(newBuilder()
+                .maximumWeight(maximumEntityCount)
+                .weigher(entityCountWeigher()));
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> weighedCaffeineCache(long maximumEntityCount, CacheMetrics cacheMetrics) {
+        return caffeineCache(newBuilder()
+                .maximumWeight(maximumEntityCount)
+                .weigher(entityCountWeigher()), cacheMetrics);
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> caffeineCache(Caffeine<? super ID, ? super List<R>> caffeine, CacheMetrics cacheMetrics) {
+        return caffeineCache(caffeine.recordStats(() -> new CacheMetricsStatsCounter(cacheMetrics)));
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> caffeineCache(Caffeine<? super ID, ? super List<R>> caffeine) {
 
         final AsyncCache<ID, List<R>> delegateCache = caffeine.buildAsync();
+        final var delegateMap = delegateCache.asMap();
 
-        return __ -> Cache.adapterCache(
-                (ids, fetchFunction) -> fromFuture(delegateCache.getAll(ids, (keys, executor) ->
-                        fetchFunction != null
-                                ? fetchFunction.apply(keys).subscribeOn(fromExecutor(executor)).toFuture()
-                                : completedFuture(emptyMap()))),
-                CacheFactory.toMono(map -> delegateCache.synchronous().putAll(map)),
-                CacheFactory.toMono(map -> delegateCache.synchronous().invalidateAll(map.keySet()))
+        // Writes and merges go through the asynchronous map view and never wait on an entry being loaded, merges are
+        // chained to the pending load and the entry is removed by Caffeine if the merge result is null
+        return __ -> Cache.mergeableCache(
+                Cache.adapterCache(
+                        (ids, fetchFunction) -> fromFuture(delegateCache.getAll(ids, (keys, executor) ->
+                                fetchFunction != null
+                                        ? fetchFunction.apply(keys).subscribeOn(fromExecutor(executor)).toFuture()
+                                        : completedFuture(emptyMap()))),
+                        CacheFactory.toMono(map -> map.forEach((id, entities) -> delegateCache.put(id, completedFuture(entities)))),
+                        CacheFactory.toMono(map -> delegateMap.keySet().removeAll(map.keySet()))),
+                (map, remappingFunction) -> defer(() -> fromFuture(allOf(map.entrySet().stream()
+                        .map(entry -> merge(delegateMap, entry.getKey(), entry.getValue(), remappingFunction))
+                        .toArray(CompletableFuture[]::new)))),
+                true
         );
     }
+
+    // A failed pending load is merged as if the id was absent
+    private static <ID, R> CompletableFuture<?> merge(
+            ConcurrentMap<ID, CompletableFuture<List<R>>> delegateMap,
+            ID id,
+            List<R> entities,
+            RemappingFunction<R> remappingFunction) {
+
+        final var mergedEntities = delegateMap.compute(id, (key, storedEntities) -> {
+            if (storedEntities == null) {
+                final var remappedEntities = nullIfEmpty(remappingFunction.apply(null, entities));
+                return remappedEntities != null ? completedFuture(remappedEntities) : null;
+            }
+            return storedEntities.handle((cachedEntities, error) ->
+                    nullIfEmpty(remappingFunction.apply(error == null ? cachedEntities : null, entities)));
+        });
+
+        return mergedEntities != null ? mergedEntities : completedFuture(null);
+    }
+
+    static Weigher<Object, List<?>> entityCountWeigher() {
+        return (id, entities) -> Math.max(1, entities.size());
+    }
 }
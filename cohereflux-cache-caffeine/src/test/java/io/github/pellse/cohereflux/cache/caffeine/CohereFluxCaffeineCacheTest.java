@@ -34,20 +34,25 @@ import reactor.test.StepVerifier;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 import static com.github.benmanes.caffeine.cache.Caffeine.newBuilder;
+import static io.github.pellse.cohereflux.cache.caffeine.CaffeineCacheFactory.entityCountWeigher;
 import static io.github.pellse.cohereflux.RuleMapper.oneToMany;
 import static io.github.pellse.cohereflux.RuleMapper.oneToOne;
 import static io.github.pellse.cohereflux.caching.AutoCacheFactory.autoCache;
 import static io.github.pellse.cohereflux.caching.CacheEvent.removed;
 import static io.github.pellse.cohereflux.caching.CacheEvent.updated;
 import static io.github.pellse.cohereflux.caching.CacheFactory.cached;
+import static io.github.pellse.cohereflux.metrics.CacheMetrics.cacheMetrics;
 import static io.github.pellse.cohereflux.test.CohereFluxTestUtils.*;
 import static io.github.pellse.util.collection.CollectionUtil.transform;
 import static java.time.Duration.ofMillis;
+import static java.util.stream.Stream.concat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static reactor.core.publisher.Mono.defer;
 import static reactor.core.scheduler.Schedulers.parallel;
 
 public class CohereFluxCaffeineCacheTest {
@@ -107,6 +112,57 @@ public class CohereFluxCaffeineCacheTest {
         assertEquals(1, ordersInvocationCount.get());
     }
 
+    @Test
+    public void testWeighedCaffeineCacheWithMetrics() {
+
+        var ordersCacheMetrics = cacheMetrics();
+
+        var cohereFlux = CohereFluxBuilder.cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        Rule.rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo, CaffeineCacheFactory.caffeineCache()), BillingInfo::new)),
+                        Rule.rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(this::getAllOrders, CaffeineCacheFactory.weighedCaffeineCache(100, ordersCacheMetrics)))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(getCustomers()
+                        .window(3)
+                        .delayElements(ofMillis(100))
+                        .flatMapSequential(cohereFlux::process))
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(1, ordersInvocationCount.get());
+        assertEquals(6, ordersCacheMetrics.hitCount());
+        assertEquals(3, ordersCacheMetrics.missCount());
+        assertEquals(1, ordersCacheMetrics.loadSuccessCount());
+
+        var evictionMetrics = cacheMetrics();
+        var cache = CaffeineCacheFactory.<Long, OrderItem, List<OrderItem>>caffeineCache(newBuilder()
+                        .executor(Runnable::run)
+                        .maximumWeight(4)
+                        .weigher(entityCountWeigher()), evictionMetrics)
+                .create(null);
+
+        // Entries are weighed by their number of entities and reweighed when merged
+        StepVerifier.create(cache.mergeAll(Map.of(1L, List.of(orderItem11, orderItem12)), (cachedOrderItems, orderItems) -> orderItems)
+                        .then(cache.mergeAll(Map.of(1L, List.of(orderItem13)), (cachedOrderItems, orderItems) -> concat(cachedOrderItems.stream(), orderItems.stream()).toList()))
+                        .then(defer(() -> cache.getAll(List.of(1L), null))))
+                .expectNext(Map.of(1L, List.of(orderItem11, orderItem12, orderItem13)))
+                .verifyComplete();
+
+        assertEquals(0, evictionMetrics.evictionCount());
+
+        StepVerifier.create(cache.putAll(Map.of(2L, List.of(orderItem21, orderItem22)))
+                        .then(defer(() -> cache.getAll(List.of(1L, 2L), null))))
+                .assertNext(orderItemsMap -> assertEquals(1, orderItemsMap.size()))
+                .verifyComplete();
+
+        assertEquals(1, evictionMetrics.evictionCount());
+    }
+
     @Test
     public void testReusableCohereFluxBuilderWithCaffeineCache2() {
 
@@ -16,20 +16,29 @@
 
 package io.github.pellse.cohereflux;
 
+import io.github.pellse.cohereflux.metrics.MetricsListener;
 import io.github.pellse.util.function.*;
 import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static io.github.pellse.cohereflux.FluxAdapter.fluxAdapter;
+import static io.github.pellse.cohereflux.metrics.MetricsListener.isNoOp;
+import static io.github.pellse.cohereflux.metrics.MetricsListener.noOp;
+import static io.github.pellse.cohereflux.metrics.QueryIdCounter.queryIdCounter;
 import static io.github.pellse.util.collection.CollectionUtil.toStream;
+import static java.lang.System.nanoTime;
+import static java.util.Objects.requireNonNullElse;
 
 public interface CohereFluxBuilder {
 
@@ -226,7 +235,15 @@ public interface CohereFluxBuilder {
             return build(fluxAdapter(scheduler));
         }
 
-        CohereFlux<T, R> build(CohereFluxAdapter<T, ID, R> adapter);
+        default CohereFlux<T, R> build(CohereFluxAdapter<T, ID, R> adapter) {
+            return build(adapter, noOp());
+        }
+
+        default CohereFlux<T, R> build(MetricsListener metricsListener) {
+            return build(fluxAdapter(), metricsListener);
+        }
+
+        CohereFlux<T, R> build(CohereFluxAdapter<T, ID, R> adapter, MetricsListener metricsListener);
     }
 
     class WithCorrelationIdResolverBuilderImpl<R> implements WithCorrelationIdResolverBuilder<R> {
@@ -274,8 +291,8 @@ public interface CohereFluxBuilder {
         }
 
         @Override
-        public CohereFlux<T, R> build(CohereFluxAdapter<T, ID, R> cohereFluxAdapter) {
-            return new CohereFluxImpl<>(correlationIdResolver, rules, aggregationFunction, cohereFluxAdapter);
+        public CohereFlux<T, R> build(CohereFluxAdapter<T, ID, R> cohereFluxAdapter, MetricsListener metricsListener) {
+            return new CohereFluxImpl<>(correlationIdResolver, rules, aggregationFunction, cohereFluxAdapter, requireNonNullElse(metricsListener, noOp()));
         }
     }
 
@@ -289,7 +306,8 @@ public interface CohereFluxBuilder {
                 Function<T, ID> correlationIdResolver,
                 List<Rule<T, ID, ?>> rules,
                 BiFunction<T, Object[], R> aggregationFunction,
-                CohereFluxAdapter<T, ID, R> cohereFluxAdapter) {
+                CohereFluxAdapter<T, ID, R> cohereFluxAdapter,
+                MetricsListener metricsListener) {
 
             this.cohereFluxAdapter = cohereFluxAdapter;
 
@@ -297,19 +315,102 @@ public interface CohereFluxBuilder {
                     .map(rule -> rule.apply(correlationIdResolver))
                     .toList();
 
-            this.subQueryMapperBuilder = topLevelEntities -> queryFunctions.stream()
-                    .map(queryFunction -> queryFunction.apply(topLevelEntities));
+            // Metrics are opt-in, the default pipeline doesn't pay for time measurements and id counting
+            final boolean instrumented = !isNoOp(metricsListener);
+
+            this.subQueryMapperBuilder = topLevelEntities -> {
+                if (instrumented) {
+                    onBatch(topLevelEntities, correlationIdResolver, metricsListener);
+                }
+
+                return IntStream.range(0, queryFunctions.size())
+                        .mapToObj(ruleIndex -> {
+                            final var subQueryMapper = queryFunctions.get(ruleIndex).apply(topLevelEntities);
+                            return instrumented ? instrument(subQueryMapper, ruleIndex, metricsListener) : subQueryMapper;
+                        });
+            };
+
+            this.aggregateStreamBuilder = (topLevelEntities, mapperResults) -> {
+                final var mapperResultColumns = toColumns(mapperResults);
+                final var batchSize = new int[1];
+                final var aggregationNanos = new long[1];
+
+                // Each row is aggregated lazily while downstream pulls from the stream, the time spent is
+                // accumulated row by row and reported when the stream is closed
+                return toStream(topLevelEntities)
+                        .filter(Objects::nonNull)
+                        .map(topLevelEntity -> {
+                            final long start = instrumented ? nanoTime() : 0;
+                            final R result = aggregationFunction.apply(topLevelEntity,
+                                    joinRow(correlationIdResolver.apply(topLevelEntity), mapperResultColumns));
+
+                            if (instrumented) {
+                                aggregationNanos[0] += nanoTime() - start;
+                                batchSize[0]++;
+                            }
+                            return result;
+                        })
+                        .onClose(() -> {
+                            if (instrumented) {
+                                metricsListener.onAggregation(batchSize[0], aggregationNanos[0]);
+                            }
+                        });
+            };
+        }
+
+        private static <T, ID> void onBatch(Iterable<T> topLevelEntities, Function<T, ID> correlationIdResolver, MetricsListener metricsListener) {
+            final var batchSize = new int[1];
+            final var ids = new HashSet<ID>();
+            toStream(topLevelEntities)
+                    .filter(Objects::nonNull)
+                    .forEach(topLevelEntity -> {
+                        batchSize[0]++;
+                        ids.add(correlationIdResolver.apply(topLevelEntity));
+                    });
+
+            metricsListener.onBatch(batchSize[0], ids.size());
+        }
+
+        private static <ID> Publisher<? extends Map<ID, ?>> instrument(
+                Publisher<? extends Map<ID, ?>> subQueryMapper,
+                int ruleIndex,
+                MetricsListener metricsListener) {
+
+            return Mono.defer(() -> {
+                final long start = nanoTime();
+                final var queryIdCounter = queryIdCounter();
+
+                return Mono.from(subQueryMapper)
+                        .doOnNext(resultMap -> metricsListener.onRuleQuery(ruleIndex, queryIdCounter.idCount(), resultCount(resultMap), nanoTime() - start))
+                        .doOnError(error -> metricsListener.onRuleError(ruleIndex, error, nanoTime() - start))
+                        .contextWrite(queryIdCounter.toContext());
+            });
+        }
+
+        private static int resultCount(Map<?, ?> resultMap) {
+            int resultCount = 0;
+            for (var result : resultMap.values()) {
+                if (result != null) {
+                    resultCount++;
+                }
+            }
+            return resultCount;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <ID> Map<ID, ?>[] toColumns(List<Map<ID, ?>> mapperResults) {
+            return mapperResults.toArray(Map[]::new);
+        }
 
-            BiFunction<T, List<Map<ID, ?>>, R> joinMapperResultsFunction =
-                    (topLevelEntity, listOfMapperResults) -> aggregationFunction.apply(topLevelEntity,
-                            listOfMapperResults.stream()
-                                    .map(mapperResult -> mapperResult.get(correlationIdResolver.apply(topLevelEntity)))
-                                    .toArray());
+        // The correlation id is resolved only once per top level entity and looked up directly in each rule's
+        // result column, a new array is still allocated per row as aggregation functions are allowed to keep it
+        private static <ID> Object[] joinRow(ID correlationId, Map<ID, ?>[] mapperResultColumns) {
+            final var row = new Object[mapperResultColumns.length];
 
-            this.aggregateStreamBuilder =
-                    (topLevelEntities, mapperResults) -> toStream(topLevelEntities)
-                            .filter(Objects::nonNull)
-                            .map(topLevelEntity -> joinMapperResultsFunction.apply(topLevelEntity, mapperResults));
+            for (int i = 0; i < mapperResultColumns.length; i++) {
+                row[i] = mapperResultColumns[i].get(correlationId);
+            }
+            return row;
         }
 
         @Override
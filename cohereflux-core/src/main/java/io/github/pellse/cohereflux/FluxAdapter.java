@@ -16,10 +16,12 @@
 
 package io.github.pellse.cohereflux;
 
+import io.github.pellse.util.collection.CollectionUtil;
 import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
 import reactor.core.scheduler.Scheduler;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiFunction;
@@ -30,14 +32,21 @@ import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collectors.toList;
 import static reactor.core.publisher.Flux.zip;
 import static reactor.core.publisher.Mono.from;
+import static reactor.core.scheduler.Schedulers.DEFAULT_POOL_SIZE;
 import static reactor.core.scheduler.Schedulers.parallel;
+import static reactor.util.concurrent.Queues.SMALL_BUFFER_SIZE;
+import static reactor.util.concurrent.Queues.XS_BUFFER_SIZE;
 
 public final class FluxAdapter<T, ID, R> implements CohereFluxAdapter<T, ID, R> {
 
     private final Scheduler scheduler;
+    private final Function<Flux<T>, Flux<List<T>>> batchingStrategy;
+    private final int concurrency;
 
-    private FluxAdapter(Scheduler scheduler) {
+    private FluxAdapter(Scheduler scheduler, Function<Flux<T>, Flux<List<T>>> batchingStrategy, int concurrency) {
         this.scheduler = requireNonNull(scheduler);
+        this.batchingStrategy = requireNonNull(batchingStrategy);
+        this.concurrency = validate(concurrency);
     }
 
     public static <T, ID, R> FluxAdapter<T, ID, R> fluxAdapter() {
@@ -45,7 +54,76 @@ public final class FluxAdapter<T, ID, R> implements CohereFluxAdapter<T, ID, R>
     }
 
     public static <T, ID, R> FluxAdapter<T, ID, R> fluxAdapter(Scheduler scheduler) {
-        return new FluxAdapter<>(scheduler);
+        return new FluxAdapter<>(scheduler, flux -> flux.collectList().flux(), 1);
+    }
+
+    public static <T, ID, R> FluxAdapter<T, ID, R> streamingFluxAdapter(int maxBatchSize) {
+        return streamingFluxAdapter(maxBatchSize, DEFAULT_POOL_SIZE);
+    }
+
+    public static <T, ID, R> FluxAdapter<T, ID, R> streamingFluxAdapter(int maxBatchSize, int concurrency) {
+        return streamingFluxAdapter(maxBatchSize, concurrency, parallel());
+    }
+
+    public static <T, ID, R> FluxAdapter<T, ID, R> streamingFluxAdapter(int maxBatchSize, int concurrency, Scheduler scheduler) {
+        return new FluxAdapter<>(scheduler, flux -> flux.buffer(validate(maxBatchSize)), concurrency);
+    }
+
+    public static <T, ID, R> FluxAdapter<T, ID, R> streamingFluxAdapter(Duration maxBatchTime) {
+        return streamingFluxAdapter(maxBatchTime, DEFAULT_POOL_SIZE);
+    }
+
+    public static <T, ID, R> FluxAdapter<T, ID, R> streamingFluxAdapter(Duration maxBatchTime, int concurrency) {
+        return streamingFluxAdapter(maxBatchTime, concurrency, parallel());
+    }
+
+    public static <T, ID, R> FluxAdapter<T, ID, R> streamingFluxAdapter(Duration maxBatchTime, int concurrency, Scheduler scheduler) {
+        return new FluxAdapter<>(scheduler, batchingStrategy(Integer.MAX_VALUE, maxBatchTime), concurrency);
+    }
+
+    public static <T, ID, R> FluxAdapter<T, ID, R> streamingFluxAdapter(int maxBatchSize, Duration maxBatchTime) {
+        return streamingFluxAdapter(maxBatchSize, maxBatchTime, DEFAULT_POOL_SIZE);
+    }
+
+    public static <T, ID, R> FluxAdapter<T, ID, R> streamingFluxAdapter(int maxBatchSize, Duration maxBatchTime, int concurrency) {
+        return streamingFluxAdapter(maxBatchSize, maxBatchTime, concurrency, parallel());
+    }
+
+    public static <T, ID, R> FluxAdapter<T, ID, R> streamingFluxAdapter(int maxBatchSize, Duration maxBatchTime, int concurrency, Scheduler scheduler) {
+        return new FluxAdapter<>(scheduler, batchingStrategy(maxBatchSize, maxBatchTime), concurrency);
+    }
+
+    static <T> Function<Flux<T>, Flux<List<T>>> batchingStrategy(int maxBatchSize, Duration maxBatchTime) {
+        return batchingStrategy(maxBatchSize, maxBatchTime, XS_BUFFER_SIZE);
+    }
+
+    static <T> Function<Flux<T>, Flux<List<T>>> batchingStrategy(int maxBatchSize, Duration maxBatchTime, int prefetch) {
+        // windowTimeout() with fair backpressure won't overflow when all in-flight batches are still being processed,
+        // unlike bufferTimeout() which errors out if a timer driven batch cannot be emitted downstream
+        return flux -> flux.windowTimeout(validate(maxBatchSize), requireNonNull(maxBatchTime), true)
+                .concatMap(Flux::collectList, validate(prefetch))
+                .filter(CollectionUtil::isNotEmpty);
+    }
+
+    static <T, ID, R> Flux<R> convertBatch(
+            List<T> entities,
+            Function<Iterable<T>, Stream<Publisher<? extends Map<ID, ?>>>> subQueryMapperBuilder,
+            BiFunction<Iterable<T>, List<Map<ID, ?>>, Stream<R>> aggregateStreamBuilder,
+            Scheduler scheduler) {
+        return convertBatch(entities, subQueryMapperBuilder, aggregateStreamBuilder, scheduler, SMALL_BUFFER_SIZE);
+    }
+
+    static <T, ID, R> Flux<R> convertBatch(
+            List<T> entities,
+            Function<Iterable<T>, Stream<Publisher<? extends Map<ID, ?>>>> subQueryMapperBuilder,
+            BiFunction<Iterable<T>, List<Map<ID, ?>>, Stream<R>> aggregateStreamBuilder,
+            Scheduler scheduler,
+            int prefetch) {
+
+        return zip(subQueryMapperBuilder.apply(entities).map(publisher -> from(publisher).subscribeOn(scheduler)).collect(toList()),
+                mapperResults -> aggregateStreamBuilder.apply(entities, toMapperResultList(mapperResults)))
+                .publishOn(scheduler, prefetch) // from(publisher) above can itself switch to a different scheduler e.g. AutoCache
+                .flatMap(Flux::fromStream);
     }
 
     @SuppressWarnings("unchecked")
@@ -55,6 +133,13 @@ public final class FluxAdapter<T, ID, R> implements CohereFluxAdapter<T, ID, R>
                 .collect(toList());
     }
 
+    static int validate(int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("value must be greater than 0, was " + value);
+        }
+        return value;
+    }
+
     @Override
     public Flux<R> convertSubQueryMappers(
             Publisher<T> topLevelEntitiesProvider,
@@ -62,11 +147,7 @@ public final class FluxAdapter<T, ID, R> implements CohereFluxAdapter<T, ID, R>
             BiFunction<Iterable<T>, List<Map<ID, ?>>, Stream<R>> aggregateStreamBuilder) {
 
         return Flux.from(topLevelEntitiesProvider)
-                .collectList()
-                .flatMapMany(entities ->
-                        zip(subQueryMapperBuilder.apply(entities).map(publisher -> from(publisher).subscribeOn(scheduler)).collect(toList()),
-                                mapperResults -> aggregateStreamBuilder.apply(entities, toMapperResultList(mapperResults))))
-                .publishOn(scheduler) // from(publisher) above can itself switch to a different scheduler e.g. AutoCache
-                .flatMap(Flux::fromStream);
+                .transform(batchingStrategy)
+                .flatMapSequential(entities -> convertBatch(entities, subQueryMapperBuilder, aggregateStreamBuilder, scheduler), concurrency);
     }
 }
@@ -16,6 +16,9 @@
 
 package io.github.pellse.cohereflux;
 
+import io.github.pellse.util.collection.IntKeyMap;
+import io.github.pellse.util.collection.LongKeyMap;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
@@ -25,4 +28,12 @@ public interface MapFactory<ID, R> extends Function<Integer, Map<ID, R>> {
     static <ID, R> MapFactory<ID, R> defaultMapFactory() {
         return HashMap::new;
     }
+
+    static <R> MapFactory<Long, R> longKeyMapFactory() {
+        return LongKeyMap::new;
+    }
+
+    static <R> MapFactory<Integer, R> intKeyMapFactory() {
+        return IntKeyMap::new;
+    }
 }
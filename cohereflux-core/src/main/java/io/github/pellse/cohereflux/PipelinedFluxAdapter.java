@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static io.github.pellse.cohereflux.FluxAdapter.*;
+import static io.github.pellse.cohereflux.PipelinedFluxAdapter.EmissionOrder.ORDERED;
+import static java.util.Objects.requireNonNull;
+import static reactor.core.scheduler.Schedulers.DEFAULT_POOL_SIZE;
+import static reactor.core.scheduler.Schedulers.parallel;
+import static reactor.util.concurrent.Queues.XS_BUFFER_SIZE;
+
+public final class PipelinedFluxAdapter<T, ID, R> implements CohereFluxAdapter<T, ID, R> {
+
+    private final Function<Flux<T>, Flux<List<T>>> batchingStrategy;
+    private final int maxInFlightBatches;
+    private final EmissionOrder emissionOrder;
+    private final int prefetch;
+    private final Scheduler scheduler;
+
+    private PipelinedFluxAdapter(
+            int maxBatchSize,
+            Duration maxBatchTime,
+            int maxInFlightBatches,
+            EmissionOrder emissionOrder,
+            int prefetch,
+            Scheduler scheduler) {
+
+        this.batchingStrategy = batchingStrategy(maxBatchSize, maxBatchTime, prefetch);
+        this.maxInFlightBatches = validate(maxInFlightBatches);
+        this.emissionOrder = requireNonNull(emissionOrder);
+        this.prefetch = validate(prefetch);
+        this.scheduler = requireNonNull(scheduler);
+    }
+
+    public static <T, ID, R> PipelinedFluxAdapter<T, ID, R> pipelinedFluxAdapter(int maxBatchSize, Duration maxBatchTime) {
+        return pipelinedFluxAdapter(maxBatchSize, maxBatchTime, DEFAULT_POOL_SIZE);
+    }
+
+    public static <T, ID, R> PipelinedFluxAdapter<T, ID, R> pipelinedFluxAdapter(int maxBatchSize, Duration maxBatchTime, int maxInFlightBatches) {
+        return pipelinedFluxAdapter(maxBatchSize, maxBatchTime, maxInFlightBatches, ORDERED);
+    }
+
+    public static <T, ID, R> PipelinedFluxAdapter<T, ID, R> pipelinedFluxAdapter(
+            int maxBatchSize,
+            Duration maxBatchTime,
+            int maxInFlightBatches,
+            EmissionOrder emissionOrder) {
+        return pipelinedFluxAdapter(maxBatchSize, maxBatchTime, maxInFlightBatches, emissionOrder, XS_BUFFER_SIZE);
+    }
+
+    public static <T, ID, R> PipelinedFluxAdapter<T, ID, R> pipelinedFluxAdapter(
+            int maxBatchSize,
+            Duration maxBatchTime,
+            int maxInFlightBatches,
+            EmissionOrder emissionOrder,
+            int prefetch) {
+        return pipelinedFluxAdapter(maxBatchSize, maxBatchTime, maxInFlightBatches, emissionOrder, prefetch, parallel());
+    }
+
+    public static <T, ID, R> PipelinedFluxAdapter<T, ID, R> pipelinedFluxAdapter(
+            int maxBatchSize,
+            Duration maxBatchTime,
+            int maxInFlightBatches,
+            EmissionOrder emissionOrder,
+            int prefetch,
+            Scheduler scheduler) {
+        return new PipelinedFluxAdapter<>(maxBatchSize, maxBatchTime, maxInFlightBatches, emissionOrder, prefetch, scheduler);
+    }
+
+    @Override
+    public Flux<R> convertSubQueryMappers(
+            Publisher<T> topLevelEntitiesProvider,
+            Function<Iterable<T>, Stream<Publisher<? extends Map<ID, ?>>>> subQueryMapperBuilder,
+            BiFunction<Iterable<T>, List<Map<ID, ?>>, Stream<R>> aggregateStreamBuilder) {
+
+        final Function<List<T>, Flux<R>> batchProcessor =
+                entities -> convertBatch(entities, subQueryMapperBuilder, aggregateStreamBuilder, scheduler, prefetch);
+
+        // Sub-queries of batch N + 1 are subscribed as soon as the batch is cut, while batch N is still being
+        // aggregated and emitted, so slow rule sources overlap across batches instead of adding up
+        final var batches = Flux.from(topLevelEntitiesProvider).transform(batchingStrategy);
+
+        return switch (emissionOrder) {
+            case ORDERED -> batches.flatMapSequential(batchProcessor, maxInFlightBatches, prefetch);
+            case UNORDERED -> batches.flatMap(batchProcessor, maxInFlightBatches, prefetch);
+        };
+    }
+
+    public enum EmissionOrder {
+        ORDERED,
+        UNORDERED
+    }
+}
@@ -22,7 +22,6 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
@@ -55,15 +54,35 @@ public interface QueryUtils {
             Function<T, ID> topLevelIdResolver,
             Function<ID, RRC> defaultResultProvider) {
 
+        return toResultMap(entities, map, topLevelIdResolver, defaultResultProvider, null);
+    }
+
+    static <T, ID, RRC> Map<ID, RRC> toResultMap(
+            Collection<T> entities,
+            Map<ID, RRC> map,
+            Function<T, ID> topLevelIdResolver,
+            Function<ID, RRC> defaultResultProvider,
+            MapFactory<ID, RRC> mapFactory) {
+
         return isSafeEqual(map, Map::size, entities, Collection::size)
                 ? map
-                : initializeResultMap(transform(entities, topLevelIdResolver), map, defaultResultProvider);
+                : initializeResultMap(transform(entities, topLevelIdResolver), map, defaultResultProvider, mapFactory);
     }
 
     static <ID, RRC> Map<ID, RRC> initializeResultMap(Collection<ID> ids, Map<ID, RRC> resultMap, Function<ID, RRC> defaultResultProvider) {
+        return initializeResultMap(ids, resultMap, defaultResultProvider, null);
+    }
+
+    static <ID, RRC> Map<ID, RRC> initializeResultMap(
+            Collection<ID> ids,
+            Map<ID, RRC> resultMap,
+            Function<ID, RRC> defaultResultProvider,
+            MapFactory<ID, RRC> mapFactory) {
+
         final Function<ID, RRC> resultProvider = requireNonNullElse(defaultResultProvider, id -> null);
         final Set<ID> idsFromQueryResult = resultMap.keySet();
-        final Map<ID, RRC> resultMapCopy = new HashMap<>(resultMap);
+        final Map<ID, RRC> resultMapCopy = toSupplier(Math.max(ids.size(), resultMap.size()), mapFactory).get();
+        resultMapCopy.putAll(resultMap);
 
         // defaultResultProvider can provide a null value, so we cannot use a Collector here
         // as it would throw a NullPointerException
@@ -19,6 +19,7 @@ package io.github.pellse.cohereflux;
 import io.github.pellse.cohereflux.caching.MergeStrategy;
 import io.github.pellse.util.collection.CollectionUtil;
 import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.*;
@@ -29,6 +30,7 @@ import java.util.function.Supplier;
 import java.util.stream.Collector;
 
 import static io.github.pellse.cohereflux.QueryUtils.*;
+import static io.github.pellse.cohereflux.metrics.QueryIdCounter.setIdCount;
 import static io.github.pellse.util.ObjectUtils.then;
 import static io.github.pellse.util.collection.CollectionUtil.*;
 import static java.util.Map.entry;
@@ -151,12 +153,17 @@ public interface RuleMapper<T, TC extends Collection<T>, ID, R, RRC>
                     toListConverter);
 
             final var queryFunction = RuleMapperSource.nullToEmptySource(ruleMapperSource).apply(ruleMapperContext);
+            final var isEmptySource = RuleMapperSource.isEmptySource(ruleMapperSource);
 
+            // Ids sent to the query function are counted for metrics, a cached source recounts them as its cache misses
             return entityList ->
                     then(translate(entityList, ruleMapperContext.topLevelCollectionFactory()), entities ->
-                            safeApply(entities, queryFunction)
+                            Flux.deferContextual(context -> {
+                                        setIdCount(context, isEmptySource ? 0 : entities.size());
+                                        return safeApply(entities, queryFunction);
+                                    })
                                     .collect(ruleMapperContext.mapCollector().apply(entities.size()))
-                                    .map(map -> toResultMap(entities, map, ruleMapperContext.topLevelIdResolver(), ruleMapperContext.defaultResultProvider())));
+                                    .map(map -> toResultMap(entities, map, ruleMapperContext.topLevelIdResolver(), ruleMapperContext.defaultResultProvider(), ruleMapperContext.mapFactory())));
         };
     }
 
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching;
+
+import io.github.pellse.cohereflux.caching.AutoCacheFactory.WindowingStrategy;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static java.lang.System.nanoTime;
+
+/**
+ * Windows sized after the measured cache update latency, a window holds about as many events as arrive while a
+ * single update is applied, i.e. {@code updateLatency / eventInterarrivalTime}, bounded by {@code maxWindowSize}.
+ * Bursts are thus applied in large batches to keep up with the event rate, while sparse events are applied one by
+ * one as soon as they arrive. A partially filled window is applied at the latest {@code maxWindowTime} after it opened.
+ */
+public final class AdaptiveWindowingStrategy<U> implements WindowingStrategy<U> {
+
+    // Weight of the latest sample in the moving averages
+    private static final double ALPHA = 0.2;
+
+    private final int maxWindowSize;
+    private final Duration maxWindowTime;
+
+    private volatile double averageApplyNanos;
+    private volatile long lastAppliedNanos = nanoTime();
+
+    private AdaptiveWindowingStrategy(int maxWindowSize, Duration maxWindowTime) {
+        if (maxWindowSize < 1) {
+            throw new IllegalArgumentException("maxWindowSize must be greater than 0, was " + maxWindowSize);
+        }
+        if (maxWindowTime.isNegative() || maxWindowTime.isZero()) {
+            throw new IllegalArgumentException("maxWindowTime must be positive, was " + maxWindowTime);
+        }
+        this.maxWindowSize = maxWindowSize;
+        this.maxWindowTime = maxWindowTime;
+    }
+
+    public static <U> AdaptiveWindowingStrategy<U> adaptiveWindowing(int maxWindowSize, Duration maxWindowTime) {
+        return new AdaptiveWindowingStrategy<>(maxWindowSize, maxWindowTime);
+    }
+
+    @Override
+    public void onApplied(long eventCount, long applyNanos) {
+        averageApplyNanos = ALPHA * applyNanos + (1 - ALPHA) * averageApplyNanos;
+        lastAppliedNanos = nanoTime();
+    }
+
+    // Current window size target of a stream of events arriving on average every averageInterarrivalNanos
+    private int windowSize(double averageInterarrivalNanos) {
+        final double windowSize = Math.ceil(averageApplyNanos / Math.max(averageInterarrivalNanos, 1));
+        return (int) Math.max(1, Math.min(windowSize, maxWindowSize));
+    }
+
+    // The interarrival time is tracked per subscription, e.g. per rail of a sharded autoCache, the update latency is
+    // shared as they all write to the same cache. Ticks are merged with the events to flush partially filled windows
+    @Override
+    public Flux<Flux<U>> apply(Flux<U> flux) {
+        return Flux.defer(() -> {
+            final var window = new WindowState();
+
+            return flux.publish(events -> Flux.merge(
+                            events.map(Optional::of),
+                            Flux.interval(maxWindowTime)
+                                    .onBackpressureDrop()
+                                    .map(__ -> Optional.<U>empty())
+                                    .takeUntilOther(events.ignoreElements())))
+                    .windowUntil(event -> event.isPresent() ? window.onEvent() : window.onTick())
+                    .map(events -> events.filter(Optional::isPresent).map(Optional::get));
+        });
+    }
+
+    private final class WindowState {
+
+        private double averageInterarrivalNanos = maxWindowTime.toNanos();
+        private long lastEventNanos = nanoTime();
+        private int count;
+
+        // Events are only delivered while a window is consumed, the time spent waiting on the previous update is
+        // backpressure, not a quiet source, and doesn't count in the interarrival time
+        boolean onEvent() {
+            final long now = nanoTime();
+            final long interarrivalNanos = Math.max(now - Math.max(lastEventNanos, lastAppliedNanos), 0);
+            averageInterarrivalNanos = ALPHA * interarrivalNanos + (1 - ALPHA) * averageInterarrivalNanos;
+            lastEventNanos = now;
+
+            return ++count >= windowSize(averageInterarrivalNanos) && close();
+        }
+
+        boolean onTick() {
+            return count > 0 && close();
+        }
+
+        private boolean close() {
+            count = 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching;
+
+import io.github.pellse.util.collection.BoundedConcurrentMap;
+
+import java.util.Map;
+
+/**
+ * Last version applied to the cache of each entity of an autoCache, see {@link CacheEvent#version()}. A version is only
+ * recorded once its event has been applied, so events dropped on overflow or whose update failed don't block their
+ * redelivery. At most {@code maximumSize} entities are tracked (removed ones included, so a stale update can't resurrect
+ * them), the least recently used are forgotten first and their next event is accepted whatever its version.
+ */
+final class AppliedVersions {
+
+    private final Map<Object, Long> versions;
+
+    AppliedVersions(long maximumSize) {
+        this.versions = new BoundedConcurrentMap<>(maximumSize);
+    }
+
+    boolean isStale(Object entityKey, CacheEvent<?> cacheEvent) {
+        if (!cacheEvent.isVersioned()) {
+            return false;
+        }
+
+        final var appliedVersion = versions.get(entityKey);
+        return appliedVersion != null && cacheEvent.version() < appliedVersion;
+    }
+
+    // Of two events of the same entity, a versioned event doesn't replace a newer version received before it
+    static <U extends CacheEvent<?>> U latestOf(U previousEvent, U nextEvent) {
+        return previousEvent.isVersioned() && nextEvent.isVersioned() && nextEvent.version() < previousEvent.version() ? previousEvent : nextEvent;
+    }
+
+    void onApplied(Object entityKey, CacheEvent<?> cacheEvent) {
+        if (cacheEvent.isVersioned()) {
+            versions.merge(entityKey, cacheEvent.version(), Math::max);
+        }
+    }
+}
@@ -18,30 +18,48 @@ package io.github.pellse.cohereflux.caching;
 
 import io.github.pellse.cohereflux.LifeCycleEventListener;
 import io.github.pellse.cohereflux.LifeCycleEventSource;
+import io.github.pellse.cohereflux.caching.CacheEvent.Removed;
+import io.github.pellse.cohereflux.caching.CacheEvent.Updated;
+import io.github.pellse.cohereflux.metrics.IngestionMetrics;
 import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import java.lang.System.Logger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.*;
 
 import static io.github.pellse.cohereflux.caching.AutoCacheFactory.OnErrorContinue.onErrorContinue;
+import static io.github.pellse.cohereflux.caching.ConcurrentCache.stripeIndex;
+import static io.github.pellse.cohereflux.caching.ConcurrentCache.toStripeCount;
+import static io.github.pellse.cohereflux.caching.IngestionBuffer.ingestionBuffer;
+import static io.github.pellse.cohereflux.metrics.IngestionMetrics.ingestionMetrics;
 import static io.github.pellse.util.ObjectUtils.doNothing;
 import static io.github.pellse.util.ObjectUtils.ifNotNull;
 import static java.lang.System.Logger.Level.WARNING;
 import static java.lang.System.getLogger;
+import static java.lang.System.nanoTime;
+import static java.util.Arrays.asList;
 import static java.util.Objects.requireNonNull;
 import static java.util.Objects.requireNonNullElse;
+import static java.util.Objects.requireNonNullElseGet;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.partitioningBy;
 
 public interface AutoCacheFactory {
 
     int MAX_WINDOW_SIZE = 1;
 
+    // Entities whose last applied version is tracked to drop stale versioned events, see AppliedVersions
+    long MAX_TRACKED_VERSIONS = 100_000;
+
     Logger logger = getLogger(CacheFactory.class.getName());
 
     static <ID, R, RRC> CacheFactory.CacheTransformer<ID, R, RRC> autoCache(Supplier<Flux<R>> dataSourceSupplier) {
@@ -76,18 +94,103 @@ public interface AutoCacheFactory {
             Scheduler scheduler,
             Function<CacheFactory<ID, R, RRC>, CacheFactory<ID, R, RRC>> concurrentCacheTransformer) {
 
+        return autoCache(dataSource, null, windowingStrategy, errorHandler, lifeCycleEventSource, scheduler, concurrentCacheTransformer);
+    }
+
+    static <ID, R, RRC, U extends CacheEvent<R>> CacheFactory.CacheTransformer<ID, R, RRC> autoCache(
+            Flux<U> dataSource,
+            Snapshot<R> snapshot,
+            WindowingStrategy<U> windowingStrategy,
+            ErrorHandler errorHandler,
+            LifeCycleEventSource lifeCycleEventSource,
+            Scheduler scheduler,
+            Function<CacheFactory<ID, R, RRC>, CacheFactory<ID, R, RRC>> concurrentCacheTransformer) {
+
+        return autoCache(dataSource, snapshot, windowingStrategy, errorHandler, lifeCycleEventSource, scheduler, concurrentCacheTransformer, 1);
+    }
+
+    /**
+     * With {@code shardCount > 1} events are partitioned by correlation id hash into that many rails (rounded up to
+     * a power of 2), each rail windows and applies its own events in order on {@code scheduler} (the parallel
+     * scheduler by default), so per id ordering is preserved while rails write to the cache in parallel. Rails are
+     * aligned with the lock stripes of the default {@link ConcurrentCacheFactory#striped(int)} cache, a custom
+     * {@code concurrentCacheTransformer} should be striped the same way for rails not to contend.
+     * <p>
+     * Rails write to different stripes at the same time, which requires a thread-safe cache backend. Backends are
+     * considered thread-safe when they merge atomically (see {@link Cache#isAtomicMerge()}), e.g. the default
+     * {@code cache()} or a Caffeine cache. Any other backend (e.g. {@code cache(HashMap::new)}, {@code longKeyCache()},
+     * off-heap or file backed maps) is updated on a single rail, whatever the {@code shardCount}.
+     */
+    static <ID, R, RRC, U extends CacheEvent<R>> CacheFactory.CacheTransformer<ID, R, RRC> autoCache(
+            Flux<U> dataSource,
+            Snapshot<R> snapshot,
+            WindowingStrategy<U> windowingStrategy,
+            ErrorHandler errorHandler,
+            LifeCycleEventSource lifeCycleEventSource,
+            Scheduler scheduler,
+            Function<CacheFactory<ID, R, RRC>, CacheFactory<ID, R, RRC>> concurrentCacheTransformer,
+            int shardCount) {
+
+        return autoCache(dataSource, snapshot, null, windowingStrategy, errorHandler, lifeCycleEventSource, scheduler, concurrentCacheTransformer, shardCount);
+    }
+
+    /**
+     * With an {@code ingestion}, change events wait in a buffer bounded by its capacity and overflow strategy until
+     * they are applied, instead of relying on the buffering policy of the data source, lag, queue depth and apply
+     * rate are reported to its {@link IngestionMetrics}.
+     */
+    static <ID, R, RRC, U extends CacheEvent<R>> CacheFactory.CacheTransformer<ID, R, RRC> autoCache(
+            Flux<U> dataSource,
+            Snapshot<R> snapshot,
+            Ingestion ingestion,
+            WindowingStrategy<U> windowingStrategy,
+            ErrorHandler errorHandler,
+            LifeCycleEventSource lifeCycleEventSource,
+            Scheduler scheduler,
+            Function<CacheFactory<ID, R, RRC>, CacheFactory<ID, R, RRC>> concurrentCacheTransformer,
+            int shardCount) {
+
         return cacheFactory -> context -> {
-            final var cache = requireNonNullElse(concurrentCacheTransformer, ConcurrentCacheFactory::concurrent)
-                    .apply(cacheFactory)
+            final var delegateCache = cacheFactory.create(context);
+            final int railCount = railCount(shardCount, delegateCache);
+
+            final var cache = requireNonNullElseGet(concurrentCacheTransformer, () -> railCount == 1 ? ConcurrentCacheFactory::concurrent : ConcurrentCacheFactory.striped(railCount))
+                    .apply(__ -> delegateCache)
                     .create(context);
 
             final var idResolver = context.correlationIdResolver();
+            final var entityIdResolver = context.idResolver();
 
-            final var cacheSourceFlux = requireNonNull(dataSource, "dataSource cannot be null")
-                    .transform(scheduleOn(scheduler, Flux::publishOn))
-                    .transform(requireNonNullElse(windowingStrategy, flux -> flux.window(MAX_WINDOW_SIZE)))
-                    .flatMap(flux -> flux.collect(partitioningBy(CacheEvent.Updated.class::isInstance)))
-                    .flatMap(eventMap -> cache.updateAll(toMap(eventMap.get(true), idResolver), toMap(eventMap.get(false), idResolver)))
+            final var metrics = ingestion != null ? ingestion.metrics() : null;
+
+            final Function<U, ?> entityKeyResolver = cacheEvent -> asList(idResolver.apply(cacheEvent.value()), entityIdResolver.apply(cacheEvent.value()));
+            final var appliedVersions = new AppliedVersions(MAX_TRACKED_VERSIONS);
+
+            final var latestEventFlux = requireNonNull(dataSource, "dataSource cannot be null")
+                    .filter(cacheEvent -> !isStale(entityKeyResolver.apply(cacheEvent), cacheEvent, appliedVersions, metrics));
+
+            final var changeEventFlux = ingestion == null ? latestEventFlux : ingestionBuffer(latestEventFlux, ingestion, entityKeyResolver, AppliedVersions::latestOf);
+
+            // Change events are subscribed to right away and buffered while the snapshot loads, none can be missed
+            final Flux<U> cacheEventFlux = snapshot == null ? changeEventFlux : Flux.mergeSequential(
+                    loadSnapshot(snapshot, cache, idResolver).thenMany(Flux.<U>empty()),
+                    ingestion == null ? changeEventFlux.onBackpressureBuffer() : changeEventFlux);
+
+            final WindowingStrategy<U> windowing = requireNonNullElse(windowingStrategy, flux -> flux.window(MAX_WINDOW_SIZE));
+
+            // Windows of a rail are applied one after the other, an id always maps to the same rail
+            final Function<Flux<U>, Flux<?>> applyWindows = rail -> rail
+                    .transform(windowing)
+                    .concatMap(flux -> flux.collect(LinkedHashMap::new, lastEventPerEntity(idResolver, entityIdResolver)))
+                    .concatMap(lastEvents -> updateAll(cache, lastEvents, appliedVersions, windowing, metrics));
+
+            final Function<Flux<U>, Flux<?>> applyEvents = railCount == 1
+                    ? flux -> applyWindows.apply(flux.transform(scheduleOn(scheduler, Flux::publishOn)))
+                    : flux -> flux
+                    .groupBy(cacheEvent -> stripeIndex(idResolver.apply(cacheEvent.value()), railCount))
+                    .flatMap(rail -> applyWindows.apply(rail.publishOn(requireNonNullElseGet(scheduler, Schedulers::parallel))), railCount);
+
+            final var cacheSourceFlux = applyEvents.apply(cacheEventFlux)
                     .transform(requireNonNullElse(errorHandler, onErrorContinue(AutoCacheFactory::logError)).toFluxErrorHandler())
                     .doFinally(__ -> ifNotNull(scheduler, Scheduler::dispose));
 
@@ -98,10 +201,92 @@ public interface AutoCacheFactory {
         };
     }
 
-    private static <ID, R> Map<ID, List<R>> toMap(List<? extends CacheEvent<R>> cacheEvents, Function<R, ID> correlationIdResolver) {
-        return cacheEvents.stream()
-                .map(CacheEvent::value)
-                .collect(groupingBy(correlationIdResolver));
+    // Rails only write in parallel to a thread-safe cache, i.e. one merging atomically per id
+    private static int railCount(int shardCount, Cache<?, ?> delegateCache) {
+        final int railCount = toStripeCount(shardCount);
+
+        if (railCount > 1 && !delegateCache.isAtomicMerge()) {
+            logger.log(WARNING, "Cache doesn't merge atomically and may not be thread-safe, autoCache() events are applied on a single rail instead of " + railCount);
+            return 1;
+        }
+        return railCount;
+    }
+
+    private static <ID, R> Mono<Void> loadSnapshot(Snapshot<R> snapshot, Cache<ID, R> cache, Function<R, ID> idResolver) {
+        return snapshot.dataSource()
+                .buffer(snapshot.batchSize())
+                .flatMap(batch -> cache.putAll(batch.stream().collect(groupingBy(idResolver))), snapshot.parallelism())
+                .then()
+                .doOnSuccess(__ -> snapshot.readiness().tryEmitEmpty())
+                .onErrorResume(e -> {
+                    logger.log(WARNING, "Error while loading snapshot in autoCache(), applying change events to a partially loaded cache", e);
+                    snapshot.readiness().tryEmitError(e);
+                    return Mono.empty();
+                });
+    }
+
+    // Versioned events older than the last version applied for their entity are stale (e.g. reordered across partitions),
+    // they are dropped before being buffered and checked again when applied, as a newer version may have been applied since
+    private static <R, U extends CacheEvent<R>> boolean isStale(Object entityKey, U cacheEvent, AppliedVersions appliedVersions, IngestionMetrics metrics) {
+        if (!appliedVersions.isStale(entityKey, cacheEvent)) {
+            return false;
+        }
+
+        ifNotNull(metrics, IngestionMetrics::onStale);
+        return true;
+    }
+
+    // Events of a window are compacted to the last one of each entity before being applied, e.g. a burst of updates
+    // of the same entity is written once, an entity updated then removed is only removed and vice versa. A versioned
+    // event doesn't replace a newer version of the same entity received before it in the window
+    private static <ID, R, U extends CacheEvent<R>> BiConsumer<Map<ID, Map<Object, U>>, U> lastEventPerEntity(
+            Function<R, ID> correlationIdResolver,
+            Function<R, ?> entityIdResolver) {
+
+        return (lastEvents, cacheEvent) -> lastEvents
+                .computeIfAbsent(correlationIdResolver.apply(cacheEvent.value()), __ -> new LinkedHashMap<>())
+                .merge(entityIdResolver.apply(cacheEvent.value()), cacheEvent, AppliedVersions::latestOf);
+    }
+
+    // Versions are only recorded once the update succeeded, so that an event whose update failed can be redelivered
+    private static <ID, R, U extends CacheEvent<R>> Mono<?> updateAll(
+            Cache<ID, R> cache,
+            Map<ID, Map<Object, U>> lastEvents,
+            AppliedVersions appliedVersions,
+            WindowingStrategy<U> windowingStrategy,
+            IngestionMetrics metrics) {
+
+        final Map<ID, Map<Object, U>> latestEvents = new LinkedHashMap<>();
+        lastEvents.forEach((id, events) -> events.forEach((entityId, cacheEvent) -> {
+            if (!isStale(asList(id, entityId), cacheEvent, appliedVersions, metrics)) {
+                latestEvents.computeIfAbsent(id, __ -> new LinkedHashMap<>()).put(entityId, cacheEvent);
+            }
+        }));
+
+        final var updateAll = cache.updateAll(toMap(latestEvents, Updated.class), toMap(latestEvents, Removed.class));
+        final long eventCount = latestEvents.values().stream().mapToLong(Map::size).sum();
+
+        return Mono.defer(() -> {
+            final long start = nanoTime();
+            return updateAll.doOnSuccess(__ -> {
+                final long applyNanos = nanoTime() - start;
+                latestEvents.forEach((id, events) -> events.forEach((entityId, cacheEvent) -> appliedVersions.onApplied(asList(id, entityId), cacheEvent)));
+                windowingStrategy.onApplied(eventCount, applyNanos);
+                if (metrics != null) {
+                    metrics.recordApplied(eventCount, applyNanos);
+                }
+            });
+        });
+    }
+
+    private static <ID, R, U extends CacheEvent<R>> Map<ID, List<R>> toMap(Map<ID, Map<Object, U>> lastEvents, Class<?> eventType) {
+        final Map<ID, List<R>> map = new HashMap<>();
+
+        lastEvents.forEach((id, events) -> events.values().stream()
+                .filter(eventType::isInstance)
+                .forEach(cacheEvent -> map.computeIfAbsent(id, __ -> new ArrayList<>()).add(cacheEvent.value())));
+
+        return map;
     }
 
     private static <T> Function<Flux<T>, Flux<T>> scheduleOn(Scheduler scheduler, BiFunction<Flux<T>, Scheduler, Flux<T>> scheduleFunction) {
@@ -118,6 +303,71 @@ public interface AutoCacheFactory {
 
     @FunctionalInterface
     interface WindowingStrategy<R> extends Function<Flux<R>, Flux<Flux<R>>> {
+
+        // Called once each window is applied to the cache, for strategies adapting to the cache update latency
+        default void onApplied(long eventCount, long applyNanos) {
+        }
+    }
+
+    /**
+     * Initial content loaded in batches of {@code batchSize}, up to {@code parallelism} batches at a time, before change
+     * events are applied. {@code readiness} completes once it is loaded, or fails with the error that interrupted loading.
+     */
+    record Snapshot<R>(Flux<R> dataSource, int batchSize, int parallelism, Sinks.Empty<Void> readiness) {
+
+        public static final int DEFAULT_BATCH_SIZE = 1_000;
+
+        public Snapshot {
+            requireNonNull(dataSource, "snapshot dataSource cannot be null");
+            requireNonNull(readiness, "readiness cannot be null");
+            if (batchSize < 1 || parallelism < 1) {
+                throw new IllegalArgumentException("batchSize and parallelism must be greater than 0, were " + batchSize + " and " + parallelism);
+            }
+        }
+
+        public static <R> Snapshot<R> snapshot(Flux<R> dataSource) {
+            return snapshot(dataSource, DEFAULT_BATCH_SIZE, 1);
+        }
+
+        public static <R> Snapshot<R> snapshot(Flux<R> dataSource, int batchSize, int parallelism) {
+            return new Snapshot<>(dataSource, batchSize, parallelism, Sinks.empty());
+        }
+
+        public Mono<Void> whenReady() {
+            return readiness.asMono();
+        }
+    }
+
+    /**
+     * Bounds the change events waiting to be applied to {@code capacity}, see {@link OverflowStrategy} for what happens
+     * when the cache can't keep up.
+     */
+    record Ingestion(int capacity, OverflowStrategy overflowStrategy, IngestionMetrics metrics) {
+
+        public Ingestion {
+            requireNonNull(overflowStrategy, "overflowStrategy cannot be null");
+            requireNonNull(metrics, "metrics cannot be null");
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be greater than 0, was " + capacity);
+            }
+        }
+
+        public static Ingestion ingestion(int capacity, OverflowStrategy overflowStrategy) {
+            return ingestion(capacity, overflowStrategy, ingestionMetrics());
+        }
+
+        public static Ingestion ingestion(int capacity, OverflowStrategy overflowStrategy, IngestionMetrics metrics) {
+            return new Ingestion(capacity, overflowStrategy, metrics);
+        }
+    }
+
+    enum OverflowStrategy {
+        // Stops requesting from the data source, which then applies its own backpressure (e.g. pausing a consumer)
+        BLOCK,
+        // Evicts the oldest pending event, for sources that can't be paused and where losing changes is acceptable
+        DROP_OLDEST,
+        // Replaces the pending event of the same entity, blocks only when a new entity doesn't fit
+        KEEP_LATEST_PER_KEY
     }
 
     record OnErrorContinue<E extends Throwable>(
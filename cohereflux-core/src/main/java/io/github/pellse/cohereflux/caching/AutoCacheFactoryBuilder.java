@@ -18,9 +18,14 @@ package io.github.pellse.cohereflux.caching;
 
 import io.github.pellse.cohereflux.LifeCycleEventSource;
 import io.github.pellse.cohereflux.caching.AutoCacheFactory.ErrorHandler;
+import io.github.pellse.cohereflux.caching.AutoCacheFactory.Ingestion;
+import io.github.pellse.cohereflux.caching.AutoCacheFactory.OverflowStrategy;
+import io.github.pellse.cohereflux.caching.AutoCacheFactory.Snapshot;
 import io.github.pellse.cohereflux.caching.AutoCacheFactory.WindowingStrategy;
 import io.github.pellse.cohereflux.caching.CacheFactory.CacheTransformer;
+import io.github.pellse.cohereflux.metrics.IngestionMetrics;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
 import reactor.util.retry.RetryBackoffSpec;
 import reactor.util.retry.RetrySpec;
@@ -28,6 +33,7 @@ import reactor.util.retry.RetrySpec;
 import java.time.Duration;
 import java.util.function.*;
 
+import static io.github.pellse.cohereflux.caching.AdaptiveWindowingStrategy.adaptiveWindowing;
 import static io.github.pellse.cohereflux.caching.AutoCacheFactory.OnErrorContinue.onErrorContinue;
 import static io.github.pellse.cohereflux.caching.AutoCacheFactory.autoCache;
 import static io.github.pellse.cohereflux.caching.CacheEvent.toCacheEvent;
@@ -66,12 +72,28 @@ public interface AutoCacheFactoryBuilder {
     }
 
     interface WindowingStrategyBuilder<R, U extends CacheEvent<R>> extends ConfigBuilder<R> {
+        WindowingStrategyBuilder<R, U> snapshot(Flux<R> snapshot);
+
+        WindowingStrategyBuilder<R, U> snapshot(Flux<R> snapshot, int batchSize, int parallelism);
+
+        // Events are applied in parallel on shardCount rails partitioned by correlation id, which requires a thread-safe
+        // cache, others (e.g. cache(HashMap::new), longKeyCache(), off-heap or file backed maps) are updated on a single
+        // rail, see AutoCacheFactory
+        WindowingStrategyBuilder<R, U> shards(int shardCount);
+
+        WindowingStrategyBuilder<R, U> ingestion(int capacity, OverflowStrategy overflowStrategy);
+
+        WindowingStrategyBuilder<R, U> ingestion(int capacity, OverflowStrategy overflowStrategy, IngestionMetrics metrics);
+
         ConfigBuilder<R> maxWindowSize(int maxWindowSize);
 
         ConfigBuilder<R> maxWindowTime(Duration maxWindowTime);
 
         ConfigBuilder<R> maxWindowSizeAndTime(int maxWindowSize, Duration maxWindowTime);
 
+        // Window size adjusted to the event rate and cache update latency, see AdaptiveWindowingStrategy
+        ConfigBuilder<R> adaptiveWindow(int maxWindowSize, Duration maxWindowTime);
+
         ConfigBuilder<R> windowingStrategy(WindowingStrategy<U> windowingStrategy);
     }
 
@@ -108,21 +130,57 @@ public interface AutoCacheFactoryBuilder {
 
     interface AutoCacheFactoryDelegateBuilder<R> {
         <ID, RRC> CacheTransformer<ID, R, RRC> build();
+
+        // Completes once the snapshot is loaded in the cache, immediately if there is no snapshot
+        Mono<Void> whenReady();
     }
 
     class Builder<R, U extends CacheEvent<R>> implements WindowingStrategyBuilder<R, U> {
 
         private final Flux<U> dataSource;
+        private Snapshot<R> snapshot;
+        private Ingestion ingestion;
         private WindowingStrategy<U> windowingStrategy;
         private ErrorHandler errorHandler;
         private Scheduler scheduler;
         private LifeCycleEventSource eventSource;
-        private CacheTransformer<?, R, ?> cacheTransformer;
+        private IntFunction<CacheTransformer<?, R, ?>> cacheTransformer;
+        private int shardCount = 1;
 
         private Builder(Flux<U> dataSource) {
             this.dataSource = dataSource;
         }
 
+        @Override
+        public WindowingStrategyBuilder<R, U> snapshot(Flux<R> snapshot) {
+            this.snapshot = Snapshot.snapshot(snapshot);
+            return this;
+        }
+
+        @Override
+        public WindowingStrategyBuilder<R, U> snapshot(Flux<R> snapshot, int batchSize, int parallelism) {
+            this.snapshot = Snapshot.snapshot(snapshot, batchSize, parallelism);
+            return this;
+        }
+
+        @Override
+        public WindowingStrategyBuilder<R, U> shards(int shardCount) {
+            this.shardCount = shardCount;
+            return this;
+        }
+
+        @Override
+        public WindowingStrategyBuilder<R, U> ingestion(int capacity, OverflowStrategy overflowStrategy) {
+            this.ingestion = Ingestion.ingestion(capacity, overflowStrategy);
+            return this;
+        }
+
+        @Override
+        public WindowingStrategyBuilder<R, U> ingestion(int capacity, OverflowStrategy overflowStrategy, IngestionMetrics metrics) {
+            this.ingestion = Ingestion.ingestion(capacity, overflowStrategy, metrics);
+            return this;
+        }
+
         @Override
         public ConfigBuilder<R> maxWindowSize(int maxWindowSize) {
             return windowingStrategy(flux -> flux.window(maxWindowSize));
@@ -138,6 +196,11 @@ public interface AutoCacheFactoryBuilder {
             return windowingStrategy(flux -> flux.windowTimeout(maxWindowSize, maxWindowTime));
         }
 
+        @Override
+        public ConfigBuilder<R> adaptiveWindow(int maxWindowSize, Duration maxWindowTime) {
+            return windowingStrategy(adaptiveWindowing(maxWindowSize, maxWindowTime));
+        }
+
         @Override
         public ConfigBuilder<R> windowingStrategy(WindowingStrategy<U> windowingStrategy) {
             this.windowingStrategy = windowingStrategy;
@@ -194,20 +257,26 @@ public interface AutoCacheFactoryBuilder {
 
         @Override
         public AutoCacheFactoryDelegateBuilder<R> retryStrategy(RetrySpec retrySpec) {
-            this.cacheTransformer = ConcurrentCacheFactory.concurrent(retrySpec);
+            this.cacheTransformer = stripeCount -> ConcurrentCacheFactory.striped(stripeCount, retrySpec);
             return this;
         }
 
         @Override
         public AutoCacheFactoryDelegateBuilder<R> retryStrategy(RetryBackoffSpec retryBackoffSpec) {
-            this.cacheTransformer = ConcurrentCacheFactory.concurrent(retryBackoffSpec, this.scheduler);
+            this.cacheTransformer = stripeCount -> ConcurrentCacheFactory.striped(stripeCount, retryBackoffSpec, this.scheduler);
             return this;
         }
 
         @SuppressWarnings("unchecked")
         @Override
         public <ID, RRC> CacheTransformer<ID, R, RRC> build() {
-            return autoCache(dataSource, windowingStrategy, errorHandler, eventSource, scheduler, (CacheTransformer<ID, R, RRC>) cacheTransformer);
+            final var concurrentCacheTransformer = cacheTransformer != null ? (CacheTransformer<ID, R, RRC>) cacheTransformer.apply(shardCount) : null;
+            return autoCache(dataSource, snapshot, ingestion, windowingStrategy, errorHandler, eventSource, scheduler, concurrentCacheTransformer, shardCount);
+        }
+
+        @Override
+        public Mono<Void> whenReady() {
+            return snapshot != null ? snapshot.whenReady() : Mono.empty();
         }
     }
 }
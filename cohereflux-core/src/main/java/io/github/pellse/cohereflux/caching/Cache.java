@@ -16,25 +16,23 @@
 
 package io.github.pellse.cohereflux.caching;
 
+import io.github.pellse.util.collection.IndexedList;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
-import static io.github.pellse.util.ObjectUtils.then;
 import static io.github.pellse.util.collection.CollectionUtil.*;
 import static java.util.Map.of;
+import static java.util.Objects.requireNonNullElse;
 import static java.util.Optional.ofNullable;
 import static reactor.core.publisher.Mono.defer;
 import static reactor.core.publisher.Mono.just;
 
-@FunctionalInterface
-interface CacheUpdater<ID, R> {
-    Mono<?> updateCache(Cache<ID, R> cache, Map<ID, List<R>> cacheQueryResults, Map<ID, List<R>> incomingChanges);
-}
-
 public interface Cache<ID, R> {
 
     static <ID, R> Cache<ID, R> adapterCache(
@@ -75,49 +73,85 @@ public interface Cache<ID, R> {
         };
     }
 
+    // For backends that can remap entries in a single pass, atomicMerge tells whether each id is remapped atomically
+    // (e.g. ConcurrentHashMap.compute()) so that concurrent merges don't need to exclude each other
+    static <ID, R> Cache<ID, R> mergeableCache(
+            Cache<ID, R> delegateCache,
+            BiFunction<Map<ID, List<R>>, RemappingFunction<R>, Mono<?>> mergeAll,
+            boolean atomicMerge) {
+        return new Cache<>() {
+
+            @Override
+            public Mono<Map<ID, List<R>>> getAll(Iterable<ID> ids, FetchFunction<ID, R> fetchFunction) {
+                return delegateCache.getAll(ids, fetchFunction);
+            }
+
+            @Override
+            public Mono<?> putAll(Map<ID, List<R>> map) {
+                return delegateCache.putAll(map);
+            }
+
+            @Override
+            public Mono<?> removeAll(Map<ID, List<R>> map) {
+                return delegateCache.removeAll(map);
+            }
+
+            @Override
+            public Mono<?> updateAll(Map<ID, List<R>> mapToAdd, Map<ID, List<R>> mapToRemove) {
+                return delegateCache.updateAll(mapToAdd, mapToRemove);
+            }
+
+            @Override
+            public Mono<?> mergeAll(Map<ID, List<R>> map, RemappingFunction<R> remappingFunction) {
+                return mergeAll.apply(map, remappingFunction);
+            }
+
+            @Override
+            public boolean isAtomicMerge() {
+                return atomicMerge;
+            }
+        };
+    }
+
+    // Incoming changes are merged into (or subtracted from) the cached entities of each id with mergeAll(),
+    // i.e. in a single atomic pass per id when supported by the delegate cache instead of a getAll() followed by a write
     static <ID, EID, R> Cache<ID, R> mergeStrategyAwareCache(
             Function<R, EID> idResolver,
             Cache<ID, R> delegateCache) {
 
-        final var optimizedCache = adapterCache(
-                emptyOr(delegateCache::getAll),
-                emptyOr(delegateCache::putAll),
-                emptyOr(delegateCache::removeAll)
-        );
-
-        return adapterCache(
-                optimizedCache::getAll,
-                applyMergeStrategy(
-                        optimizedCache,
-                        (cacheQueryResults, incomingChanges) -> mergeMaps(incomingChanges, cacheQueryResults, idResolver),
-                        Cache::putAll),
-                applyMergeStrategy(
-                        optimizedCache,
-                        (cache, cacheQueryResults, incomingChanges) ->
-                                then(subtractFromMap(incomingChanges, cacheQueryResults, idResolver),
-                                        updatedMap -> cache.updateAll(updatedMap, diff(cacheQueryResults, updatedMap))))
-        );
+        return mergeableCache(
+                adapterCache(
+                        emptyOr(delegateCache::getAll),
+                        emptyOr(map -> defer(() -> delegateCache.mergeAll(map, (cachedEntities, incomingEntities) -> merge(cachedEntities, incomingEntities, idResolver)))),
+                        emptyOr(map -> defer(() -> delegateCache.mergeAll(map, (cachedEntities, entitiesToRemove) -> subtract(cachedEntities, entitiesToRemove, idResolver))))),
+                delegateCache::mergeAll,
+                delegateCache.isAtomicMerge());
     }
 
-    private static <ID, R> Function<Map<ID, List<R>>, Mono<?>> applyMergeStrategy(
-            Cache<ID, R> delegateCache,
-            MergeStrategy<ID, R> mergeStrategy,
-            BiFunction<Cache<ID, R>, Map<ID, List<R>>, Mono<?>> cacheUpdater) {
-
-        return applyMergeStrategy(
-                delegateCache,
-                (cache, cacheQueryResults, incomingChanges) ->
-                        cacheUpdater.apply(cache, mergeStrategy.merge(cacheQueryResults, incomingChanges)));
+    // Entries holding more than one entity (i.e. from oneToMany() rules) are promoted to an IndexedList, upserted and
+    // removed by entity id from then on in O(log32 n) instead of copying the cached entities for each change. Every
+    // change returns a new list sharing most of its structure with the previous one, entries already handed out to
+    // readers are never modified
+    private static <EID, R> List<R> merge(List<R> cachedEntities, List<R> incomingEntities, Function<R, EID> idResolver) {
+        if (cachedEntities instanceof IndexedList<?, R> indexedList) {
+            return indexedList.upsertAll(incomingEntities);
+        }
+
+        final var entities = new IndexedList<EID, R>(requireNonNullElse(cachedEntities, List.of()), idResolver).upsertAll(incomingEntities);
+        return entities.size() > 1 ? entities : new ArrayList<>(entities);
     }
 
-    private static <ID, R> Function<Map<ID, List<R>>, Mono<?>> applyMergeStrategy(
-            Cache<ID, R> delegateCache,
-            CacheUpdater<ID, R> cacheUpdater) {
+    private static <EID, R> List<R> subtract(List<R> cachedEntities, List<R> entitiesToRemove, Function<R, EID> idResolver) {
+        if (cachedEntities == null) {
+            return null;
+        }
+
+        if (cachedEntities instanceof IndexedList<?, R> indexedList) {
+            return indexedList.removeAllOf(entitiesToRemove);
+        }
 
-        return incomingChanges -> isEmpty(incomingChanges) ? just(of()) : defer(() ->
-                delegateCache.getAll(incomingChanges.keySet(), null)
-                        .flatMap(cacheQueryResults ->
-                                cacheUpdater.updateCache(delegateCache, cacheQueryResults, incomingChanges)));
+        final var entities = new IndexedList<EID, R>(cachedEntities, idResolver).removeAllOf(entitiesToRemove);
+        return entities.size() > 1 ? entities : new ArrayList<>(entities);
     }
 
     private static <ID, R> Function<Map<ID, List<R>>, Mono<?>> emptyOr(
@@ -140,6 +174,42 @@ public interface Cache<ID, R> {
         return putAll(mapToAdd).then(removeAll(mapToRemove));
     }
 
+    /**
+     * Replaces the stored entities of each id of {@code map} with {@code remappingFunction(storedEntities, entities)},
+     * {@code storedEntities} being {@code null} when the id is absent, a {@code null} or empty result removes the id.
+     * This is a backend level operation, the default implementation reads the stored entities with {@link #getAll}
+     * then writes them back with {@link #updateAll}, backends that can do better override it
+     * (see {@link #mergeableCache}).
+     */
+    default Mono<?> mergeAll(Map<ID, List<R>> map, RemappingFunction<R> remappingFunction) {
+        return isEmpty(map) ? just(of()) : defer(() -> getAll(map.keySet(), null))
+                .flatMap(storedEntitiesMap -> {
+                    final Map<ID, List<R>> mapToAdd = new HashMap<>();
+                    final Map<ID, List<R>> mapToRemove = new HashMap<>();
+
+                    map.forEach((id, entities) -> {
+                        final var storedEntities = storedEntitiesMap.get(id);
+                        final var remappedEntities = remappingFunction.apply(storedEntities, entities);
+
+                        if (remappedEntities != null && !remappedEntities.isEmpty()) {
+                            mapToAdd.put(id, remappedEntities);
+                        } else if (storedEntities != null) {
+                            mapToRemove.put(id, storedEntities);
+                        }
+                    });
+
+                    return updateAll(mapToAdd, mapToRemove);
+                });
+    }
+
+    // Whether mergeAll() remaps each id atomically
+    default boolean isAtomicMerge() {
+        return false;
+    }
+
     interface FetchFunction<ID, R> extends Function<Iterable<? extends ID>, Mono<Map<ID, List<R>>>> {
     }
+
+    interface RemappingFunction<R> extends BiFunction<List<R>, List<R>, List<R>> {
+    }
 }
@@ -18,18 +18,35 @@ package io.github.pellse.cohereflux.caching;
 
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 
 import static java.util.function.Function.identity;
 
+/**
+ * Change of an entity to apply to an autoCache. An event can carry a version (or timestamp) of the change, an
+ * autoCache then drops events older than the last version it applied for the same entity, so change feeds that don't
+ * guarantee ordering (e.g. multiple partitions consumed in parallel, redeliveries) can't overwrite newer data.
+ */
 public sealed interface CacheEvent<R> {
+
+    long NO_VERSION = Long.MIN_VALUE;
+
     static <R> Updated<R> updated(R value) {
         return new Updated<>(value);
     }
 
+    static <R> Updated<R> updated(R value, long version) {
+        return new Updated<>(value, version);
+    }
+
     static <R> Removed<R> removed(R value) {
         return new Removed<>(value);
     }
 
+    static <R> Removed<R> removed(R value, long version) {
+        return new Removed<>(value, version);
+    }
+
     static <T> Function<T, CacheEvent<T>> toCacheEvent(Predicate<T> isAddOrUpdateEvent) {
         return toCacheEvent(isAddOrUpdateEvent, identity());
     }
@@ -38,16 +55,40 @@ public sealed interface CacheEvent<R> {
         return source -> toCacheEvent(isAddOrUpdateEvent.test(source), cacheEventValueExtractor.apply(source));
     }
 
+    static <T, R> Function<T, CacheEvent<R>> toCacheEvent(
+            Predicate<T> isAddOrUpdateEvent,
+            Function<T, R> cacheEventValueExtractor,
+            ToLongFunction<T> versionExtractor) {
+
+        return source -> toCacheEvent(isAddOrUpdateEvent.test(source), cacheEventValueExtractor.apply(source), versionExtractor.applyAsLong(source));
+    }
+
     static <R> CacheEvent<R> toCacheEvent(boolean isAddOrUpdateEvent, R eventValue) {
-        return isAddOrUpdateEvent ? updated(eventValue) : removed(eventValue);
+        return toCacheEvent(isAddOrUpdateEvent, eventValue, NO_VERSION);
+    }
+
+    static <R> CacheEvent<R> toCacheEvent(boolean isAddOrUpdateEvent, R eventValue, long version) {
+        return isAddOrUpdateEvent ? updated(eventValue, version) : removed(eventValue, version);
     }
 
     R value();
 
-    record Updated<R>(R value) implements CacheEvent<R> {
+    long version();
+
+    default boolean isVersioned() {
+        return version() != NO_VERSION;
+    }
+
+    record Updated<R>(R value, long version) implements CacheEvent<R> {
+        public Updated(R value) {
+            this(value, NO_VERSION);
+        }
     }
 
-    record Removed<R>(R value) implements CacheEvent<R> {
+    record Removed<R>(R value, long version) implements CacheEvent<R> {
+        public Removed(R value) {
+            this(value, NO_VERSION);
+        }
     }
 }
 
@@ -18,46 +18,76 @@ package io.github.pellse.cohereflux.caching;
 
 import io.github.pellse.cohereflux.RuleMapperContext;
 import io.github.pellse.cohereflux.RuleMapperSource;
+import io.github.pellse.util.collection.BoundedConcurrentMap;
+import io.github.pellse.util.collection.IntKeyMap;
+import io.github.pellse.util.collection.LongKeyMap;
 import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import static io.github.pellse.cohereflux.metrics.QueryIdCounter.addIdCount;
+import static io.github.pellse.cohereflux.metrics.QueryIdCounter.setIdCount;
 import static io.github.pellse.util.ObjectUtils.*;
 import static io.github.pellse.util.collection.CollectionUtil.*;
 import static java.util.Arrays.stream;
 import static java.util.function.Predicate.not;
 import static java.util.stream.Collectors.groupingBy;
-import static reactor.core.publisher.Flux.from;
 import static reactor.core.publisher.Flux.fromStream;
+import static reactor.core.publisher.Mono.fromRunnable;
 import static reactor.core.publisher.Mono.just;
 
 @FunctionalInterface
 public interface CacheFactory<ID, R, RRC> {
 
+    long DEFAULT_MAXIMUM_SIZE = 100_000;
+
     static <ID, R, RRC> CacheFactory<ID, R, RRC> cache() {
-        return cache(HashMap::new);
+        return cache(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    // Bounded unless the cache is the only source of truth (i.e. populated by autoCache() without a query function),
+    // in which case evicted entries could never be fetched back
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> cache(long maximumSize) {
+        return context -> CacheFactory.<ID, R, RRC>cache(context.isEmptySource() ? new ConcurrentHashMap<>() : new BoundedConcurrentMap<>(maximumSize))
+                .create(context);
+    }
+
+    static <R, RRC> CacheFactory<Long, R, RRC> longKeyCache() {
+        return cache(LongKeyMap::new);
+    }
+
+    static <R, RRC> CacheFactory<Integer, R, RRC> intKeyCache() {
+        return cache(IntKeyMap::new);
     }
 
     static <ID, R, RRC> CacheFactory<ID, R, RRC> cache(Supplier<Map<ID, List<R>>> mapSupplier) {
         return cache(mapSupplier.get());
     }
 
+    // Merges are applied with Map.compute(), which is atomic per id for a ConcurrentMap
     static <ID, R, RRC> CacheFactory<ID, R, RRC> cache(Map<ID, List<R>> delegateMap) {
 
-        return __ -> Cache.adapterCache(
-                (ids, fetchFunction) -> just(readAll(ids, delegateMap))
-                        .flatMap(cachedEntitiesMap -> then(intersect(ids, cachedEntitiesMap.keySet()),
-                                entityIds ->
-                                        fetchFunction == null || entityIds.isEmpty() ? just(cachedEntitiesMap) : fetchFunction.apply(entityIds)
-                                                .doOnNext(delegateMap::putAll)
-                                                .map(map -> mergeMaps(map, cachedEntitiesMap)))),
-                toMono(delegateMap::putAll),
-                toMono(map -> delegateMap.keySet().removeAll(map.keySet())));
+        return __ -> Cache.mergeableCache(
+                Cache.adapterCache(
+                        (ids, fetchFunction) -> just(readAll(ids, delegateMap))
+                                .flatMap(cachedEntitiesMap -> then(intersect(ids, cachedEntitiesMap.keySet()),
+                                        entityIds ->
+                                                fetchFunction == null || entityIds.isEmpty() ? just(cachedEntitiesMap) : fetchFunction.apply(entityIds)
+                                                        .doOnNext(delegateMap::putAll)
+                                                        .map(map -> mergeMaps(map, cachedEntitiesMap)))),
+                        toMono(delegateMap::putAll),
+                        toMono(map -> delegateMap.keySet().removeAll(map.keySet()))),
+                (map, remappingFunction) -> fromRunnable(() -> map.forEach((id, entities) ->
+                        delegateMap.compute(id, (key, storedEntities) -> nullIfEmpty(remappingFunction.apply(storedEntities, entities))))),
+                delegateMap instanceof ConcurrentMap);
     }
 
     static <ID, R, RRC> CacheFactory<ID, R, RRC> cache(
@@ -113,16 +143,27 @@ public interface CacheFactory<ID, R, RRC> {
 
         return ruleContext -> {
             final var queryFunction = RuleMapperSource.nullToEmptySource(ruleMapperSource).apply(ruleContext);
+            final var inFlightFetches = new InFlightFetches<ID, R>();
 
             final var cache = delegate(ruleContext, cacheFactory, delegateCacheFactories)
                     .create(new CacheContext<>(isEmptySource, ruleContext));
 
-            return entities -> cache.getAll(
-                            ids(entities, ruleContext),
-                            isEmptySource ? ids -> Mono.empty() : buildFetchFunction(entities, ruleContext, queryFunction))
-                    .flatMapMany(map -> fromStream(map.values().stream().flatMap(Collection::stream)))
-                    .onErrorResume(not(QueryFunctionException.class::isInstance), __ -> queryFunction.apply(entities))
-                    .onErrorMap(QueryFunctionException.class, Throwable::getCause);
+            // Only the ids missing from the cache are sent to the query function, unless the cache itself fails.
+            // Lookups are coalesced before reaching the cache, so callers asking for ids already being looked up join
+            // the pending lookup instead of waiting for the cache lock (exclusive by default) and reading them again
+            return entities -> Flux.deferContextual(context -> {
+                setIdCount(context, 0);
+                final Cache.FetchFunction<ID, R> fetchFunction = isEmptySource ? ids -> Mono.empty() : buildFetchFunction(entities, ruleContext, queryFunction);
+
+                return inFlightFetches.coalesce(ids -> cache.getAll(new ArrayList<ID>(asCollection(ids)), fetchFunction))
+                        .apply(ids(entities, ruleContext))
+                        .flatMapMany(map -> fromStream(map.values().stream().flatMap(Collection::stream)))
+                        .onErrorResume(not(QueryFunctionException.class::isInstance), __ -> {
+                            setIdCount(context, entities.size());
+                            return queryFunction.apply(entities);
+                        })
+                        .onErrorMap(QueryFunctionException.class, Throwable::getCause);
+            });
         };
     }
 
@@ -130,6 +171,10 @@ public interface CacheFactory<ID, R, RRC> {
         return map -> just(also(map, consumer));
     }
 
+    static <R> List<R> nullIfEmpty(List<R> entities) {
+        return entities == null || entities.isEmpty() ? null : entities;
+    }
+
     private static <T, TC extends Collection<T>, ID, EID, R, RRC> List<ID> ids(TC entities, RuleMapperContext<T, TC, ID, EID, R, RRC> ruleContext) {
         return transform(entities, ruleContext.topLevelIdResolver());
     }
@@ -147,7 +192,10 @@ public interface CacheFactory<ID, R, RRC> {
                     .filter(e -> idSet.contains(ruleContext.topLevelIdResolver().apply(e)))
                     .toList();
 
-            return from(queryFunction.apply(translate(entitiesToQuery, ruleContext.topLevelCollectionFactory())))
+            return Flux.deferContextual(context -> {
+                        addIdCount(context, entitiesToQuery.size());
+                        return queryFunction.apply(translate(entitiesToQuery, ruleContext.topLevelCollectionFactory()));
+                    })
                     .collect(groupingBy(ruleContext.correlationIdResolver()))
                     .map(queryResultsMap -> buildCacheFragment(ids, queryResultsMap, ruleContext))
                     .onErrorMap(QueryFunctionException::new);
@@ -192,11 +240,21 @@ public interface CacheFactory<ID, R, RRC> {
     record CacheContext<ID, R, RRC>(
             boolean isEmptySource,
             Function<R, ID> correlationIdResolver,
+            Function<R, ?> idResolver,
             Function<List<R>, RRC> fromListConverter,
             Function<RRC, List<R>> toListConverter) {
 
         public CacheContext(boolean isEmptySource, RuleMapperContext<?, ?, ID, ?, R, RRC> ctx) {
-            this(isEmptySource, ctx.correlationIdResolver(), ctx.fromListConverter(), ctx.toListConverter());
+            this(isEmptySource, ctx.correlationIdResolver(), ctx.idResolver(), ctx.fromListConverter(), ctx.toListConverter());
+        }
+
+        // Entities are identified by their correlation id, as in oneToOne() rules
+        public CacheContext(
+                boolean isEmptySource,
+                Function<R, ID> correlationIdResolver,
+                Function<List<R>, RRC> fromListConverter,
+                Function<RRC, List<R>> toListConverter) {
+            this(isEmptySource, correlationIdResolver, correlationIdResolver, fromListConverter, toListConverter);
         }
     }
 }
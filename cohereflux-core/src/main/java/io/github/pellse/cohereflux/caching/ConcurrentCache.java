@@ -16,6 +16,7 @@
 
 package io.github.pellse.cohereflux.caching;
 
+import io.github.pellse.cohereflux.metrics.LockMetrics;
 import reactor.core.Exceptions;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
@@ -24,17 +25,25 @@ import reactor.util.retry.RetryBackoffSpec;
 import reactor.util.retry.RetrySpec;
 
 import java.time.Duration;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
+import static io.github.pellse.cohereflux.caching.ConcurrentCache.ConcurrencyStrategy.MULTIPLE_READERS;
 import static io.github.pellse.cohereflux.caching.ConcurrentCache.ConcurrencyStrategy.SINGLE_READER;
+import static io.github.pellse.cohereflux.metrics.LockMetrics.lockMetrics;
 import static io.github.pellse.util.ObjectUtils.also;
 import static io.github.pellse.util.ObjectUtils.run;
+import static io.github.pellse.util.collection.CollectionUtil.toStream;
+import static java.util.Arrays.stream;
+import static java.util.stream.Stream.concat;
 import static reactor.core.publisher.Mono.*;
 import static reactor.util.retry.Retry.*;
 
@@ -42,6 +51,8 @@ public interface ConcurrentCache<ID, R> extends Cache<ID, R> {
 
     LockNotAcquiredException LOCK_NOT_ACQUIRED = new LockNotAcquiredException();
 
+    int DEFAULT_STRIPE_COUNT = toStripeCount(4 * Runtime.getRuntime().availableProcessors());
+
     static <ID, R> ConcurrentCache<ID, R> concurrentCache(Cache<ID, R> delegateCache) {
         return concurrentCache(delegateCache, SINGLE_READER);
     }
@@ -86,85 +97,118 @@ public interface ConcurrentCache<ID, R> extends Cache<ID, R> {
         return concurrentCache(delegateCache, retrySpec.scheduler(retryScheduler), RetryBackoffSpec::filter, concurrencyStrategy);
     }
 
+    // Locks are acquired per hash stripe of the ids instead of for the whole cache, so readers and writers on disjoint
+    // keys don't wait on each other, the delegate cache must therefore support concurrent access to disjoint keys
+    // (e.g. ConcurrentHashMap or Caffeine based caches)
+    static <ID, R> ConcurrentCache<ID, R> stripedConcurrentCache(Cache<ID, R> delegateCache) {
+        return stripedConcurrentCache(delegateCache, DEFAULT_STRIPE_COUNT);
+    }
+
+    static <ID, R> ConcurrentCache<ID, R> stripedConcurrentCache(Cache<ID, R> delegateCache, int stripeCount) {
+        return stripedConcurrentCache(delegateCache, stripeCount, SINGLE_READER);
+    }
+
+    static <ID, R> ConcurrentCache<ID, R> stripedConcurrentCache(Cache<ID, R> delegateCache, int stripeCount, ConcurrencyStrategy concurrencyStrategy) {
+        return stripedConcurrentCache(delegateCache, stripeCount, concurrencyStrategy, indefinitely());
+    }
+
+    static <ID, R> ConcurrentCache<ID, R> stripedConcurrentCache(Cache<ID, R> delegateCache, int stripeCount, ConcurrencyStrategy concurrencyStrategy, RetrySpec retrySpec) {
+        return concurrentCache(delegateCache, retrySpec, RetrySpec::filter, concurrencyStrategy, stripeCount);
+    }
+
+    static <ID, R> ConcurrentCache<ID, R> stripedConcurrentCache(Cache<ID, R> delegateCache, int stripeCount, ConcurrencyStrategy concurrencyStrategy, RetryBackoffSpec retrySpec) {
+        return concurrentCache(delegateCache, retrySpec, RetryBackoffSpec::filter, concurrencyStrategy, stripeCount);
+    }
+
+    static <ID, R> ConcurrentCache<ID, R> stripedConcurrentCache(Cache<ID, R> delegateCache, int stripeCount, ConcurrencyStrategy concurrencyStrategy, RetryBackoffSpec retrySpec, Scheduler retryScheduler) {
+        return stripedConcurrentCache(delegateCache, stripeCount, concurrencyStrategy, retrySpec.scheduler(retryScheduler));
+    }
+
+    // Lock requests that can't be granted right away wait in a FIFO queue and are signaled on release, instead of
+    // retrying until the lock is acquired
+    static <ID, R> ConcurrentCache<ID, R> queuedConcurrentCache(Cache<ID, R> delegateCache) {
+        return queuedConcurrentCache(delegateCache, SINGLE_READER);
+    }
+
+    static <ID, R> ConcurrentCache<ID, R> queuedConcurrentCache(Cache<ID, R> delegateCache, ConcurrencyStrategy concurrencyStrategy) {
+        return queuedConcurrentCache(delegateCache, concurrencyStrategy, lockMetrics());
+    }
+
+    static <ID, R> ConcurrentCache<ID, R> queuedConcurrentCache(Cache<ID, R> delegateCache, ConcurrencyStrategy concurrencyStrategy, LockMetrics lockMetrics) {
+        return queuedConcurrentCache(delegateCache, 1, concurrencyStrategy, lockMetrics);
+    }
+
+    static <ID, R> ConcurrentCache<ID, R> queuedConcurrentCache(Cache<ID, R> delegateCache, int stripeCount, ConcurrencyStrategy concurrencyStrategy, LockMetrics lockMetrics) {
+        return build(delegateCache, cache -> queuedConcurrentCache(cache, concurrencyStrategy == SINGLE_READER, queuedLocks(toStripeCount(stripeCount), lockMetrics)));
+    }
+
     private static <ID, R, RETRY extends Retry> ConcurrentCache<ID, R> concurrentCache(
             Cache<ID, R> delegateCache,
             RETRY retrySpec,
             BiFunction<RETRY, Predicate<? super Throwable>, RETRY> errorFilterFunction,
             ConcurrencyStrategy concurrencyStrategy) {
 
-        return build(delegateCache, cache -> concurrentCache(cache, retryStrategy(retrySpec, errorFilterFunction), concurrencyStrategy));
+        return concurrentCache(delegateCache, retrySpec, errorFilterFunction, concurrencyStrategy, 1);
     }
 
-    private static <ID, R> ConcurrentCache<ID, R> concurrentCache(Cache<ID, R> delegateCache, Retry retrySpec, ConcurrencyStrategy concurrencyStrategy) {
-
-        return new ConcurrentCache<>() {
-
-            private final AtomicBoolean isLocked = new AtomicBoolean();
-
-            private final AtomicLong readCount = new AtomicLong();
+    private static <ID, R, RETRY extends Retry> ConcurrentCache<ID, R> concurrentCache(
+            Cache<ID, R> delegateCache,
+            RETRY retrySpec,
+            BiFunction<RETRY, Predicate<? super Throwable>, RETRY> errorFilterFunction,
+            ConcurrencyStrategy concurrencyStrategy,
+            int stripeCount) {
 
-            private final Lock multipleReadersLock = new Lock() {
+        return build(delegateCache, cache -> concurrentCache(cache, retryStrategy(retrySpec, errorFilterFunction), concurrencyStrategy, toStripeCount(stripeCount)));
+    }
 
-                @Override
-                public boolean tryAcquireLock() {
-                    if (isLocked.compareAndSet(false, true)) {
-                        try {
-                            if (readCount.getAndIncrement() < 0) {
-                                throw new IllegalStateException("readCount cannot be < 0 in readLock.tryAcquireLock()");
-                            }
-                        } finally {
-                            isLocked.set(false);
-                        }
-                        return true;
-                    }
-                    return false;
-                }
+    private static <ID, R> ConcurrentCache<ID, R> concurrentCache(Cache<ID, R> delegateCache, Retry retrySpec, ConcurrencyStrategy concurrencyStrategy, int stripeCount) {
 
-                @Override
-                public void releaseLock() {
-                    if (readCount.decrementAndGet() < 0) {
-                        throw new IllegalStateException("readCount cannot be < 0 in readLock.releaseLock()");
-                    }
-                }
-            };
+        final var readLocks = new Lock[stripeCount];
+        final var writeLocks = new Lock[stripeCount];
 
-            private final Lock singleReaderLock = new Lock() {
+        for (int i = 0; i < stripeCount; i++) {
+            lockStripe(readLocks, writeLocks, i);
+        }
 
-                @Override
-                public boolean tryAcquireLock() {
-                    if (isLocked.compareAndSet(false, true)) {
-                        if (readCount.get() == 0) {
-                            return true;
-                        }
-                        isLocked.set(false);
-                    }
-                    return false;
-                }
+        final var getAllLocks = concurrencyStrategy.equals(SINGLE_READER) ? writeLocks : readLocks;
+        final var updateLocks = sharedUpdates(delegateCache, concurrencyStrategy) ? readLocks : writeLocks;
 
-                @Override
-                public void releaseLock() {
-                    isLocked.set(false);
-                }
-            };
+        return new ConcurrentCache<>() {
 
             @Override
             public Mono<Map<ID, List<R>>> getAll(Iterable<ID> ids, FetchFunction<ID, R> fetchFunction) {
-                return execute(delegateCache.getAll(ids, fetchFunction), concurrencyStrategy.equals(SINGLE_READER) ? singleReaderLock : multipleReadersLock);
+                return execute(delegateCache.getAll(ids, fetchFunction), lock(getAllLocks, toStream(ids)));
             }
 
             @Override
             public Mono<?> putAll(Map<ID, List<R>> map) {
-                return execute(delegateCache.putAll(map), singleReaderLock);
+                return execute(delegateCache.putAll(map), lock(updateLocks, map.keySet().stream()));
             }
 
             @Override
             public Mono<?> removeAll(Map<ID, List<R>> map) {
-                return execute(delegateCache.removeAll(map), singleReaderLock);
+                return execute(delegateCache.removeAll(map), lock(updateLocks, map.keySet().stream()));
             }
 
             @Override
             public Mono<?> updateAll(Map<ID, List<R>> mapToAdd, Map<ID, List<R>> mapToRemove) {
-                return execute(delegateCache.updateAll(mapToAdd, mapToRemove), singleReaderLock);
+                return execute(delegateCache.updateAll(mapToAdd, mapToRemove), lock(updateLocks, concat(mapToAdd.keySet().stream(), mapToRemove.keySet().stream())));
+            }
+
+            @Override
+            public Mono<?> mergeAll(Map<ID, List<R>> map, RemappingFunction<R> remappingFunction) {
+                return execute(delegateCache.mergeAll(map, remappingFunction), lock(updateLocks, map.keySet().stream()));
+            }
+
+            @Override
+            public boolean isAtomicMerge() {
+                return delegateCache.isAtomicMerge();
+            }
+
+            private Lock lock(Lock[] locks, Stream<ID> ids) {
+                return locks.length == 1 ? locks[0] : stripedLock(stream(stripes(ids, locks.length))
+                        .mapToObj(stripe -> locks[stripe])
+                        .toArray(Lock[]::new));
             }
 
             private <U> Mono<U> execute(Mono<U> mono, Lock lock) {
@@ -192,6 +236,174 @@ public interface ConcurrentCache<ID, R> extends Cache<ID, R> {
         };
     }
 
+    private static <ID, R> ConcurrentCache<ID, R> queuedConcurrentCache(Cache<ID, R> delegateCache, boolean exclusiveReads, QueuedReadWriteLock[] locks) {
+
+        final boolean exclusiveUpdates = !sharedUpdates(delegateCache, exclusiveReads ? SINGLE_READER : MULTIPLE_READERS);
+
+        return new ConcurrentCache<>() {
+
+            @Override
+            public Mono<Map<ID, List<R>>> getAll(Iterable<ID> ids, FetchFunction<ID, R> fetchFunction) {
+                return execute(delegateCache.getAll(ids, fetchFunction), toStream(ids), exclusiveReads);
+            }
+
+            @Override
+            public Mono<?> putAll(Map<ID, List<R>> map) {
+                return execute(delegateCache.putAll(map), map.keySet().stream(), exclusiveUpdates);
+            }
+
+            @Override
+            public Mono<?> removeAll(Map<ID, List<R>> map) {
+                return execute(delegateCache.removeAll(map), map.keySet().stream(), exclusiveUpdates);
+            }
+
+            @Override
+            public Mono<?> updateAll(Map<ID, List<R>> mapToAdd, Map<ID, List<R>> mapToRemove) {
+                return execute(delegateCache.updateAll(mapToAdd, mapToRemove), concat(mapToAdd.keySet().stream(), mapToRemove.keySet().stream()), exclusiveUpdates);
+            }
+
+            @Override
+            public Mono<?> mergeAll(Map<ID, List<R>> map, RemappingFunction<R> remappingFunction) {
+                return execute(delegateCache.mergeAll(map, remappingFunction), map.keySet().stream(), exclusiveUpdates);
+            }
+
+            @Override
+            public boolean isAtomicMerge() {
+                return delegateCache.isAtomicMerge();
+            }
+
+            private <U> Mono<U> execute(Mono<U> mono, Stream<ID> ids, boolean exclusive) {
+                return withLocks(mono, locks, stripes(ids, locks.length), 0, exclusive);
+            }
+        };
+    }
+
+    // Updates of a cache merging atomically per id (see Cache.isAtomicMerge()) don't need to exclude each other, only
+    // reads, which is only guaranteed when reads are exclusive since a read can write the entities it fetches
+    private static boolean sharedUpdates(Cache<?, ?> delegateCache, ConcurrencyStrategy concurrencyStrategy) {
+        return delegateCache.isAtomicMerge() && concurrencyStrategy == SINGLE_READER;
+    }
+
+    // Stripes are acquired one after the other in ascending order while holding the previous ones, waiting doesn't
+    // spin and the global acquisition order rules out deadlocks, each permit is released on completion, error or cancel
+    private static <U> Mono<U> withLocks(Mono<U> mono, QueuedReadWriteLock[] locks, int[] stripes, int index, boolean exclusive) {
+        return index == stripes.length ? mono : usingWhen(
+                locks[stripes[index]].acquire(exclusive),
+                __ -> withLocks(mono, locks, stripes, index + 1, exclusive),
+                permit -> fromRunnable(permit::release));
+    }
+
+    private static QueuedReadWriteLock[] queuedLocks(int stripeCount, LockMetrics lockMetrics) {
+        final var locks = new QueuedReadWriteLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            locks[i] = new QueuedReadWriteLock(lockMetrics);
+        }
+        return locks;
+    }
+
+    private static void lockStripe(Lock[] readLocks, Lock[] writeLocks, int stripe) {
+
+        final var isLocked = new AtomicBoolean();
+
+        final var readCount = new AtomicLong();
+
+        readLocks[stripe] = new Lock() {
+
+            @Override
+            public boolean tryAcquireLock() {
+                if (isLocked.compareAndSet(false, true)) {
+                    try {
+                        if (readCount.getAndIncrement() < 0) {
+                            throw new IllegalStateException("readCount cannot be < 0 in readLock.tryAcquireLock()");
+                        }
+                    } finally {
+                        isLocked.set(false);
+                    }
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public void releaseLock() {
+                if (readCount.decrementAndGet() < 0) {
+                    throw new IllegalStateException("readCount cannot be < 0 in readLock.releaseLock()");
+                }
+            }
+        };
+
+        writeLocks[stripe] = new Lock() {
+
+            @Override
+            public boolean tryAcquireLock() {
+                if (isLocked.compareAndSet(false, true)) {
+                    if (readCount.get() == 0) {
+                        return true;
+                    }
+                    isLocked.set(false);
+                }
+                return false;
+            }
+
+            @Override
+            public void releaseLock() {
+                isLocked.set(false);
+            }
+        };
+    }
+
+    // All or nothing acquisition in ascending stripe order, a partially acquired set of stripes is released right away
+    // so concurrent multi stripe operations can't deadlock
+    private static Lock stripedLock(Lock[] locks) {
+
+        return new Lock() {
+
+            @Override
+            public boolean tryAcquireLock() {
+                for (int i = 0; i < locks.length; i++) {
+                    if (!locks[i].tryAcquireLock()) {
+                        for (int j = i - 1; j >= 0; j--) {
+                            locks[j].releaseLock();
+                        }
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public void releaseLock() {
+                for (int i = locks.length - 1; i >= 0; i--) {
+                    locks[i].releaseLock();
+                }
+            }
+        };
+    }
+
+    // A single stripe is equivalent to locking the whole cache, whatever the ids
+    private static int[] stripes(Stream<?> ids, int stripeCount) {
+        if (stripeCount == 1) {
+            return new int[]{0};
+        }
+
+        final var stripes = new BitSet(stripeCount);
+        ids.forEach(id -> stripes.set(stripeIndex(id, stripeCount)));
+        return stripes.stream().toArray();
+    }
+
+    // Also used to route ids to the rails of a sharded autoCache, so each rail only ever locks its own stripe
+    static int stripeIndex(Object id, int stripeCount) {
+        final int h = Objects.hashCode(id);
+        return (h ^ (h >>> 16)) & (stripeCount - 1);
+    }
+
+    static int toStripeCount(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("stripeCount must be greater than 0, was " + stripeCount);
+        }
+        return stripeCount == 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+    }
+
     private static <T extends Retry> T retryStrategy(
             T retrySpec,
             BiFunction<T, Predicate<? super Throwable>, T> errorFilterFunction) {
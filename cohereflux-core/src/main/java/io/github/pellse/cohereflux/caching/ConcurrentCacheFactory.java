@@ -18,13 +18,18 @@ package io.github.pellse.cohereflux.caching;
 
 import io.github.pellse.cohereflux.caching.CacheFactory.CacheContext;
 import io.github.pellse.cohereflux.caching.CacheFactory.CacheTransformer;
+import io.github.pellse.cohereflux.metrics.LockMetrics;
 import reactor.core.scheduler.Scheduler;
 import reactor.util.retry.RetryBackoffSpec;
 import reactor.util.retry.RetrySpec;
 
 import java.time.Duration;
 
+import static io.github.pellse.cohereflux.caching.ConcurrentCache.DEFAULT_STRIPE_COUNT;
 import static io.github.pellse.cohereflux.caching.ConcurrentCache.concurrentCache;
+import static io.github.pellse.cohereflux.caching.ConcurrentCache.queuedConcurrentCache;
+import static io.github.pellse.cohereflux.caching.ConcurrentCache.stripedConcurrentCache;
+import static io.github.pellse.cohereflux.metrics.LockMetrics.lockMetrics;
 
 public interface ConcurrentCacheFactory {
 
@@ -124,6 +129,74 @@ public interface ConcurrentCacheFactory {
         return context -> concurrentCache(delegateCacheFactory.create(context), retrySpec, concurrencyStrategy, retryScheduler);
     }
 
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> striped() {
+        return striped(DEFAULT_STRIPE_COUNT);
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> striped(int stripeCount) {
+        return cacheFactory -> striped(cacheFactory, stripeCount);
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> striped(int stripeCount, ConcurrentCache.ConcurrencyStrategy concurrencyStrategy) {
+        return cacheFactory -> striped(cacheFactory, stripeCount, concurrencyStrategy);
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> striped(int stripeCount, RetrySpec retrySpec) {
+        return cacheFactory -> striped(cacheFactory, stripeCount, retrySpec);
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> striped(int stripeCount, RetryBackoffSpec retrySpec, Scheduler retryScheduler) {
+        return cacheFactory -> striped(cacheFactory, stripeCount, retrySpec, retryScheduler);
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> striped(int stripeCount, ConcurrentCache.ConcurrencyStrategy concurrencyStrategy, RetryBackoffSpec retrySpec) {
+        return cacheFactory -> striped(cacheFactory, stripeCount, concurrencyStrategy, retrySpec);
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> striped(CacheFactory<ID, R, RRC> delegateCacheFactory, int stripeCount) {
+        return context -> stripedConcurrentCache(delegateCacheFactory.create(context), stripeCount, concurrencyStrategy(context));
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> striped(CacheFactory<ID, R, RRC> delegateCacheFactory, int stripeCount, ConcurrentCache.ConcurrencyStrategy concurrencyStrategy) {
+        return context -> stripedConcurrentCache(delegateCacheFactory.create(context), stripeCount, concurrencyStrategy);
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> striped(CacheFactory<ID, R, RRC> delegateCacheFactory, int stripeCount, RetrySpec retrySpec) {
+        return context -> stripedConcurrentCache(delegateCacheFactory.create(context), stripeCount, concurrencyStrategy(context), retrySpec);
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> striped(CacheFactory<ID, R, RRC> delegateCacheFactory, int stripeCount, RetryBackoffSpec retrySpec, Scheduler retryScheduler) {
+        return context -> stripedConcurrentCache(delegateCacheFactory.create(context), stripeCount, concurrencyStrategy(context), retrySpec, retryScheduler);
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> striped(CacheFactory<ID, R, RRC> delegateCacheFactory, int stripeCount, ConcurrentCache.ConcurrencyStrategy concurrencyStrategy, RetryBackoffSpec retrySpec) {
+        return context -> stripedConcurrentCache(delegateCacheFactory.create(context), stripeCount, concurrencyStrategy, retrySpec);
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> queued() {
+        return queued(lockMetrics());
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> queued(LockMetrics lockMetrics) {
+        return queued(1, lockMetrics);
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> queued(int stripeCount, LockMetrics lockMetrics) {
+        return cacheFactory -> queued(cacheFactory, stripeCount, lockMetrics);
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> queued(int stripeCount, ConcurrentCache.ConcurrencyStrategy concurrencyStrategy, LockMetrics lockMetrics) {
+        return cacheFactory -> queued(cacheFactory, stripeCount, concurrencyStrategy, lockMetrics);
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> queued(CacheFactory<ID, R, RRC> delegateCacheFactory, int stripeCount, LockMetrics lockMetrics) {
+        return context -> queuedConcurrentCache(delegateCacheFactory.create(context), stripeCount, concurrencyStrategy(context), lockMetrics);
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> queued(CacheFactory<ID, R, RRC> delegateCacheFactory, int stripeCount, ConcurrentCache.ConcurrencyStrategy concurrencyStrategy, LockMetrics lockMetrics) {
+        return context -> queuedConcurrentCache(delegateCacheFactory.create(context), stripeCount, concurrencyStrategy, lockMetrics);
+    }
+
     private static <ID, R, RRC> ConcurrentCache.ConcurrencyStrategy concurrencyStrategy(CacheContext<ID, R, RRC> context) {
         return context.isEmptySource() ? ConcurrentCache.ConcurrencyStrategy.MULTIPLE_READERS : ConcurrentCache.ConcurrencyStrategy.SINGLE_READER ;
     }
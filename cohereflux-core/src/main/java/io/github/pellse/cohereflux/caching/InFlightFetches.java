@@ -0,0 +1,77 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching;
+
+import io.github.pellse.cohereflux.caching.Cache.FetchFunction;
+import reactor.core.publisher.Mono;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.github.pellse.util.collection.CollectionUtil.readAll;
+import static java.util.Collections.newSetFromMap;
+import static reactor.core.publisher.Flux.fromIterable;
+import static reactor.core.publisher.Mono.defer;
+
+/**
+ * Single-flight registry of pending fetches, keyed by id. A caller asking for ids that are already being
+ * fetched joins the pending result instead of fetching them again, only the remaining ids are fetched.
+ * Wrapping a whole cache lookup (rather than the fetch function the cache invokes under its lock) lets callers
+ * join outside the cache lock.
+ */
+final class InFlightFetches<ID, R> {
+
+    private final Map<ID, Mono<Map<ID, List<R>>>> pendingFetches = new ConcurrentHashMap<>();
+
+    FetchFunction<ID, R> coalesce(FetchFunction<ID, R> fetchFunction) {
+
+        return ids -> defer(() -> {
+            final var requestedIds = new LinkedHashSet<ID>();
+            final var ownedIds = new ArrayList<ID>();
+            final Set<Mono<Map<ID, List<R>>>> fetches = newSetFromMap(new IdentityHashMap<>());
+
+            // The owner's registration is removed once its fetch terminates, ids only ever map to a single pending fetch
+            final Mono<Map<ID, List<R>>> ownFetch = defer(() -> fetchFunction.apply(ownedIds))
+                    .doFinally(__ -> ownedIds.forEach(pendingFetches::remove))
+                    .cache();
+
+            for (ID id : ids) {
+                if (!requestedIds.add(id)) {
+                    continue;
+                }
+
+                final var pendingFetch = pendingFetches.putIfAbsent(id, ownFetch);
+                if (pendingFetch == null) {
+                    ownedIds.add(id);
+                    fetches.add(ownFetch);
+                } else {
+                    fetches.add(pendingFetch);
+                }
+            }
+
+            return fromIterable(fetches)
+                    .flatMap(fetch -> fetch)
+                    .collect(HashMap<ID, List<R>>::new, Map::putAll)
+                    .map(results -> readAll(requestedIds, results));
+        });
+    }
+
+    int pendingCount() {
+        return pendingFetches.size();
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching;
+
+import io.github.pellse.cohereflux.caching.AutoCacheFactory.Ingestion;
+import io.github.pellse.cohereflux.caching.AutoCacheFactory.OverflowStrategy;
+import io.github.pellse.cohereflux.metrics.IngestionMetrics;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import static io.github.pellse.cohereflux.caching.AutoCacheFactory.OverflowStrategy.*;
+import static java.lang.System.nanoTime;
+
+/**
+ * Bounded buffer between a change event source and the cache updates of an autoCache, holding at most
+ * {@code capacity} events in arrival order. When full, {@code BLOCK} stops requesting from the source,
+ * {@code DROP_OLDEST} evicts the oldest event and {@code KEEP_LATEST_PER_KEY} replaces the pending event of the same
+ * key in place, unless {@code conflator} keeps the pending one (e.g. a newer version). {@code BLOCK} and
+ * {@code KEEP_LATEST_PER_KEY} only request as many events from the source as there are free slots in the buffer, a
+ * replaced event frees its slot right away.
+ */
+final class IngestionBuffer<U> {
+
+    private final int capacity;
+    private final OverflowStrategy overflowStrategy;
+    private final IngestionMetrics metrics;
+    private final Function<U, ?> keyResolver;
+    private final BinaryOperator<U> conflator;
+    private final FluxSink<U> sink;
+    private final Upstream upstream = new Upstream();
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // Guarded by this, events in arrival order, keyed only with KEEP_LATEST_PER_KEY
+    private final ArrayDeque<Pending<U>> queue;
+    private final Map<Object, Pending<U>> latestPerKey;
+    private long upstreamRequests;
+
+    private volatile boolean done;
+    private volatile Throwable error;
+
+    private IngestionBuffer(Ingestion ingestion, Function<U, ?> keyResolver, BinaryOperator<U> conflator, FluxSink<U> sink) {
+        this.capacity = ingestion.capacity();
+        this.overflowStrategy = ingestion.overflowStrategy();
+        this.metrics = ingestion.metrics();
+        this.keyResolver = keyResolver;
+        this.conflator = conflator;
+        this.sink = sink;
+        this.queue = overflowStrategy == KEEP_LATEST_PER_KEY ? null : new ArrayDeque<>();
+        this.latestPerKey = overflowStrategy == KEEP_LATEST_PER_KEY ? new LinkedHashMap<>() : null;
+    }
+
+    static <U> Flux<U> ingestionBuffer(Flux<U> source, Ingestion ingestion, Function<U, ?> keyResolver, BinaryOperator<U> conflator) {
+        return Flux.create(sink -> new IngestionBuffer<>(ingestion, keyResolver, conflator, sink).subscribe(source));
+    }
+
+    private void subscribe(Flux<U> source) {
+        sink.onRequest(__ -> drain());
+        sink.onDispose(() -> {
+            upstream.dispose();
+            clear();
+        });
+        source.subscribe(upstream);
+    }
+
+    private synchronized void offer(U event) {
+        final var pending = new Pending<>(event, nanoTime());
+
+        if (latestPerKey != null) {
+            final var key = keyResolver.apply(event);
+            final var previous = latestPerKey.get(key);
+
+            // The replaced event keeps its position and arrival time, the lag is the one of the oldest pending change.
+            // Either way no slot was taken, the request it consumed is handed back to the source
+            if (previous != null) {
+                if (conflator.apply(previous.event(), event) == event) {
+                    latestPerKey.put(key, new Pending<>(event, previous.enqueuedNanos()));
+                    metrics.onConflated();
+                } else {
+                    metrics.onStale();
+                }
+                upstreamRequests++;
+                return;
+            }
+
+            // Never more requested than free slots, a new key always fits
+            metrics.onEnqueued();
+            latestPerKey.put(key, pending);
+            return;
+        }
+
+        metrics.onEnqueued();
+        // Only reached with DROP_OLDEST, BLOCK never requests more than the remaining capacity
+        if (queue.size() >= capacity) {
+            queue.pollFirst();
+            metrics.onDropped();
+        }
+        queue.offerLast(pending);
+    }
+
+    private synchronized Pending<U> poll() {
+        final Pending<U> pending;
+
+        if (latestPerKey != null) {
+            final var iterator = latestPerKey.values().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            pending = iterator.next();
+            iterator.remove();
+        } else {
+            pending = queue.pollFirst();
+            if (pending == null) {
+                return null;
+            }
+        }
+
+        // The freed slot is requested again, DROP_OLDEST already requested everything
+        if (overflowStrategy != DROP_OLDEST) {
+            upstreamRequests++;
+        }
+        return pending;
+    }
+
+    private synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private int size() {
+        return latestPerKey != null ? latestPerKey.size() : queue.size();
+    }
+
+    private synchronized long takeUpstreamRequests() {
+        final long requests = upstreamRequests;
+        upstreamRequests = 0;
+        return requests;
+    }
+
+    private synchronized void clear() {
+        for (int i = size(); i > 0; i--) {
+            metrics.onDropped();
+        }
+        if (latestPerKey != null) {
+            latestPerKey.clear();
+        } else {
+            queue.clear();
+        }
+    }
+
+    // Serialized drain loop, events are only emitted on downstream demand and upstream is requested outside the lock
+    // as requesting can synchronously deliver the next event
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            while (sink.requestedFromDownstream() > 0 && !sink.isCancelled()) {
+                final var pending = poll();
+                if (pending == null) {
+                    break;
+                }
+                metrics.onDequeued(nanoTime() - pending.enqueuedNanos());
+                sink.next(pending.event());
+            }
+
+            if (done && isEmpty()) {
+                if (error != null) {
+                    sink.error(error);
+                } else {
+                    sink.complete();
+                }
+            } else {
+                final long requests = takeUpstreamRequests();
+                if (requests > 0) {
+                    upstream.request(requests);
+                }
+            }
+
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private record Pending<U>(U event, long enqueuedNanos) {
+    }
+
+    private final class Upstream extends BaseSubscriber<U> {
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            subscription.request(switch (overflowStrategy) {
+                case BLOCK, KEEP_LATEST_PER_KEY -> capacity;
+                case DROP_OLDEST -> Long.MAX_VALUE;
+            });
+        }
+
+        @Override
+        protected void hookOnNext(U event) {
+            offer(event);
+            drain();
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            done = true;
+            drain();
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            error = throwable;
+            done = true;
+            drain();
+        }
+    }
+}
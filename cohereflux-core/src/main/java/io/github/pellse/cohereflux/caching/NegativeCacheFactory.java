@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching;
+
+import io.github.pellse.cohereflux.caching.Cache.FetchFunction;
+import io.github.pellse.cohereflux.caching.CacheFactory.CacheTransformer;
+import io.github.pellse.util.collection.BoundedConcurrentMap;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static io.github.pellse.cohereflux.caching.CacheFactory.DEFAULT_MAXIMUM_SIZE;
+import static io.github.pellse.util.collection.CollectionUtil.toStream;
+import static java.util.Objects.requireNonNull;
+import static reactor.core.publisher.Mono.just;
+
+/**
+ * Remembers ids for which the data source returned nothing, so they are not queried again until {@code ttl} elapses.
+ * Absent ids are kept apart from the cached entries as a bounded id to expiry time map.
+ */
+public interface NegativeCacheFactory {
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> negativeCache(Duration ttl) {
+        return cacheFactory -> negativeCache(cacheFactory, ttl);
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> negativeCache(Duration ttl, long maximumSize) {
+        return cacheFactory -> negativeCache(cacheFactory, ttl, maximumSize, Clock.systemUTC());
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> negativeCache(Duration ttl, long maximumSize, Clock clock) {
+        return cacheFactory -> negativeCache(cacheFactory, ttl, maximumSize, clock);
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> negativeCache(CacheFactory<ID, R, RRC> delegateCacheFactory, Duration ttl) {
+        return negativeCache(delegateCacheFactory, ttl, DEFAULT_MAXIMUM_SIZE, Clock.systemUTC());
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> negativeCache(
+            CacheFactory<ID, R, RRC> delegateCacheFactory,
+            Duration ttl,
+            long maximumSize,
+            Clock clock) {
+
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive, was " + ttl);
+        }
+        requireNonNull(clock, "clock cannot be null");
+
+        final long ttlMillis = ttl.toMillis();
+
+        return context -> {
+            final var cache = delegateCacheFactory.create(context);
+
+            // Without a query function every id is absent from the data source, there is nothing to save
+            if (context.isEmptySource()) {
+                return cache;
+            }
+
+            final Map<ID, Long> absentIds = new BoundedConcurrentMap<>(maximumSize);
+
+            return Cache.mergeableCache(
+                    Cache.adapterCache(
+                            (ids, fetchFunction) -> cache.getAll(ids, fetchFunction != null ? negativeCaching(fetchFunction, absentIds, ttlMillis, clock) : null),
+                            map -> cache.putAll(map).doOnSuccess(__ -> absentIds.keySet().removeAll(map.keySet())),
+                            cache::removeAll,
+                            (mapToAdd, mapToRemove) -> cache.updateAll(mapToAdd, mapToRemove).doOnSuccess(__ -> absentIds.keySet().removeAll(mapToAdd.keySet()))),
+                    (map, remappingFunction) -> cache.mergeAll(map, remappingFunction).doOnSuccess(__ -> absentIds.keySet().removeAll(map.keySet())),
+                    cache.isAtomicMerge());
+        };
+    }
+
+    private static <ID, R> FetchFunction<ID, R> negativeCaching(FetchFunction<ID, R> fetchFunction, Map<ID, Long> absentIds, long ttlMillis, Clock clock) {
+
+        return ids -> {
+            final long now = clock.millis();
+
+            final List<ID> idsToFetch = toStream(ids)
+                    .filter(id -> !isKnownAbsent(id, absentIds, now))
+                    .map(id -> (ID) id)
+                    .toList();
+
+            return idsToFetch.isEmpty() ? just(Map.of()) : fetchFunction.apply(idsToFetch)
+                    .doOnNext(results -> idsToFetch.stream()
+                            .filter(id -> !results.containsKey(id))
+                            .forEach(id -> absentIds.put(id, now + ttlMillis)));
+        };
+    }
+
+    private static <ID> boolean isKnownAbsent(ID id, Map<ID, Long> absentIds, long now) {
+        final var expiryTime = absentIds.get(id);
+        if (expiryTime == null) {
+            return false;
+        }
+        if (now >= expiryTime) {
+            absentIds.remove(id, expiryTime);
+            return false;
+        }
+        return true;
+    }
+}
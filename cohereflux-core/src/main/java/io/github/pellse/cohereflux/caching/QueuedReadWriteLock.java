@@ -0,0 +1,182 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.caching;
+
+import io.github.pellse.cohereflux.metrics.LockMetrics;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.System.nanoTime;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reactive read/write lock where lock requests that can't be granted right away are parked in a FIFO queue as
+ * pending subscribers instead of being retried, and signaled in order when the lock is released.
+ * <p>
+ * Consecutive shared requests at the head of the queue are granted together, a new request is queued whenever
+ * other requests are already waiting so exclusive requests can't be starved by a continuous flow of readers.
+ */
+final class QueuedReadWriteLock {
+
+    private static final int WAITING = 0;
+    private static final int GRANTED = 1;
+    private static final int CANCELLED = 2;
+
+    private final LockMetrics lockMetrics;
+
+    // Guarded by this
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private int readCount;
+    private boolean isWriteLocked;
+
+    // Grants are signaled outside the monitor and drained by a single thread at a time, so a released lock
+    // synchronously re-acquired and released by the next waiter doesn't recurse through the whole queue
+    private final Queue<Waiter> grantedWaiters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    QueuedReadWriteLock(LockMetrics lockMetrics) {
+        this.lockMetrics = requireNonNull(lockMetrics);
+    }
+
+    Mono<Permit> acquire(boolean exclusive) {
+
+        return Mono.<Permit>create(sink -> {
+                    final var waiter = new Waiter(exclusive, sink, nanoTime());
+                    sink.onCancel(() -> cancel(waiter));
+
+                    final boolean isGranted;
+                    synchronized (this) {
+                        isGranted = waiters.isEmpty() && tryLock(exclusive);
+                        if (!isGranted) {
+                            waiters.add(waiter);
+                            lockMetrics.onEnqueued();
+                        }
+                    }
+
+                    if (isGranted) {
+                        if (waiter.state.compareAndSet(WAITING, GRANTED)) {
+                            lockMetrics.onAcquired(0, false);
+                            sink.success(new Permit(this, exclusive));
+                        } else {
+                            release(exclusive);
+                        }
+                    }
+                })
+                // A permit granted concurrently with a cancellation is discarded instead of delivered
+                .doOnDiscard(Permit.class, Permit::release);
+    }
+
+    private void release(boolean exclusive) {
+        synchronized (this) {
+            unlock(exclusive);
+
+            Waiter waiter;
+            while ((waiter = waiters.peek()) != null) {
+                if (waiter.state.get() == WAITING) {
+                    if (!tryLock(waiter.exclusive)) {
+                        break;
+                    }
+                    if (waiter.state.compareAndSet(WAITING, GRANTED)) {
+                        grantedWaiters.add(waiter);
+                    } else {
+                        // Cancelled between the state check and the lock acquisition
+                        unlock(waiter.exclusive);
+                    }
+                }
+                waiters.poll();
+                lockMetrics.onDequeued();
+            }
+        }
+        drainGrantedWaiters();
+    }
+
+    private void cancel(Waiter waiter) {
+        if (waiter.state.compareAndSet(WAITING, CANCELLED)) {
+            synchronized (this) {
+                if (waiters.remove(waiter)) {
+                    lockMetrics.onDequeued();
+                }
+            }
+            lockMetrics.onCancelled();
+        }
+    }
+
+    private void drainGrantedWaiters() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        do {
+            Waiter waiter;
+            while ((waiter = grantedWaiters.poll()) != null) {
+                lockMetrics.onAcquired(nanoTime() - waiter.enqueueTime, true);
+                waiter.sink.success(new Permit(this, waiter.exclusive));
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    private boolean tryLock(boolean exclusive) {
+        if (isWriteLocked || (exclusive && readCount > 0)) {
+            return false;
+        }
+
+        if (exclusive) {
+            isWriteLocked = true;
+        } else {
+            readCount++;
+        }
+        return true;
+    }
+
+    private void unlock(boolean exclusive) {
+        if (exclusive) {
+            isWriteLocked = false;
+        } else {
+            readCount--;
+        }
+    }
+
+    private record Waiter(boolean exclusive, MonoSink<Permit> sink, long enqueueTime, AtomicInteger state) {
+        Waiter(boolean exclusive, MonoSink<Permit> sink, long enqueueTime) {
+            this(exclusive, sink, enqueueTime, new AtomicInteger(WAITING));
+        }
+    }
+
+    static final class Permit {
+
+        private final QueuedReadWriteLock lock;
+        private final boolean exclusive;
+        private final AtomicBoolean isReleased = new AtomicBoolean();
+
+        private Permit(QueuedReadWriteLock lock, boolean exclusive) {
+            this.lock = lock;
+            this.exclusive = exclusive;
+        }
+
+        void release() {
+            if (isReleased.compareAndSet(false, true)) {
+                lock.release(exclusive);
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching;
+
+import io.github.pellse.cohereflux.caching.Cache.FetchFunction;
+import io.github.pellse.cohereflux.caching.CacheFactory.CacheTransformer;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.lang.System.Logger;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.github.pellse.util.collection.CollectionUtil.isEmpty;
+import static io.github.pellse.util.collection.CollectionUtil.toStream;
+import static java.lang.System.Logger.Level.WARNING;
+import static java.lang.System.getLogger;
+import static java.util.Objects.requireNonNull;
+import static reactor.core.publisher.Mono.defer;
+import static reactor.core.scheduler.Schedulers.boundedElastic;
+
+/**
+ * Stale-while-revalidate caching: entries older than {@code softTtl} are served immediately from the cache while
+ * being refreshed in the background, entries older than {@code hardTtl} are evicted and reloaded synchronously.
+ */
+public interface RefreshAheadCacheFactory {
+
+    Logger logger = getLogger(RefreshAheadCacheFactory.class.getName());
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> refreshAhead(Duration softTtl, Duration hardTtl) {
+        return cacheFactory -> refreshAhead(cacheFactory, softTtl, hardTtl);
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> refreshAhead(Duration softTtl, Duration hardTtl, Scheduler refreshScheduler) {
+        return cacheFactory -> refreshAhead(cacheFactory, softTtl, hardTtl, refreshScheduler, Clock.systemUTC());
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> refreshAhead(Duration softTtl, Duration hardTtl, Scheduler refreshScheduler, Clock clock) {
+        return cacheFactory -> refreshAhead(cacheFactory, softTtl, hardTtl, refreshScheduler, clock);
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> refreshAhead(CacheFactory<ID, R, RRC> delegateCacheFactory, Duration softTtl, Duration hardTtl) {
+        return refreshAhead(delegateCacheFactory, softTtl, hardTtl, boundedElastic(), Clock.systemUTC());
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> refreshAhead(
+            CacheFactory<ID, R, RRC> delegateCacheFactory,
+            Duration softTtl,
+            Duration hardTtl,
+            Scheduler refreshScheduler,
+            Clock clock) {
+
+        if (softTtl.isNegative() || softTtl.isZero() || softTtl.compareTo(hardTtl) >= 0) {
+            throw new IllegalArgumentException("softTtl must be positive and shorter than hardTtl, was softTtl=" + softTtl + ", hardTtl=" + hardTtl);
+        }
+        requireNonNull(refreshScheduler, "refreshScheduler cannot be null");
+        requireNonNull(clock, "clock cannot be null");
+
+        return context -> {
+            // Without a query function there is nothing to refresh from, the cache is the source of truth
+            if (context.isEmptySource()) {
+                return delegateCacheFactory.create(context);
+            }
+
+            // Background refreshes write to the cache outside the caller's lock, so they need their own
+            final var cache = ConcurrentCacheFactory.concurrent(delegateCacheFactory).create(context);
+
+            return new RefreshAheadCache<>(cache, softTtl.toMillis(), hardTtl.toMillis(), refreshScheduler, clock);
+        };
+    }
+
+    final class RefreshAheadCache<ID, R> implements Cache<ID, R> {
+
+        private final Cache<ID, R> delegateCache;
+        private final long softTtlMillis;
+        private final long hardTtlMillis;
+        private final Scheduler refreshScheduler;
+        private final Clock clock;
+
+        private final Map<ID, Long> writeTimes = new ConcurrentHashMap<>();
+        private final Set<ID> refreshingIds = ConcurrentHashMap.newKeySet();
+        private final AtomicLong lastSweepTime;
+
+        private RefreshAheadCache(Cache<ID, R> delegateCache, long softTtlMillis, long hardTtlMillis, Scheduler refreshScheduler, Clock clock) {
+            this.delegateCache = delegateCache;
+            this.softTtlMillis = softTtlMillis;
+            this.hardTtlMillis = hardTtlMillis;
+            this.refreshScheduler = refreshScheduler;
+            this.clock = clock;
+            this.lastSweepTime = new AtomicLong(clock.millis());
+        }
+
+        @Override
+        public Mono<Map<ID, List<R>>> getAll(Iterable<ID> ids, FetchFunction<ID, R> fetchFunction) {
+
+            return defer(() -> {
+                final long now = clock.millis();
+                final var expiredIds = new ArrayList<ID>();
+                final var staleIds = new ArrayList<ID>();
+
+                toStream(ids).distinct().forEach(id -> {
+                    final var writeTime = writeTimes.get(id);
+                    if (writeTime != null) {
+                        final long age = now - writeTime;
+                        if (age >= hardTtlMillis) {
+                            expiredIds.add(id);
+                        } else if (age >= softTtlMillis) {
+                            staleIds.add(id);
+                        }
+                    }
+                });
+
+                return evict(expiredIds)
+                        .then(defer(() -> delegateCache.getAll(ids, fetchFunction != null ? recordWriteTimes(fetchFunction) : null)))
+                        .doOnNext(__ -> {
+                            if (fetchFunction != null && !staleIds.isEmpty()) {
+                                refresh(staleIds, fetchFunction);
+                            }
+                        })
+                        .doOnSuccess(__ -> sweepExpiredIfDue());
+            });
+        }
+
+        @Override
+        public Mono<?> putAll(Map<ID, List<R>> map) {
+            return delegateCache.putAll(map)
+                    .doOnSuccess(__ -> {
+                        recordWriteTimes(map);
+                        sweepExpiredIfDue();
+                    });
+        }
+
+        @Override
+        public Mono<?> removeAll(Map<ID, List<R>> map) {
+            return delegateCache.removeAll(map);
+        }
+
+        @Override
+        public Mono<?> updateAll(Map<ID, List<R>> mapToAdd, Map<ID, List<R>> mapToRemove) {
+            return delegateCache.updateAll(mapToAdd, mapToRemove)
+                    .doOnSuccess(__ -> {
+                        recordWriteTimes(mapToAdd);
+                        sweepExpiredIfDue();
+                    });
+        }
+
+        @Override
+        public Mono<?> mergeAll(Map<ID, List<R>> map, RemappingFunction<R> remappingFunction) {
+            return delegateCache.mergeAll(map, remappingFunction)
+                    .doOnSuccess(__ -> {
+                        recordWriteTimes(map);
+                        sweepExpiredIfDue();
+                    });
+        }
+
+        @Override
+        public boolean isAtomicMerge() {
+            return delegateCache.isAtomicMerge();
+        }
+
+        private FetchFunction<ID, R> recordWriteTimes(FetchFunction<ID, R> fetchFunction) {
+            return ids -> fetchFunction.apply(ids).doOnNext(this::recordWriteTimes);
+        }
+
+        private void recordWriteTimes(Map<ID, List<R>> map) {
+            final long now = clock.millis();
+            map.keySet().forEach(id -> writeTimes.put(id, now));
+        }
+
+        // Entries are only checked for expiry when read, periodically sweep the ones that are never read again. This is
+        // only called once a read or write has completed and the sweep runs on the refresh scheduler, never from within a
+        // call to the delegate cache (e.g. a fetch function) where the delegate cache's lock may still be held
+        private void sweepExpiredIfDue() {
+            final long now = clock.millis();
+            final long lastSweep = lastSweepTime.get();
+
+            if (now - lastSweep >= hardTtlMillis && lastSweepTime.compareAndSet(lastSweep, now)) {
+                final var expiredIds = writeTimes.entrySet().stream()
+                        .filter(entry -> now - entry.getValue() >= hardTtlMillis)
+                        .map(Map.Entry::getKey)
+                        .toList();
+
+                defer(() -> evict(expiredIds))
+                        .subscribeOn(refreshScheduler)
+                        .subscribe(null, RefreshAheadCache::logError);
+            }
+        }
+
+        private Mono<?> evict(List<ID> ids) {
+            return isEmpty(ids) ? Mono.empty() : delegateCache.getAll(ids, null)
+                    .flatMap(delegateCache::removeAll)
+                    .doOnSuccess(__ -> ids.forEach(writeTimes::remove));
+        }
+
+        private void refresh(List<ID> staleIds, FetchFunction<ID, R> fetchFunction) {
+
+            final var idsToRefresh = staleIds.stream()
+                    .filter(refreshingIds::add)
+                    .toList();
+
+            if (idsToRefresh.isEmpty()) {
+                return;
+            }
+
+            // Replace rather than merge in a single write, so that entities deleted from the data source don't linger in
+            // the cache, ids no longer returned by the data source map to an empty list and are removed
+            fetchFunction.apply(idsToRefresh)
+                    .flatMap(freshEntries -> {
+                        final Map<ID, List<R>> entriesToReplace = new HashMap<>();
+                        idsToRefresh.forEach(id -> entriesToReplace.put(id, freshEntries.getOrDefault(id, List.of())));
+
+                        return delegateCache.mergeAll(entriesToReplace, (staleEntities, freshEntities) -> freshEntities)
+                                .doOnSuccess(__ -> {
+                                    idsToRefresh.forEach(writeTimes::remove);
+                                    recordWriteTimes(freshEntries);
+                                });
+                    })
+                    .subscribeOn(refreshScheduler)
+                    .doFinally(__ -> idsToRefresh.forEach(refreshingIds::remove))
+                    .subscribe(null, RefreshAheadCache::logError);
+        }
+
+        private static void logError(Throwable error) {
+            logger.log(WARNING, "Error while refreshing or evicting cache entries, stale entries will be served until they expire", error);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching;
+
+import io.github.pellse.cohereflux.caching.Cache.FetchFunction;
+import io.github.pellse.cohereflux.caching.CacheFactory.CacheTransformer;
+import io.github.pellse.cohereflux.metrics.CacheMetrics;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static io.github.pellse.cohereflux.metrics.CacheMetrics.cacheMetrics;
+import static io.github.pellse.util.collection.CollectionUtil.*;
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toMap;
+import static reactor.core.publisher.Mono.defer;
+import static reactor.core.publisher.Mono.just;
+
+/**
+ * Puts a small and fast near cache (L1, e.g. a count bounded Caffeine cache) in front of the cache being transformed,
+ * which becomes the far cache (L2, e.g. off-heap or file backed). Lookups go to L1, then L2, then the fetch function,
+ * L2 hits are promoted into L1 unless a write to the tiered cache overlapped the lookup. Writes go to L2 first, plain
+ * {@code putAll()} and {@code removeAll()} are then applied to the entries L1 holds the same way L2 applies them (i.e.
+ * merged into or subtracted from the cached entities of each id). Only {@code mergeAll()} and {@code updateAll()}, whose
+ * outcome only L2 knows, read the resulting L2 entries back to mirror them in L1.
+ */
+public interface TieredCacheFactory {
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> tiered(CacheFactory<ID, R, RRC> nearCacheFactory) {
+        return cacheFactory -> tiered(cacheFactory, nearCacheFactory);
+    }
+
+    static <ID, R, RRC> CacheTransformer<ID, R, RRC> tiered(
+            CacheFactory<ID, R, RRC> nearCacheFactory,
+            CacheMetrics nearCacheMetrics,
+            CacheMetrics farCacheMetrics) {
+        return cacheFactory -> tiered(cacheFactory, nearCacheFactory, nearCacheMetrics, farCacheMetrics);
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> tiered(CacheFactory<ID, R, RRC> farCacheFactory, CacheFactory<ID, R, RRC> nearCacheFactory) {
+        return tiered(farCacheFactory, nearCacheFactory, cacheMetrics(), cacheMetrics());
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> tiered(
+            CacheFactory<ID, R, RRC> farCacheFactory,
+            CacheFactory<ID, R, RRC> nearCacheFactory,
+            CacheMetrics nearCacheMetrics,
+            CacheMetrics farCacheMetrics) {
+
+        requireNonNull(nearCacheFactory, "nearCacheFactory cannot be null");
+        requireNonNull(nearCacheMetrics, "nearCacheMetrics cannot be null");
+        requireNonNull(farCacheMetrics, "farCacheMetrics cannot be null");
+
+        return context -> {
+            final var farCache = farCacheFactory.create(context);
+            final var nearCache = nearCacheFactory.create(context);
+            final var mergingNearCache = Cache.mergeStrategyAwareCache(context.idResolver(), nearCache);
+            final var writes = new WriteCounter();
+
+            // Merges are applied once in L2 and mirrored in L1 like any other write. Mirroring L1 is a separate step
+            // that concurrent merges of the same id could reorder, so the tiered cache never merges atomically
+            return Cache.mergeableCache(
+                    Cache.adapterCache(
+                            (ids, fetchFunction) -> getAll(ids, fetchFunction, nearCache, farCache, writes, nearCacheMetrics, farCacheMetrics),
+                            map -> writeThrough(map, () -> farCache.putAll(map), nearCache, mergingNearCache::putAll, writes),
+                            map -> writeThrough(map, () -> farCache.removeAll(map), nearCache, mergingNearCache::removeAll, writes),
+                            (mapToAdd, mapToRemove) -> readBackWriteThrough(
+                                    mergeMaps(mapToAdd, mapToRemove).keySet(),
+                                    () -> farCache.updateAll(mapToAdd, mapToRemove),
+                                    nearCache,
+                                    farCache,
+                                    writes)),
+                    (map, remappingFunction) -> readBackWriteThrough(map.keySet(), () -> farCache.mergeAll(map, remappingFunction), nearCache, farCache, writes),
+                    false);
+        };
+    }
+
+    private static <ID, R> Mono<Map<ID, List<R>>> getAll(
+            Iterable<ID> ids,
+            FetchFunction<ID, R> fetchFunction,
+            Cache<ID, R> nearCache,
+            Cache<ID, R> farCache,
+            WriteCounter writes,
+            CacheMetrics nearCacheMetrics,
+            CacheMetrics farCacheMetrics) {
+
+        return defer(() -> nearCache.getAll(ids, null))
+                .flatMap(nearResults -> {
+                    final List<ID> nearMisses = toStream(ids)
+                            .filter(id -> !nearResults.containsKey(id))
+                            .toList();
+
+                    nearCacheMetrics.recordHits(nearResults.size());
+                    nearCacheMetrics.recordMisses(nearMisses.size());
+
+                    if (nearMisses.isEmpty()) {
+                        return just(nearResults);
+                    }
+
+                    final var fetchedIdCount = new AtomicLong();
+                    final long writeCount = writes.idleWriteCount();
+
+                    return defer(() -> farCache.getAll(nearMisses, countingFetches(fetchFunction, fetchedIdCount)))
+                            .flatMap(farResults -> {
+                                farCacheMetrics.recordHits(nearMisses.size() - fetchedIdCount.get());
+                                farCacheMetrics.recordMisses(fetchedIdCount.get());
+
+                                return promote(farResults, writeCount, nearCache, writes)
+                                        .thenReturn(mergeMaps(nearResults, farResults));
+                            });
+                });
+    }
+
+    private static <ID, R> FetchFunction<ID, R> countingFetches(FetchFunction<ID, R> fetchFunction, AtomicLong fetchedIdCount) {
+        return fetchFunction == null ? null : ids -> {
+            fetchedIdCount.addAndGet(size(ids));
+            return fetchFunction.apply(ids);
+        };
+    }
+
+    // L2 entries read while a write was in flight may already be stale, they are only promoted when no write overlapped
+    // the lookup. A write starting after the check may still mirror its result into L1 before the promotion lands, the
+    // promoted entries are then evicted again so that the next lookup reads them from L2
+    private static <ID, R> Mono<?> promote(Map<ID, List<R>> farResults, long writeCount, Cache<ID, R> nearCache, WriteCounter writes) {
+        if (farResults.isEmpty() || !writes.isIdleSince(writeCount)) {
+            return just(Map.of());
+        }
+
+        return nearCache.putAll(farResults)
+                .then(defer(() -> writes.isIdleSince(writeCount) ? just(Map.of()) : nearCache.removeAll(farResults)));
+    }
+
+    // Only the ids L1 holds are updated, applying a merge to an id absent from L1 would leave a partial entry there,
+    // the next lookup of such an id reads the complete entry from L2 instead
+    private static <ID, R> Mono<?> writeThrough(
+            Map<ID, List<R>> map,
+            Supplier<Mono<?>> farCacheUpdater,
+            Cache<ID, R> nearCache,
+            Function<Map<ID, List<R>>, Mono<?>> nearCacheUpdater,
+            WriteCounter writes) {
+
+        if (map.isEmpty()) {
+            return just(Map.of());
+        }
+
+        return withWrite(writes, () -> defer(farCacheUpdater)
+                .then(defer(() -> nearCache.getAll(map.keySet(), null)))
+                .flatMap(nearResults -> nearResults.isEmpty() ? just(Map.of()) : nearCacheUpdater.apply(readAll(nearResults.keySet(), map))));
+    }
+
+    // L1 mirrors what L2 ends up holding after the write, so merge strategies only need to be applied once in L2
+    private static <ID, R> Mono<?> readBackWriteThrough(
+            Set<ID> ids,
+            Supplier<Mono<?>> farCacheUpdater,
+            Cache<ID, R> nearCache,
+            Cache<ID, R> farCache,
+            WriteCounter writes) {
+
+        if (ids.isEmpty()) {
+            return just(Map.of());
+        }
+
+        final var keys = List.copyOf(ids);
+
+        return withWrite(writes, () -> defer(farCacheUpdater)
+                .then(defer(() -> farCache.getAll(keys, null)))
+                .flatMap(farResults -> {
+                    final Map<ID, List<R>> removedEntries = keys.stream()
+                            .filter(id -> !farResults.containsKey(id))
+                            .collect(toMap(id -> id, id -> List.of()));
+
+                    return nearCache.updateAll(farResults, removedEntries);
+                }));
+    }
+
+    private static Mono<?> withWrite(WriteCounter writes, Supplier<Mono<?>> write) {
+        return defer(() -> {
+            writes.onStart();
+            return write.get().doFinally(__ -> writes.onEnd());
+        });
+    }
+}
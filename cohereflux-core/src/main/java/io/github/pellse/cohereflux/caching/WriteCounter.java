@@ -0,0 +1,48 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Writes started and ended on a tiered cache, for lookups to detect the writes overlapping them
+final class WriteCounter {
+
+    private static final long NONE_IDLE = -1;
+
+    private final AtomicLong startedWrites = new AtomicLong();
+    private final AtomicLong endedWrites = new AtomicLong();
+
+    // Number of writes started so far, or NONE_IDLE when a write is in flight
+    long idleWriteCount() {
+        final long writeCount = startedWrites.get();
+        return endedWrites.get() == writeCount ? writeCount : NONE_IDLE;
+    }
+
+    // No write was in flight when writeCount was read and none started since
+    boolean isIdleSince(long writeCount) {
+        return writeCount != NONE_IDLE && startedWrites.get() == writeCount;
+    }
+
+    void onStart() {
+        startedWrites.incrementAndGet();
+    }
+
+    void onEnd() {
+        endedWrites.incrementAndGet();
+    }
+}
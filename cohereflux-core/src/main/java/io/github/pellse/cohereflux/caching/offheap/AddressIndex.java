@@ -0,0 +1,177 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching.offheap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Open addressing (linear probing) index from keys to the {@code long} address of their off-heap record, addresses are
+ * kept in a {@code long[]} next to the keys, there is no entry object nor boxed {@code Long} allocated per key.
+ * Not thread safe.
+ */
+final class AddressIndex<K> {
+
+    static final long ABSENT = -1;
+
+    private static final Object REMOVED = new Object();
+
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MIN_CAPACITY = 16;
+
+    private Object[] keys;
+    private long[] addresses;
+
+    private int size;
+    private int usedSlots;
+    private int threshold;
+
+    AddressIndex() {
+        allocate(MIN_CAPACITY);
+    }
+
+    static int hash(Object key) {
+        final int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(Object key) {
+        final int slot = slotOf(key, hash(key));
+        return slot >= 0 ? addresses[slot] : ABSENT;
+    }
+
+    void put(K key, int hash, long address) {
+        final int mask = keys.length - 1;
+        int slot = hash & mask;
+        int firstRemoved = -1;
+
+        for (Object current; (current = keys[slot]) != null; slot = (slot + 1) & mask) {
+            if (current == REMOVED) {
+                if (firstRemoved < 0) {
+                    firstRemoved = slot;
+                }
+            } else if (current.equals(key)) {
+                addresses[slot] = address;
+                return;
+            }
+        }
+
+        if (firstRemoved >= 0) {
+            slot = firstRemoved;
+        } else {
+            usedSlots++;
+        }
+
+        keys[slot] = key;
+        addresses[slot] = address;
+        size++;
+
+        if (usedSlots > threshold) {
+            rehash();
+        }
+    }
+
+    boolean remove(Object key) {
+        return removeSlot(slotOf(key, hash(key)));
+    }
+
+    // Removes the key still pointing to the record at address, if any, i.e. one that was neither overwritten nor removed
+    boolean removeAddress(int hash, long address) {
+        final int mask = keys.length - 1;
+
+        for (int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] != REMOVED && addresses[slot] == address) {
+                return removeSlot(slot);
+            }
+        }
+        return false;
+    }
+
+    void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+        usedSlots = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    List<K> keys() {
+        final List<K> liveKeys = new ArrayList<>(size);
+        for (var key : keys) {
+            if (key != null && key != REMOVED) {
+                liveKeys.add((K) key);
+            }
+        }
+        return liveKeys;
+    }
+
+    private int slotOf(Object key, int hash) {
+        final int mask = keys.length - 1;
+
+        for (int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] != REMOVED && keys[slot].equals(key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean removeSlot(int slot) {
+        if (slot < 0) {
+            return false;
+        }
+
+        keys[slot] = REMOVED;
+        size--;
+        return true;
+    }
+
+    // Also called when removed slots fill the table, in which case the capacity may stay the same
+    @SuppressWarnings("unchecked")
+    private void rehash() {
+        final var oldKeys = keys;
+        final var oldAddresses = addresses;
+
+        allocate(capacityFor(size));
+        size = 0;
+        usedSlots = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null && oldKeys[i] != REMOVED) {
+                put((K) oldKeys[i], hash(oldKeys[i]), oldAddresses[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        addresses = new long[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int size) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR <= size + 1) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
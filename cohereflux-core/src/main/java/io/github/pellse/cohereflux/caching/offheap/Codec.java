@@ -0,0 +1,145 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching.offheap;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary representation of cached values, used by caches storing their entries outside the Java heap.
+ */
+public interface Codec<T> {
+
+    void encode(T value, DataOutput output) throws IOException;
+
+    T decode(DataInput input) throws IOException;
+
+    static Codec<Long> longCodec() {
+        return new Codec<>() {
+
+            @Override
+            public void encode(Long value, DataOutput output) throws IOException {
+                output.writeLong(value);
+            }
+
+            @Override
+            public Long decode(DataInput input) throws IOException {
+                return input.readLong();
+            }
+        };
+    }
+
+    static Codec<Integer> intCodec() {
+        return new Codec<>() {
+
+            @Override
+            public void encode(Integer value, DataOutput output) throws IOException {
+                output.writeInt(value);
+            }
+
+            @Override
+            public Integer decode(DataInput input) throws IOException {
+                return input.readInt();
+            }
+        };
+    }
+
+    static Codec<String> stringCodec() {
+        return new Codec<>() {
+
+            @Override
+            public void encode(String value, DataOutput output) throws IOException {
+                output.writeUTF(value);
+            }
+
+            @Override
+            public String decode(DataInput input) throws IOException {
+                return input.readUTF();
+            }
+        };
+    }
+
+    static <T> Codec<List<T>> listCodec(Codec<T> elementCodec) {
+        return new Codec<>() {
+
+            @Override
+            public void encode(List<T> values, DataOutput output) throws IOException {
+                output.writeInt(values.size());
+                for (T value : values) {
+                    elementCodec.encode(value, output);
+                }
+            }
+
+            @Override
+            public List<T> decode(DataInput input) throws IOException {
+                final int size = input.readInt();
+                final var values = new ArrayList<T>(size);
+                for (int i = 0; i < size; i++) {
+                    values.add(elementCodec.decode(input));
+                }
+                return values;
+            }
+        };
+    }
+
+    static <T extends Serializable> Codec<T> javaSerializationCodec() {
+        return new Codec<>() {
+
+            @Override
+            public void encode(T value, DataOutput output) throws IOException {
+                final var bytes = new ByteArrayOutputStream();
+                try (var objectOutput = new ObjectOutputStream(bytes)) {
+                    objectOutput.writeObject(value);
+                }
+                output.writeInt(bytes.size());
+                output.write(bytes.toByteArray());
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T decode(DataInput input) throws IOException {
+                final var bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                try (var objectInput = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return (T) objectInput.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new InvalidClassException(e.getMessage());
+                }
+            }
+        };
+    }
+
+    default byte[] toBytes(T value) {
+        final var bytes = new ByteArrayOutputStream();
+        try (var output = new DataOutputStream(bytes)) {
+            encode(value, output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    default T fromBytes(byte[] bytes) {
+        try (var input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return decode(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
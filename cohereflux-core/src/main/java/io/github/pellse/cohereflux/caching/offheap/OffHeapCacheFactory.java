@@ -0,0 +1,37 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching.offheap;
+
+import io.github.pellse.cohereflux.caching.CacheFactory;
+
+import java.util.List;
+
+import static io.github.pellse.cohereflux.caching.offheap.Codec.listCodec;
+import static io.github.pellse.cohereflux.caching.offheap.OffHeapMap.DEFAULT_SEGMENT_SIZE;
+
+public interface OffHeapCacheFactory {
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> offHeapCache(Codec<R> codec, long maximumBytes) {
+        return offHeapCache(codec, maximumBytes, DEFAULT_SEGMENT_SIZE);
+    }
+
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> offHeapCache(Codec<R> codec, long maximumBytes, int segmentSize) {
+        final Codec<List<R>> entryCodec = listCodec(codec);
+        return context -> CacheFactory.<ID, R, RRC>cache(new OffHeapMap<>(entryCodec, maximumBytes, segmentSize)).create(context);
+    }
+}
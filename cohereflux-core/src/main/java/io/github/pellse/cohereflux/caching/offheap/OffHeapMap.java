@@ -0,0 +1,318 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import static io.github.pellse.cohereflux.caching.offheap.AddressIndex.ABSENT;
+import static io.github.pellse.cohereflux.caching.offheap.AddressIndex.hash;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link Map} storing its encoded values outside the Java heap, only a compact key to address index lives on the heap,
+ * i.e. the keys and their record address as a primitive {@code long} in open addressing arrays.
+ * <p>
+ * Memory is split in fixed size segments written sequentially as a log, when all segments are full the oldest one is
+ * recycled and the entries it still holds are evicted (FIFO), found by walking the records of the segment. Overwritten
+ * values become garbage reclaimed the same way. Values larger than a segment are not stored. To avoid decoding
+ * overwritten or removed values, {@link #put} and {@link #remove} always return {@code null}. Null keys and values are
+ * not supported.
+ */
+public final class OffHeapMap<K, V> extends AbstractMap<K, V> {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    // Value length followed by the key hash, to find the index slot of the record when its segment is recycled
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final Codec<V> codec;
+    private final int segmentSize;
+    private final IntFunction<ByteBuffer> segmentAllocator;
+
+    private final ByteBuffer[] segments;
+    private final int[] segmentLimits;
+
+    // Address of each entry, segment index in the high 32 bits and offset within the segment in the low 32 bits
+    private final AddressIndex<K> index = new AddressIndex<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongAdder evictionCount = new LongAdder();
+
+    private int writeSegment;
+    private int writeOffset;
+
+    public OffHeapMap(Codec<V> codec, long maximumBytes) {
+        this(codec, maximumBytes, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public OffHeapMap(Codec<V> codec, long maximumBytes, int segmentSize) {
+        this(codec, segmentCount(maximumBytes, segmentSize), segmentSize, ByteBuffer::allocateDirect);
+    }
+
+    OffHeapMap(Codec<V> codec, int segmentCount, int segmentSize, IntFunction<ByteBuffer> segmentAllocator) {
+        this.codec = requireNonNull(codec, "codec cannot be null");
+        this.segmentSize = segmentSize;
+        this.segmentAllocator = segmentAllocator;
+        this.segments = new ByteBuffer[segmentCount];
+        this.segmentLimits = new int[segmentCount];
+    }
+
+    public long maximumBytes() {
+        return (long) segments.length * segmentSize;
+    }
+
+    public long evictionCount() {
+        return evictionCount.sum();
+    }
+
+    @Override
+    public V get(Object key) {
+        final var bytes = readBytes(key);
+        return bytes != null ? codec.fromBytes(bytes) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        lock.readLock().lock();
+        try {
+            return key != null && index.get(key) != ABSENT;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        requireNonNull(key, "key cannot be null");
+        final var bytes = codec.toBytes(requireNonNull(value, "value cannot be null"));
+        final int hash = hash(key);
+
+        lock.writeLock().lock();
+        try {
+            if (RECORD_HEADER_SIZE + bytes.length > segmentSize) {
+                index.remove(key);
+                return null;
+            }
+
+            if (segments[writeSegment] == null || writeOffset + RECORD_HEADER_SIZE + bytes.length > segmentSize) {
+                nextWriteSegment();
+            }
+
+            final var segment = segments[writeSegment];
+            segment.putInt(writeOffset, bytes.length);
+            segment.putInt(writeOffset + Integer.BYTES, hash);
+            segment.put(writeOffset + RECORD_HEADER_SIZE, bytes);
+
+            index.put(key, hash, address(writeSegment, writeOffset));
+
+            writeOffset += RECORD_HEADER_SIZE + bytes.length;
+            segmentLimits[writeSegment] = writeOffset;
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        removeKey(key);
+        return null;
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+            writeOffset = segmentSize;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<K> iterator() {
+                return new MapIterator<>(key -> key);
+            }
+
+            @Override
+            public int size() {
+                return OffHeapMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+
+            @Override
+            public boolean remove(Object key) {
+                return removeKey(key);
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new MapIterator<>(key -> new SimpleImmutableEntry<>(key, get(key)));
+            }
+
+            @Override
+            public int size() {
+                return OffHeapMap.this.size();
+            }
+        };
+    }
+
+    private boolean removeKey(Object key) {
+        if (key == null) {
+            return false;
+        }
+
+        lock.writeLock().lock();
+        try {
+            return index.remove(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private byte[] readBytes(Object key) {
+        if (key == null) {
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            // Looked up while holding the lock, so the segment can't be recycled before the value is copied out of it
+            final long address = index.get(key);
+            if (address == ABSENT) {
+                return null;
+            }
+
+            final var segment = segments[segmentOf(address)];
+            final int offset = offsetOf(address);
+            final var bytes = new byte[segment.getInt(offset)];
+            segment.get(offset + RECORD_HEADER_SIZE, bytes);
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void nextWriteSegment() {
+        writeSegment = segments[writeSegment] == null ? writeSegment : (writeSegment + 1) % segments.length;
+        writeOffset = 0;
+
+        if (segments[writeSegment] == null) {
+            segments[writeSegment] = segmentAllocator.apply(segmentSize);
+            return;
+        }
+
+        // Only keys still pointing to a record of the recycled segment are evicted, overwritten keys live in another one
+        final var segment = segments[writeSegment];
+        for (int offset = 0; offset < segmentLimits[writeSegment]; offset += RECORD_HEADER_SIZE + segment.getInt(offset)) {
+            if (index.removeAddress(segment.getInt(offset + Integer.BYTES), address(writeSegment, offset))) {
+                evictionCount.increment();
+            }
+        }
+        segmentLimits[writeSegment] = 0;
+    }
+
+    private static long address(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segmentOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private static int segmentCount(long maximumBytes, int segmentSize) {
+        if (segmentSize < 1 || maximumBytes < 2L * segmentSize) {
+            throw new IllegalArgumentException("maximumBytes must hold at least 2 segments of " + segmentSize + " bytes, was " + maximumBytes);
+        }
+        return (int) Math.min(maximumBytes / segmentSize, Integer.MAX_VALUE);
+    }
+
+    // Iterates over a snapshot of the keys, taken when the iterator is created
+    private final class MapIterator<T> implements Iterator<T> {
+
+        private final Iterator<K> delegate;
+        private final Function<K, T> mappingFunction;
+
+        private K lastKey;
+
+        MapIterator(Function<K, T> mappingFunction) {
+            lock.readLock().lock();
+            try {
+                this.delegate = index.keys().iterator();
+            } finally {
+                lock.readLock().unlock();
+            }
+            this.mappingFunction = mappingFunction;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public T next() {
+            lastKey = delegate.next();
+            return mappingFunction.apply(lastKey);
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+            removeKey(lastKey);
+            lastKey = null;
+        }
+    }
+}
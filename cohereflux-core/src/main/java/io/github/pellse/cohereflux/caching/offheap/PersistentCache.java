@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching.offheap;
+
+import io.github.pellse.cohereflux.caching.Cache;
+import io.github.pellse.cohereflux.caching.CacheFactory;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.List;
+
+import static io.github.pellse.cohereflux.caching.offheap.Codec.listCodec;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link CacheFactory} owning the {@link PersistentMap} of a directory, see
+ * {@link PersistentCacheFactory#persistentCache(Path, Codec, Codec)}. The map is opened (and its directory locked) when
+ * the first cache is created, every cache created afterwards shares it, until {@link #close()} flushes it, unmaps its
+ * file and releases the directory lock.
+ */
+public final class PersistentCache<ID, R, RRC> implements CacheFactory<ID, R, RRC>, Closeable {
+
+    private final Path directory;
+    private final Codec<ID> idCodec;
+    private final Codec<List<R>> entryCodec;
+    private final int fileSize;
+
+    // Guarded by this
+    private PersistentMap<ID, List<R>> persistentMap;
+    private boolean closed;
+
+    PersistentCache(Path directory, Codec<ID> idCodec, Codec<R> codec, int fileSize) {
+        this.directory = requireNonNull(directory, "directory cannot be null");
+        this.idCodec = requireNonNull(idCodec, "idCodec cannot be null");
+        this.entryCodec = listCodec(requireNonNull(codec, "codec cannot be null"));
+        this.fileSize = fileSize;
+    }
+
+    @Override
+    public Cache<ID, R> create(CacheContext<ID, R, RRC> context) {
+        return CacheFactory.<ID, R, RRC>cache(persistentMap()).create(context);
+    }
+
+    public void flush() {
+        final PersistentMap<ID, List<R>> map;
+        synchronized (this) {
+            map = persistentMap;
+        }
+        if (map != null) {
+            map.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (persistentMap != null) {
+            persistentMap.close();
+        }
+    }
+
+    private synchronized PersistentMap<ID, List<R>> persistentMap() {
+        if (closed) {
+            throw new IllegalStateException("Persistent cache in " + directory + " is closed");
+        }
+        if (persistentMap == null) {
+            persistentMap = new PersistentMap<>(directory, idCodec, entryCodec, fileSize);
+        }
+        return persistentMap;
+    }
+}
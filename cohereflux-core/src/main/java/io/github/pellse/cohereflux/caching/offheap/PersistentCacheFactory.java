@@ -0,0 +1,44 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching.offheap;
+
+import io.github.pellse.cohereflux.caching.CacheFactory;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static io.github.pellse.cohereflux.caching.CacheFactory.cache;
+import static io.github.pellse.cohereflux.caching.offheap.PersistentMap.DEFAULT_FILE_SIZE;
+
+public interface PersistentCacheFactory {
+
+    // Keep the returned handle to flush() or close() the map, every cache created from it shares the same map
+    static <ID, R, RRC> PersistentCache<ID, R, RRC> persistentCache(Path directory, Codec<ID> idCodec, Codec<R> codec) {
+        return persistentCache(directory, idCodec, codec, DEFAULT_FILE_SIZE);
+    }
+
+    // The map is only opened (and its directory locked) when the first cache is created, not when the factory is built
+    static <ID, R, RRC> PersistentCache<ID, R, RRC> persistentCache(Path directory, Codec<ID> idCodec, Codec<R> codec, int fileSize) {
+        return new PersistentCache<>(directory, idCodec, codec, fileSize);
+    }
+
+    // Each cached() rule needs its own directory, the caller owns the map and is responsible for closing it
+    static <ID, R, RRC> CacheFactory<ID, R, RRC> persistentCache(PersistentMap<ID, List<R>> persistentMap) {
+        return cache(persistentMap);
+    }
+}
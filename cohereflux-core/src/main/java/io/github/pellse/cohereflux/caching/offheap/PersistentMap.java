@@ -0,0 +1,583 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.caching.offheap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.lang.invoke.MethodType.methodType;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Comparator.comparingInt;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link Map} persisted in a memory-mapped append-only log file, reopened with its content after a restart.
+ * <p>
+ * Each record carries a CRC and its length is written last, so a record torn by a crash is detected and ignored when
+ * the file is reopened. When the file is full, live entries are compacted into a new file (the oldest entries are
+ * evicted if they would not leave enough free space), the new file only replaces the previous one once it is complete.
+ * Writes survive a process crash as soon as they are in the OS page cache, call {@link #flush()} to force them to disk.
+ * To avoid decoding overwritten values, {@link #put} always returns {@code null}. Null keys and values are not supported.
+ * <p>
+ * A directory is used by a single instance at a time, it is locked when the map is opened (failing right away if it is
+ * already locked, e.g. by another process) until {@link #close()} releases the lock and unmaps the file.
+ */
+public final class PersistentMap<K, V> extends AbstractMap<K, V> implements Closeable {
+
+    public static final int DEFAULT_FILE_SIZE = 64 << 20;
+
+    private static final Pattern FILE_NAME_PATTERN = Pattern.compile("cache-(\\d+)\\.dat");
+    private static final String LOCK_FILE_NAME = "cache.lock";
+
+    // Unmaps a MappedByteBuffer right away instead of when it is garbage collected, null if not supported by the JVM
+    private static final MethodHandle UNMAPPER = unmapper();
+
+    private static final int MAGIC = 0xCF1E_CAC4;
+    private static final int FILE_COMPACTING = 0;
+    private static final int FILE_ACTIVE = 1;
+    private static final int FILE_HEADER_SIZE = 2 * Integer.BYTES;
+
+    // Record layout: [int bodyLength][int crc][byte type][int keyLength][key][value]
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private final Path directory;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final int fileSize;
+
+    // Offset of the last record written for each live key
+    private final Map<K, Integer> index = new ConcurrentHashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder compactionCount = new LongAdder();
+
+    private final FileChannel lockChannel;
+    private final FileLock fileLock;
+
+    private long generation;
+    private MappedByteBuffer buffer;
+    private int writeOffset;
+
+    public PersistentMap(Path directory, Codec<K> keyCodec, Codec<V> valueCodec) {
+        this(directory, keyCodec, valueCodec, DEFAULT_FILE_SIZE);
+    }
+
+    public PersistentMap(Path directory, Codec<K> keyCodec, Codec<V> valueCodec, int fileSize) {
+        this.directory = requireNonNull(directory, "directory cannot be null");
+        this.keyCodec = requireNonNull(keyCodec, "keyCodec cannot be null");
+        this.valueCodec = requireNonNull(valueCodec, "valueCodec cannot be null");
+
+        if (fileSize <= FILE_HEADER_SIZE) {
+            throw new IllegalArgumentException("fileSize must be greater than " + FILE_HEADER_SIZE + ", was " + fileSize);
+        }
+        this.fileSize = fileSize;
+
+        try {
+            Files.createDirectories(directory);
+            this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE_NAME), CREATE, WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        try {
+            this.fileLock = tryLock(lockChannel, directory);
+            recover();
+        } catch (IOException e) {
+            closeQuietly(lockChannel);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            closeQuietly(lockChannel);
+            throw e;
+        }
+    }
+
+    public long evictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long compactionCount() {
+        return compactionCount.sum();
+    }
+
+    @Override
+    public V get(Object key) {
+        final var bytes = readValueBytes(key);
+        return bytes != null ? valueCodec.fromBytes(bytes) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        final var record = record(PUT, keyCodec.toBytes(requireNonNull(key, "key cannot be null")), valueCodec.toBytes(requireNonNull(value, "value cannot be null")));
+
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            final var offset = append(record);
+            if (offset >= 0) {
+                index.put(key, offset);
+            } else if (index.remove(key) != null) {
+                // Too large to be stored, the previous value must not come back after a restart
+                append(record(REMOVE, keyCodec.toBytes(key), new byte[0]));
+            }
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        final var value = get(key);
+        if (value != null) {
+            removeKey((K) key);
+        }
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            index.clear();
+            compact(0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<K> iterator() {
+                return new MapIterator<>(key -> key);
+            }
+
+            @Override
+            public int size() {
+                return index.size();
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return index.containsKey(key);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean remove(Object key) {
+                return index.containsKey(key) && removeKey((K) key);
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new MapIterator<>(key -> new SimpleImmutableEntry<>(key, get(key)));
+            }
+
+            @Override
+            public int size() {
+                return index.size();
+            }
+        };
+    }
+
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            buffer.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Flushes, unmaps the file and releases the directory lock, the map can't be used anymore afterwards
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (buffer == null) {
+                return;
+            }
+            buffer.force();
+            unmap(buffer);
+            buffer = null;
+            index.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try (lockChannel) {
+            fileLock.release();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean removeKey(K key) {
+        final var record = record(REMOVE, keyCodec.toBytes(key), new byte[0]);
+
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            final boolean removed = index.remove(key) != null;
+            if (removed) {
+                // The tombstone may be dropped by compaction, the previous record for the key being dropped as well
+                append(record);
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private byte[] readValueBytes(Object key) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            final var offset = index.get(key);
+            if (offset == null) {
+                return null;
+            }
+
+            final int bodyLength = buffer.getInt(offset);
+            final int bodyOffset = offset + RECORD_HEADER_SIZE;
+            final int valueOffset = bodyOffset + Byte.BYTES + Integer.BYTES + buffer.getInt(bodyOffset + Byte.BYTES);
+
+            final var bytes = new byte[bodyOffset + bodyLength - valueOffset];
+            buffer.get(valueOffset, bytes);
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static byte[] record(byte type, byte[] key, byte[] value) {
+        final int bodyLength = Byte.BYTES + Integer.BYTES + key.length + value.length;
+
+        final var record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bodyLength)
+                .putInt(bodyLength)
+                .putInt(0)
+                .put(type)
+                .putInt(key.length)
+                .put(key)
+                .put(value);
+
+        final var crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_SIZE, bodyLength);
+        return record.putInt(Integer.BYTES, (int) crc.getValue()).array();
+    }
+
+    // Returns the offset the record was written at, or -1 if it is too large to ever fit in the file
+    private int append(byte[] record) {
+        if (FILE_HEADER_SIZE + record.length > fileSize) {
+            return -1;
+        }
+
+        if (writeOffset + record.length > buffer.capacity()) {
+            compact(record.length);
+        }
+
+        final int offset = writeOffset;
+
+        // Everything but the length first, a crash before the length is written leaves the previous end of log marker
+        buffer.put(offset + Integer.BYTES, record, Integer.BYTES, record.length - Integer.BYTES);
+        buffer.putInt(offset, ByteBuffer.wrap(record).getInt(0));
+
+        writeOffset += record.length;
+        return offset;
+    }
+
+    private void compact(int requiredBytes) {
+        // Live records in log order, oldest first, evicted first if they don't leave enough room
+        final var liveRecords = index.entrySet().stream()
+                .sorted(comparingInt(Entry::getValue))
+                .toList();
+
+        final long freeSpaceTarget = Math.max(requiredBytes, (fileSize - FILE_HEADER_SIZE) / 4);
+        long liveBytes = liveRecords.stream().mapToLong(entry -> recordSize(entry.getValue())).sum();
+
+        int firstKept = 0;
+        while (firstKept < liveRecords.size() && FILE_HEADER_SIZE + liveBytes + freeSpaceTarget > fileSize) {
+            final var evicted = liveRecords.get(firstKept++);
+            liveBytes -= recordSize(evicted.getValue());
+            index.remove(evicted.getKey());
+            evictionCount.increment();
+        }
+
+        try {
+            final var newGeneration = generation + 1;
+            final var newBuffer = createFile(newGeneration);
+
+            final var newOffsets = new HashMap<K, Integer>();
+
+            int newOffset = FILE_HEADER_SIZE;
+            for (var entry : liveRecords.subList(firstKept, liveRecords.size())) {
+                final int size = recordSize(entry.getValue());
+                newBuffer.put(newOffset, buffer, entry.getValue(), size);
+                newOffsets.put(entry.getKey(), newOffset);
+                newOffset += size;
+            }
+
+            // The new file only becomes the one recovered from once all live records are safely copied
+            newBuffer.force();
+            newBuffer.putInt(Integer.BYTES, FILE_ACTIVE);
+            newBuffer.force();
+
+            // Compaction runs under the write lock, no reader can still be using the previous file
+            unmap(buffer);
+            Files.deleteIfExists(file(generation));
+
+            generation = newGeneration;
+            buffer = newBuffer;
+            writeOffset = newOffset;
+            index.putAll(newOffsets);
+            compactionCount.increment();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int recordSize(int offset) {
+        return RECORD_HEADER_SIZE + buffer.getInt(offset);
+    }
+
+    private void recover() throws IOException {
+        final List<Path> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths
+                    .filter(path -> FILE_NAME_PATTERN.matcher(path.getFileName().toString()).matches())
+                    .sorted(Comparator.<Path>comparingLong(PersistentMap::generationOf).reversed())
+                    .toList();
+        }
+
+        MappedByteBuffer recoveredBuffer = null;
+        for (var file : files) {
+            if (recoveredBuffer == null) {
+                final var candidate = map(file, Files.size(file));
+                if (candidate.capacity() >= FILE_HEADER_SIZE && candidate.getInt(0) == MAGIC && candidate.getInt(Integer.BYTES) == FILE_ACTIVE) {
+                    recoveredBuffer = candidate;
+                    generation = generationOf(file);
+                    continue;
+                }
+                unmap(candidate);
+            }
+            // Older generations already compacted, or a newer one whose compaction didn't complete
+            Files.delete(file);
+        }
+
+        if (recoveredBuffer == null) {
+            generation = 1;
+            buffer = createFile(generation);
+            buffer.putInt(Integer.BYTES, FILE_ACTIVE);
+            writeOffset = FILE_HEADER_SIZE;
+            return;
+        }
+
+        buffer = recoveredBuffer;
+        writeOffset = scan();
+    }
+
+    // Replays the log until the end of log marker or the first torn record, returns the offset to append from
+    private int scan() {
+        int offset = FILE_HEADER_SIZE;
+
+        while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            final int bodyLength = buffer.getInt(offset);
+            if (bodyLength <= 0 || offset + RECORD_HEADER_SIZE + bodyLength > buffer.capacity()) {
+                break;
+            }
+
+            final var body = new byte[bodyLength];
+            buffer.get(offset + RECORD_HEADER_SIZE, body);
+
+            final var crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+                break;
+            }
+
+            final var bodyBuffer = ByteBuffer.wrap(body);
+            final byte type = bodyBuffer.get();
+            final var keyBytes = new byte[bodyBuffer.getInt()];
+            bodyBuffer.get(keyBytes);
+            final var key = keyCodec.fromBytes(keyBytes);
+
+            if (type == PUT) {
+                index.put(key, offset);
+            } else {
+                index.remove(key);
+            }
+
+            offset += RECORD_HEADER_SIZE + bodyLength;
+        }
+
+        return offset;
+    }
+
+    private MappedByteBuffer createFile(long generation) throws IOException {
+        final var newBuffer = map(file(generation), fileSize);
+        newBuffer.putInt(0, MAGIC);
+        newBuffer.putInt(Integer.BYTES, FILE_COMPACTING);
+        return newBuffer;
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (var channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+            return channel.map(READ_WRITE, 0, size);
+        }
+    }
+
+    private void ensureOpen() {
+        if (buffer == null) {
+            throw new IllegalStateException("PersistentMap in " + directory + " is closed");
+        }
+    }
+
+    private static FileLock tryLock(FileChannel lockChannel, Path directory) throws IOException {
+        try {
+            final var fileLock = lockChannel.tryLock();
+            if (fileLock != null) {
+                return fileLock;
+            }
+        } catch (OverlappingFileLockException e) {
+            // Locked by another PersistentMap of this JVM
+        }
+        throw new IllegalStateException(directory + " is already used by another PersistentMap, each one needs its own directory");
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already failing, the original error is more relevant
+        }
+    }
+
+    // Accessing an unmapped buffer crashes the JVM, callers must guarantee it is no longer used
+    private static void unmap(MappedByteBuffer buffer) {
+        if (UNMAPPER == null) {
+            return;
+        }
+        try {
+            UNMAPPER.invokeExact((ByteBuffer) buffer);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to unmap " + buffer, e);
+        }
+    }
+
+    // sun.misc.Unsafe.invokeCleaner(), looked up reflectively as there is no public API to unmap a file before Java 19
+    private static MethodHandle unmapper() {
+        try {
+            final var unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", methodType(void.class, ByteBuffer.class))
+                    .bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Mappings are then released when garbage collected
+            return null;
+        }
+    }
+
+    private Path file(long generation) {
+        return directory.resolve("cache-" + generation + ".dat");
+    }
+
+    private static long generationOf(Path file) {
+        final var matcher = FILE_NAME_PATTERN.matcher(file.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    private final class MapIterator<T> implements Iterator<T> {
+
+        private final Iterator<K> delegate = index.keySet().iterator();
+        private final Function<K, T> mappingFunction;
+
+        private K lastKey;
+
+        MapIterator(Function<K, T> mappingFunction) {
+            this.mappingFunction = mappingFunction;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public T next() {
+            lastKey = delegate.next();
+            return mappingFunction.apply(lastKey);
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+            removeKey(lastKey);
+            lastKey = null;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free hit and miss counters of a single cache (or cache tier), counted per id looked up, along with load and
+ * eviction counters for backends reporting them (e.g. Caffeine with {@code recordStats()}).
+ */
+public final class CacheMetrics {
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder evictionWeight = new LongAdder();
+    private final LatencyHistogram loadTime = new LatencyHistogram();
+
+    public static CacheMetrics cacheMetrics() {
+        return new CacheMetrics();
+    }
+
+    public void recordHits(long count) {
+        hitCount.add(count);
+    }
+
+    public void recordMisses(long count) {
+        missCount.add(count);
+    }
+
+    public void recordLoadSuccess(long loadNanos) {
+        loadTime.record(loadNanos);
+    }
+
+    public void recordLoadFailure(long loadNanos) {
+        loadFailureCount.increment();
+        loadTime.record(loadNanos);
+    }
+
+    public void recordEviction(long weight) {
+        evictionCount.increment();
+        evictionWeight.add(weight);
+    }
+
+    public long hitCount() {
+        return hitCount.sum();
+    }
+
+    public long missCount() {
+        return missCount.sum();
+    }
+
+    public long requestCount() {
+        return hitCount() + missCount();
+    }
+
+    public double hitRatio() {
+        final long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount() / requestCount;
+    }
+
+    public long loadCount() {
+        return loadTime.count();
+    }
+
+    public long loadSuccessCount() {
+        return loadCount() - loadFailureCount();
+    }
+
+    public long loadFailureCount() {
+        return loadFailureCount.sum();
+    }
+
+    public double loadFailureRate() {
+        final long loadCount = loadCount();
+        return loadCount == 0 ? 0.0 : (double) loadFailureCount() / loadCount;
+    }
+
+    public LatencyHistogram loadTime() {
+        return loadTime;
+    }
+
+    public long evictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long evictionWeight() {
+        return evictionWeight.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CacheMetrics[hitCount=" + hitCount() +
+                ", missCount=" + missCount() +
+                ", hitRatio=" + hitRatio() +
+                ", loadCount=" + loadCount() +
+                ", loadFailureCount=" + loadFailureCount() +
+                ", evictionCount=" + evictionCount() +
+                ", evictionWeight=" + evictionWeight() +
+                ", loadTime=" + loadTime + "]";
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default {@link MetricsListener} accumulating counters and latency histograms in memory, all updates are lock-free
+ * so a single instance can be shared by concurrent pipelines and read at any time, e.g. from a monitoring endpoint.
+ */
+public final class InMemoryMetrics implements MetricsListener {
+
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder entityCount = new LongAdder();
+    private final LatencyHistogram aggregationLatency = new LatencyHistogram();
+    private final Map<Integer, RuleMetrics> ruleMetrics = new ConcurrentHashMap<>();
+
+    public static InMemoryMetrics inMemoryMetrics() {
+        return new InMemoryMetrics();
+    }
+
+    @Override
+    public void onBatch(int batchSize, int correlationIdCount) {
+        batchCount.increment();
+        entityCount.add(batchSize);
+    }
+
+    @Override
+    public void onRuleQuery(int ruleIndex, int queriedIdCount, int resultCount, long queryLatencyNanos) {
+        final var metrics = ruleMetrics(ruleIndex);
+
+        metrics.queryCount.increment();
+        metrics.queriedIdCount.add(queriedIdCount);
+        metrics.resultCount.add(resultCount);
+        metrics.queryLatency.record(queryLatencyNanos);
+    }
+
+    @Override
+    public void onRuleError(int ruleIndex, Throwable error, long queryLatencyNanos) {
+        final var metrics = ruleMetrics(ruleIndex);
+
+        metrics.errorCount.increment();
+        metrics.queryLatency.record(queryLatencyNanos);
+    }
+
+    @Override
+    public void onAggregation(int batchSize, long aggregationNanos) {
+        aggregationLatency.record(aggregationNanos);
+    }
+
+    public long batchCount() {
+        return batchCount.sum();
+    }
+
+    public long entityCount() {
+        return entityCount.sum();
+    }
+
+    public LatencyHistogram aggregationLatency() {
+        return aggregationLatency;
+    }
+
+    public RuleMetrics ruleMetrics(int ruleIndex) {
+        final var metrics = ruleMetrics.get(ruleIndex);
+        return metrics != null ? metrics : ruleMetrics.computeIfAbsent(ruleIndex, __ -> new RuleMetrics());
+    }
+
+    public Map<Integer, RuleMetrics> allRuleMetrics() {
+        return new TreeMap<>(ruleMetrics);
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryMetrics[batchCount=" + batchCount() +
+                ", entityCount=" + entityCount() +
+                ", aggregationLatency=" + aggregationLatency +
+                ", ruleMetrics=" + allRuleMetrics() + "]";
+    }
+
+    public static final class RuleMetrics {
+
+        private final LongAdder queryCount = new LongAdder();
+        private final LongAdder errorCount = new LongAdder();
+        private final LongAdder queriedIdCount = new LongAdder();
+        private final LongAdder resultCount = new LongAdder();
+        private final LatencyHistogram queryLatency = new LatencyHistogram();
+
+        private RuleMetrics() {
+        }
+
+        public long queryCount() {
+            return queryCount.sum();
+        }
+
+        public long errorCount() {
+            return errorCount.sum();
+        }
+
+        // Ids sent to the rule's query function, cache hits excluded
+        public long queriedIdCount() {
+            return queriedIdCount.sum();
+        }
+
+        public long resultCount() {
+            return resultCount.sum();
+        }
+
+        public LatencyHistogram queryLatency() {
+            return queryLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "RuleMetrics[queryCount=" + queryCount() +
+                    ", errorCount=" + errorCount() +
+                    ", queriedIdCount=" + queriedIdCount() +
+                    ", resultCount=" + resultCount() +
+                    ", queryLatency=" + queryLatency + "]";
+        }
+    }
+}
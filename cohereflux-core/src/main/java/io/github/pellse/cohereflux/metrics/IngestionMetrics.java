@@ -0,0 +1,144 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.System.nanoTime;
+
+/**
+ * Lock-free metrics of the bounded ingestion buffer of an autoCache, i.e. how many change events are waiting to be
+ * applied and for how long (the event lag), how many were dropped (on overflow or for being stale) or superseded, and
+ * how fast they are applied to the cache.
+ */
+public final class IngestionMetrics {
+
+    private final LongAdder enqueuedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder conflatedCount = new LongAdder();
+    private final LongAdder staleCount = new LongAdder();
+    private final LongAdder appliedCount = new LongAdder();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final LatencyHistogram eventLag = new LatencyHistogram();
+    private final LatencyHistogram applyTime = new LatencyHistogram();
+
+    private long lastSampleNanos = nanoTime();
+    private long lastSampleAppliedCount;
+
+    public static IngestionMetrics ingestionMetrics() {
+        return new IngestionMetrics();
+    }
+
+    public void onEnqueued() {
+        enqueuedCount.increment();
+        final int depth = queueDepth.incrementAndGet();
+
+        int currentMax;
+        while (depth > (currentMax = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(currentMax, depth)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    public void onDequeued(long lagNanos) {
+        queueDepth.decrementAndGet();
+        eventLag.record(lagNanos);
+    }
+
+    public void onDropped() {
+        queueDepth.decrementAndGet();
+        droppedCount.increment();
+    }
+
+    public void onConflated() {
+        conflatedCount.increment();
+    }
+
+    public void onStale() {
+        staleCount.increment();
+    }
+
+    public void recordApplied(long eventCount, long applyNanos) {
+        appliedCount.add(eventCount);
+        applyTime.record(applyNanos);
+    }
+
+    public long enqueuedCount() {
+        return enqueuedCount.sum();
+    }
+
+    public long droppedCount() {
+        return droppedCount.sum();
+    }
+
+    public long conflatedCount() {
+        return conflatedCount.sum();
+    }
+
+    // Versioned events dropped for being older than the last version of their entity
+    public long staleCount() {
+        return staleCount.sum();
+    }
+
+    public long appliedCount() {
+        return appliedCount.sum();
+    }
+
+    public int queueDepth() {
+        return queueDepth.get();
+    }
+
+    public int maxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    // Time spent by change events in the ingestion buffer before being handed to windowing
+    public LatencyHistogram eventLag() {
+        return eventLag;
+    }
+
+    // Duration of each cache update, one per window
+    public LatencyHistogram applyTime() {
+        return applyTime;
+    }
+
+    // Events applied per second since the previous call, meant to be sampled periodically by a metrics reporter
+    public synchronized double applyRate() {
+        final long now = nanoTime();
+        final long count = appliedCount();
+        final double rate = (count - lastSampleAppliedCount) * 1_000_000_000.0 / Math.max(now - lastSampleNanos, 1);
+
+        lastSampleNanos = now;
+        lastSampleAppliedCount = count;
+        return rate;
+    }
+
+    @Override
+    public String toString() {
+        return "IngestionMetrics[enqueuedCount=" + enqueuedCount() +
+                ", droppedCount=" + droppedCount() +
+                ", conflatedCount=" + conflatedCount() +
+                ", staleCount=" + staleCount() +
+                ", appliedCount=" + appliedCount() +
+                ", queueDepth=" + queueDepth() +
+                ", maxQueueDepth=" + maxQueueDepth() +
+                ", eventLag=" + eventLag +
+                ", applyTime=" + applyTime + "]";
+    }
+}
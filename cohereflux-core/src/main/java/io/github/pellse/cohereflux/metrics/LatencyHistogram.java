@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.Long.numberOfLeadingZeros;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, values are recorded in power of two buckets so percentiles
+ * are approximated by the upper bound of their bucket, i.e. with a relative error of at most 2x.
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = Long.SIZE;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        final long value = Math.max(nanos, 0);
+
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        totalNanos.add(value);
+
+        long currentMax;
+        while (value > (currentMax = maxNanos.get()) && !maxNanos.compareAndSet(currentMax, value)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    public double meanNanos() {
+        final long count = count();
+        return count > 0 ? (double) totalNanos() / count : 0;
+    }
+
+    public long percentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100, was " + percentile);
+        }
+
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += (snapshot[i] = buckets.get(i));
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max((long) Math.ceil(total * percentile / 100), 1);
+        long cumulativeCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulativeCount += snapshot[i];
+            if (cumulativeCount >= rank) {
+                return Math.min(bucketUpperBound(i), maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    // Bucket i holds values in [2^(i-1), 2^i), bucket 0 only holds 0
+    private static int bucketIndex(long value) {
+        return Math.min(BUCKET_COUNT - numberOfLeadingZeros(value), BUCKET_COUNT - 1);
+    }
+
+    private static long bucketUpperBound(int bucketIndex) {
+        return bucketIndex >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucketIndex) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram[count=" + count() +
+                ", meanNanos=" + (long) meanNanos() +
+                ", p50Nanos=" + percentileNanos(50) +
+                ", p99Nanos=" + percentileNanos(99) +
+                ", maxNanos=" + maxNanos() + "]";
+    }
+}
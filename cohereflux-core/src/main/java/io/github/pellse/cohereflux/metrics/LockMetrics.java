@@ -0,0 +1,97 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free metrics of a queued lock, i.e. how many lock requests are parked waiting for the lock and for how long,
+ * a single instance can be shared by multiple locks (e.g. all stripes of a cache) to get aggregated metrics.
+ */
+public final class LockMetrics {
+
+    private final LongAdder acquisitionCount = new LongAdder();
+    private final LongAdder contendedAcquisitionCount = new LongAdder();
+    private final LongAdder cancellationCount = new LongAdder();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+
+    public static LockMetrics lockMetrics() {
+        return new LockMetrics();
+    }
+
+    public void onEnqueued() {
+        final int depth = queueDepth.incrementAndGet();
+
+        int currentMax;
+        while (depth > (currentMax = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(currentMax, depth)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    public void onDequeued() {
+        queueDepth.decrementAndGet();
+    }
+
+    public void onAcquired(long waitNanos, boolean contended) {
+        acquisitionCount.increment();
+        if (contended) {
+            contendedAcquisitionCount.increment();
+        }
+        waitTime.record(waitNanos);
+    }
+
+    public void onCancelled() {
+        cancellationCount.increment();
+    }
+
+    public long acquisitionCount() {
+        return acquisitionCount.sum();
+    }
+
+    public long contendedAcquisitionCount() {
+        return contendedAcquisitionCount.sum();
+    }
+
+    public long cancellationCount() {
+        return cancellationCount.sum();
+    }
+
+    public int queueDepth() {
+        return queueDepth.get();
+    }
+
+    public int maxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public LatencyHistogram waitTime() {
+        return waitTime;
+    }
+
+    @Override
+    public String toString() {
+        return "LockMetrics[acquisitionCount=" + acquisitionCount() +
+                ", contendedAcquisitionCount=" + contendedAcquisitionCount() +
+                ", cancellationCount=" + cancellationCount() +
+                ", queueDepth=" + queueDepth() +
+                ", maxQueueDepth=" + maxQueueDepth() +
+                ", waitTime=" + waitTime + "]";
+    }
+}
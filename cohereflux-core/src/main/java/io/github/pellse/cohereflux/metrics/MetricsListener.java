@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.metrics;
+
+/**
+ * Receives per batch and per rule measurements from a {@code CohereFlux} instance, rules are identified by their
+ * index in the order they were passed to {@code withRules()}.
+ * <p>
+ * Callbacks are invoked inline on the threads executing the pipeline, possibly concurrently for the same rule,
+ * so implementations must be thread-safe and non-blocking.
+ */
+public interface MetricsListener {
+
+    MetricsListener NO_OP = new MetricsListener() {
+    };
+
+    static MetricsListener noOp() {
+        return NO_OP;
+    }
+
+    static boolean isNoOp(MetricsListener metricsListener) {
+        return metricsListener == null || metricsListener == NO_OP;
+    }
+
+    /**
+     * @param batchSize          Number of top level entities in the batch
+     * @param correlationIdCount Number of distinct correlation ids in the batch, i.e. the ids each rule is applied to
+     */
+    default void onBatch(int batchSize, int correlationIdCount) {
+    }
+
+    /**
+     * @param queriedIdCount    Number of ids sent to the rule's query function, i.e. only the cache misses of a cached
+     *                          rule, see {@link QueryIdCounter}
+     * @param resultCount       Number of correlation ids with a non-null result, including default values
+     * @param queryLatencyNanos Elapsed time between the subscription to the rule and the emission of its results
+     */
+    default void onRuleQuery(int ruleIndex, int queriedIdCount, int resultCount, long queryLatencyNanos) {
+    }
+
+    default void onRuleError(int ruleIndex, Throwable error, long queryLatencyNanos) {
+    }
+
+    /**
+     * @param aggregationNanos Time spent joining rule results with top level entities and applying the
+     *                         aggregation function, excluding the time spent downstream between each row
+     */
+    default void onAggregation(int batchSize, long aggregationNanos) {
+    }
+}
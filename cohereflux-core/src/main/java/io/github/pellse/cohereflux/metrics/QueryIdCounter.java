@@ -0,0 +1,56 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.metrics;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Number of ids sent to the query function of a rule during one rule query, carried in the Reactor {@link Context} of
+ * the query so that it is counted where the query function is actually called. The call site closest to the query
+ * function wins, e.g. a cached rule resets the count of its rule mapper, then only adds the ids it fetches on cache
+ * misses. Nothing is counted when the query isn't instrumented.
+ */
+public final class QueryIdCounter {
+
+    private static final Class<QueryIdCounter> KEY = QueryIdCounter.class;
+
+    private final AtomicInteger idCount = new AtomicInteger();
+
+    public static QueryIdCounter queryIdCounter() {
+        return new QueryIdCounter();
+    }
+
+    public static void setIdCount(ContextView context, int idCount) {
+        context.getOrEmpty(KEY).ifPresent(counter -> KEY.cast(counter).idCount.set(idCount));
+    }
+
+    public static void addIdCount(ContextView context, int idCount) {
+        context.getOrEmpty(KEY).ifPresent(counter -> KEY.cast(counter).idCount.addAndGet(idCount));
+    }
+
+    public Context toContext() {
+        return Context.of(KEY, this);
+    }
+
+    public int idCount() {
+        return idCount.get();
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.util.collection;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Thread-safe {@link Map} holding at most {@code maximumSize} entries, evicting with the CLOCK (second chance)
+ * approximation of LRU. Reads are lock-free and only flag the entry as recently used, writes only lock when
+ * an eviction is needed. Null keys and values are not supported, {@link #compute} and the other conditional
+ * operations are atomic per key.
+ */
+public final class BoundedConcurrentMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+    private final long maximumSize;
+
+    private final Map<K, Node<K, V>> map = new ConcurrentHashMap<>();
+    private final Queue<Node<K, V>> clock = new ConcurrentLinkedQueue<>();
+
+    // Nodes explicitly removed from the map that are still in the clock queue, purged once they outnumber the live entries
+    private final AtomicInteger removedNodeCount = new AtomicInteger();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LongAdder evictionCount = new LongAdder();
+
+    public BoundedConcurrentMap(long maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be greater than 0, was " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+    }
+
+    public long maximumSize() {
+        return maximumSize;
+    }
+
+    public long evictionCount() {
+        return evictionCount.sum();
+    }
+
+    @Override
+    public V get(Object key) {
+        final var node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        requireNonNull(value, "value cannot be null");
+
+        final var newNode = new Node<>(key, value);
+        final var previousValue = new Object[1];
+
+        final var node = map.merge(key, newNode, (existingNode, __) -> {
+            previousValue[0] = existingNode.value;
+            existingNode.value = value;
+            existingNode.referenced = true;
+            return existingNode;
+        });
+
+        if (node == newNode) {
+            clock.offer(newNode);
+            evictIfNeeded();
+        }
+        return (V) previousValue[0];
+    }
+
+    @Override
+    public V remove(Object key) {
+        final var node = map.remove(key);
+        if (node == null) {
+            return null;
+        }
+        node.removed = true;
+        if (removedNodeCount.incrementAndGet() > maximumSize) {
+            evictIfNeeded();
+        }
+        return node.value;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        requireNonNull(remappingFunction, "remappingFunction cannot be null");
+
+        final var computation = new Computation<K, V>();
+
+        map.compute(key, (k, existingNode) -> {
+            final V value = remappingFunction.apply(k, existingNode != null ? existingNode.value : null);
+            computation.value = value;
+
+            if (value == null) {
+                if (existingNode != null) {
+                    existingNode.removed = true;
+                    computation.removed = true;
+                }
+                return null;
+            }
+            if (existingNode != null) {
+                existingNode.value = value;
+                existingNode.referenced = true;
+                return existingNode;
+            }
+            return computation.newNode = new Node<>(k, value);
+        });
+
+        if (computation.newNode != null) {
+            clock.offer(computation.newNode);
+            evictIfNeeded();
+        } else if (computation.removed && removedNodeCount.incrementAndGet() > maximumSize) {
+            evictIfNeeded();
+        }
+        return computation.value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(K key, V value) {
+        requireNonNull(value, "value cannot be null");
+
+        final var previousValue = new Object[1];
+        compute(key, (k, existingValue) -> {
+            previousValue[0] = existingValue;
+            return existingValue != null ? existingValue : value;
+        });
+        return (V) previousValue[0];
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        final var removed = new boolean[1];
+        computeIfEquals(key, value, (k, existingValue) -> {
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        requireNonNull(newValue, "newValue cannot be null");
+
+        final var replaced = new boolean[1];
+        computeIfEquals(key, oldValue, (k, existingValue) -> {
+            replaced[0] = true;
+            return newValue;
+        });
+        return replaced[0];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V replace(K key, V value) {
+        requireNonNull(value, "value cannot be null");
+
+        final var previousValue = new Object[1];
+        compute(key, (k, existingValue) -> {
+            previousValue[0] = existingValue;
+            return existingValue != null ? value : null;
+        });
+        return (V) previousValue[0];
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public void clear() {
+        evictionLock.lock();
+        try {
+            map.clear();
+            clock.clear();
+            removedNodeCount.set(0);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<K> iterator() {
+                return new MapIterator<>(entry -> entry.getKey());
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return map.containsKey(key);
+            }
+
+            @Override
+            public boolean remove(Object key) {
+                return BoundedConcurrentMap.this.remove(key) != null;
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new MapIterator<>(entry -> new SimpleImmutableEntry<>(entry.getKey(), entry.getValue().value));
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+        };
+    }
+
+    // Remaps the entry only if its current value equals expectedValue
+    @SuppressWarnings("unchecked")
+    private void computeIfEquals(Object key, Object expectedValue, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (key == null || !map.containsKey(key)) {
+            return;
+        }
+        compute((K) key, (k, existingValue) -> existingValue != null && existingValue.equals(expectedValue)
+                ? remappingFunction.apply(k, existingValue)
+                : existingValue);
+    }
+
+    private void evictIfNeeded() {
+        if (map.size() <= maximumSize && removedNodeCount.get() <= maximumSize) {
+            return;
+        }
+
+        evictionLock.lock();
+        try {
+            if (removedNodeCount.get() > maximumSize) {
+                purgeRemovedNodes();
+            }
+
+            // Bounded, every referenced node is given a second chance at most once before its flag is cleared
+            while (map.size() > maximumSize) {
+                final var node = clock.poll();
+                if (node == null) {
+                    break;
+                }
+                if (node.removed) {
+                    removedNodeCount.decrementAndGet();
+                } else if (node.referenced) {
+                    node.referenced = false;
+                    clock.offer(node);
+                } else if (map.remove(node.key, node)) {
+                    node.removed = true;
+                    evictionCount.increment();
+                } else {
+                    // Concurrently removed and already accounted for in remove(), but no longer in the clock queue
+                    removedNodeCount.decrementAndGet();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void purgeRemovedNodes() {
+        for (var iterator = clock.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().removed) {
+                iterator.remove();
+                removedNodeCount.decrementAndGet();
+            }
+        }
+    }
+
+    private final class MapIterator<T> implements Iterator<T> {
+
+        private final Iterator<Entry<K, Node<K, V>>> delegate = map.entrySet().iterator();
+        private final Function<Entry<K, Node<K, V>>, T> mappingFunction;
+
+        private K lastKey;
+
+        MapIterator(Function<Entry<K, Node<K, V>>, T> mappingFunction) {
+            this.mappingFunction = mappingFunction;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public T next() {
+            final var entry = delegate.next();
+            lastKey = entry.getKey();
+            return mappingFunction.apply(entry);
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+            BoundedConcurrentMap.this.remove(lastKey);
+            lastKey = null;
+        }
+    }
+
+    private static final class Computation<K, V> {
+        V value;
+        Node<K, V> newNode;
+        boolean removed;
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        volatile boolean referenced;
+        volatile boolean removed;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
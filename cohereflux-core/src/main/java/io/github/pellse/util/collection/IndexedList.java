@@ -0,0 +1,185 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.util.collection;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Immutable insertion ordered {@link List} of elements unique by key, upserting an existing key replaces the element,
+ * keeping its position.
+ * <p>
+ * Changes are persistent, {@link #upsertAll} and {@link #removeAllOf} return a new list sharing all but the changed
+ * paths of its element chunks and key index with this one, a list handed out to readers is thus never modified
+ * afterwards and can be read concurrently with writers. Upserting or removing an element is O(log32 n), i.e. effectively
+ * constant, instead of a copy of the whole list. Removed elements leave an empty slot until they outnumber the live
+ * ones, positional access is O(log32 n) while there are none and linear otherwise, iteration is always linear.
+ */
+public final class IndexedList<K, V> extends AbstractList<V> {
+
+    private static final int MIN_REMOVED_SLOTS_BEFORE_COMPACTION = 32;
+
+    private final Function<? super V, K> keyResolver;
+    private final PersistentArray slots;
+    private final PersistentIndex index;
+    private final int size;
+
+    public IndexedList(Function<? super V, K> keyResolver) {
+        this(requireNonNull(keyResolver, "keyResolver cannot be null"), PersistentArray.EMPTY, PersistentIndex.EMPTY, 0);
+    }
+
+    public IndexedList(Iterable<? extends V> elements, Function<? super V, K> keyResolver) {
+        this(new IndexedList<K, V>(keyResolver).upsertAll(elements));
+    }
+
+    private IndexedList(IndexedList<K, V> indexedList) {
+        this(indexedList.keyResolver, indexedList.slots, indexedList.index, indexedList.size);
+    }
+
+    private IndexedList(Function<? super V, K> keyResolver, PersistentArray slots, PersistentIndex index, int size) {
+        this.keyResolver = keyResolver;
+        this.slots = slots;
+        this.index = index;
+        this.size = size;
+    }
+
+    public IndexedList<K, V> upsert(V element) {
+        return upsertAll(List.of(element));
+    }
+
+    public IndexedList<K, V> upsertAll(Iterable<? extends V> elements) {
+        var newSlots = slots;
+        var newIndex = index;
+        int newSize = size;
+
+        for (V element : elements) {
+            requireNonNull(element, "element cannot be null");
+
+            final var key = keyResolver.apply(element);
+            final int position = newIndex.get(key);
+            if (position != PersistentIndex.ABSENT) {
+                newSlots = newSlots.set(position, element);
+            } else {
+                newIndex = newIndex.put(key, newSlots.length());
+                newSlots = newSlots.append(element);
+                newSize++;
+            }
+        }
+
+        return new IndexedList<K, V>(keyResolver, newSlots, newIndex, newSize);
+    }
+
+    public IndexedList<K, V> removeKey(Object key) {
+        return removeKeys(Collections.singleton(key));
+    }
+
+    public IndexedList<K, V> removeAllOf(Iterable<? extends V> elements) {
+        final List<Object> keys = new ArrayList<>();
+        elements.forEach(element -> keys.add(keyResolver.apply(element)));
+        return removeKeys(keys);
+    }
+
+    public boolean containsKey(Object key) {
+        return index.get(key) != PersistentIndex.ABSENT;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(int index) {
+        Objects.checkIndex(index, size);
+
+        if (size == slots.length()) {
+            return (V) slots.get(index);
+        }
+
+        final var iterator = iterator();
+        for (int i = 0; i < index; i++) {
+            iterator.next();
+        }
+        return iterator.next();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+        return new Iterator<>() {
+
+            private int slot = nextSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return slot < slots.length();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final var element = (V) slots.get(slot);
+                slot = nextSlot(slot + 1);
+                return element;
+            }
+
+            // Skips the empty slots left by removed elements, reading one chunk at a time
+            private int nextSlot(int from) {
+                int position = from;
+                while (position < slots.length()) {
+                    final var chunk = slots.chunkFor(position);
+                    for (int i = position & (chunk.length - 1); i < chunk.length && position < slots.length(); i++, position++) {
+                        if (chunk[i] != null) {
+                            return position;
+                        }
+                    }
+                }
+                return position;
+            }
+        };
+    }
+
+    private IndexedList<K, V> removeKeys(Iterable<?> keys) {
+        var newSlots = slots;
+        var newIndex = index;
+        int newSize = size;
+
+        for (var key : keys) {
+            final int position = newIndex.get(key);
+            if (position != PersistentIndex.ABSENT) {
+                newSlots = newSlots.set(position, null);
+                newIndex = newIndex.remove(key);
+                newSize--;
+            }
+        }
+
+        if (newSize == size) {
+            return this;
+        }
+
+        final var newList = new IndexedList<K, V>(keyResolver, newSlots, newIndex, newSize);
+        final int removedSlots = newSlots.length() - newSize;
+
+        // Compacting once empty slots outnumber the live ones keeps removals amortized O(log32 n)
+        return removedSlots >= MIN_REMOVED_SLOTS_BEFORE_COMPACTION && removedSlots > newSize ? new IndexedList<K, V>(newList, keyResolver) : newList;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.util.collection;
+
+public final class IntKeyMap<V> extends PrimitiveKeyMap<Integer, V> {
+
+    public IntKeyMap() {
+        this(0);
+    }
+
+    public IntKeyMap(int expectedSize) {
+        super(expectedSize);
+    }
+
+    public boolean containsPrimitiveKey(int key) {
+        return containsPrimitiveKey((long) key);
+    }
+
+    public V getPrimitive(int key) {
+        return getPrimitive((long) key);
+    }
+
+    public V putPrimitive(int key, V value) {
+        return putPrimitive((long) key, value);
+    }
+
+    public V removePrimitive(int key) {
+        return removePrimitive((long) key);
+    }
+
+    @Override
+    protected long toPrimitiveKey(Object key) {
+        return (Integer) key;
+    }
+
+    @Override
+    protected Integer toKey(long primitiveKey) {
+        return (int) primitiveKey;
+    }
+
+    @Override
+    protected boolean isValidKey(Object key) {
+        return key instanceof Integer;
+    }
+}
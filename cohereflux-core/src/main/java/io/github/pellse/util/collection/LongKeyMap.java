@@ -0,0 +1,43 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.util.collection;
+
+public final class LongKeyMap<V> extends PrimitiveKeyMap<Long, V> {
+
+    public LongKeyMap() {
+        this(0);
+    }
+
+    public LongKeyMap(int expectedSize) {
+        super(expectedSize);
+    }
+
+    @Override
+    protected long toPrimitiveKey(Object key) {
+        return (Long) key;
+    }
+
+    @Override
+    protected Long toKey(long primitiveKey) {
+        return primitiveKey;
+    }
+
+    @Override
+    protected boolean isValidKey(Object key) {
+        return key instanceof Long;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.util.collection;
+
+/**
+ * Immutable array of 32 wide chunks arranged as a trie, {@link #set} and {@link #append} only copy the chunks on the
+ * path to the slot (i.e. O(log32 n)) and share all the others with the previous version.
+ */
+final class PersistentArray {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    static final PersistentArray EMPTY = new PersistentArray(new Object[WIDTH], 0, 0);
+
+    private final Object[] root;
+    private final int shift;
+    private final int length;
+
+    private PersistentArray(Object[] root, int shift, int length) {
+        this.root = root;
+        this.shift = shift;
+        this.length = length;
+    }
+
+    int length() {
+        return length;
+    }
+
+    Object get(int index) {
+        return chunkFor(index)[index & MASK];
+    }
+
+    // Chunk holding the slot at index and its (up to 31) neighbours, for sequential reads
+    Object[] chunkFor(int index) {
+        var node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    PersistentArray set(int index, Object value) {
+        return new PersistentArray(assoc(root, shift, index, value), shift, length);
+    }
+
+    PersistentArray append(Object value) {
+        if (length == 1 << (shift + BITS)) {
+            final var newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            return new PersistentArray(assoc(newRoot, shift + BITS, length, value), shift + BITS, length + 1);
+        }
+        return new PersistentArray(assoc(root, shift, length, value), shift, length + 1);
+    }
+
+    private static Object[] assoc(Object[] node, int level, int index, Object value) {
+        final var copy = node != null ? node.clone() : new Object[WIDTH];
+
+        if (level == 0) {
+            copy[index & MASK] = value;
+        } else {
+            final int childIndex = (index >>> level) & MASK;
+            copy[childIndex] = assoc((Object[]) copy[childIndex], level - BITS, index, value);
+        }
+        return copy;
+    }
+}
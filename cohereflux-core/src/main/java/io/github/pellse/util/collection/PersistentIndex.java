@@ -0,0 +1,222 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.util.collection;
+
+import java.util.Objects;
+
+import static java.lang.Integer.bitCount;
+import static java.lang.System.arraycopy;
+
+/**
+ * Immutable hash array mapped trie from keys to {@code int} positions, {@link #put} and {@link #remove} only copy the
+ * (at most 7) nodes on the path to the key and share all the others with the previous version.
+ */
+final class PersistentIndex {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    static final int ABSENT = -1;
+
+    static final PersistentIndex EMPTY = new PersistentIndex(new Node(0, new Object[0]));
+
+    private final Node root;
+
+    private PersistentIndex(Node root) {
+        this.root = root;
+    }
+
+    int get(Object key) {
+        final int hash = hash(key);
+        Object node = root;
+
+        for (int shift = 0; ; shift += BITS) {
+            if (node instanceof Node bitmapNode) {
+                final int bit = bit(hash, shift);
+                if ((bitmapNode.bitmap & bit) == 0) {
+                    return ABSENT;
+                }
+                node = bitmapNode.children[bitmapNode.indexOf(bit)];
+            } else if (node instanceof Entry entry) {
+                return entry.hash == hash && Objects.equals(entry.key, key) ? entry.value : ABSENT;
+            } else {
+                return ((Collision) node).get(hash, key);
+            }
+        }
+    }
+
+    PersistentIndex put(Object key, int value) {
+        return new PersistentIndex(root.put(new Entry(key, hash(key), value), 0));
+    }
+
+    PersistentIndex remove(Object key) {
+        final var newRoot = root.remove(key, hash(key), 0);
+        return newRoot == root ? this : new PersistentIndex(newRoot != null ? (Node) newRoot : EMPTY.root);
+    }
+
+    private static int hash(Object key) {
+        final int hash = Objects.hashCode(key);
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    // Children are either an Entry, a Collision (entries sharing the same hash) or a nested Node
+    private record Node(int bitmap, Object[] children) {
+
+        int indexOf(int bit) {
+            return bitCount(bitmap & (bit - 1));
+        }
+
+        Node put(Entry entry, int shift) {
+            final int bit = bit(entry.hash, shift);
+            final int index = indexOf(bit);
+
+            if ((bitmap & bit) == 0) {
+                final var newChildren = new Object[children.length + 1];
+                arraycopy(children, 0, newChildren, 0, index);
+                newChildren[index] = entry;
+                arraycopy(children, index, newChildren, index + 1, children.length - index);
+                return new Node(bitmap | bit, newChildren);
+            }
+
+            final var child = children[index];
+            final Object newChild;
+
+            if (child instanceof Node node) {
+                newChild = node.put(entry, shift + BITS);
+            } else if (child instanceof Entry existing && existing.hash == entry.hash && Objects.equals(existing.key, entry.key)) {
+                newChild = entry;
+            } else {
+                newChild = merge(child, entry, shift + BITS);
+            }
+            return withChild(index, newChild);
+        }
+
+        // Returns this node when the key is absent, null when the node becomes empty
+        Object remove(Object key, int hash, int shift) {
+            final int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+
+            final int index = indexOf(bit);
+            final var child = children[index];
+            final Object newChild;
+
+            if (child instanceof Node node) {
+                newChild = node.remove(key, hash, shift + BITS);
+            } else if (child instanceof Entry entry) {
+                newChild = entry.hash == hash && Objects.equals(entry.key, key) ? null : entry;
+            } else {
+                newChild = ((Collision) child).remove(key, hash);
+            }
+
+            if (newChild == child) {
+                return this;
+            }
+            if (newChild == null) {
+                if (children.length == 1) {
+                    return null;
+                }
+                final var newChildren = new Object[children.length - 1];
+                arraycopy(children, 0, newChildren, 0, index);
+                arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+                return new Node(bitmap & ~bit, newChildren);
+            }
+            // A node left with a single entry collapses into its parent, entries are matched by hash at any depth
+            return withChild(index, newChild instanceof Node node && node.children.length == 1 && !(node.children[0] instanceof Node) ? node.children[0] : newChild);
+        }
+
+        private Node withChild(int index, Object child) {
+            final var newChildren = children.clone();
+            newChildren[index] = child;
+            return new Node(bitmap, newChildren);
+        }
+
+        private static Object merge(Object existing, Entry entry, int shift) {
+            final int existingHash = existing instanceof Entry existingEntry ? existingEntry.hash : ((Collision) existing).hash;
+
+            if (existingHash == entry.hash) {
+                return existing instanceof Entry existingEntry ? new Collision(entry.hash, new Entry[]{existingEntry, entry}) : ((Collision) existing).put(entry);
+            }
+
+            final int existingBit = bit(existingHash, shift);
+            final int bit = bit(entry.hash, shift);
+
+            if (existingBit == bit) {
+                return new Node(bit, new Object[]{merge(existing, entry, shift + BITS)});
+            }
+            return new Node(existingBit | bit, Integer.compareUnsigned(existingBit, bit) < 0 ? new Object[]{existing, entry} : new Object[]{entry, existing});
+        }
+    }
+
+    private record Entry(Object key, int hash, int value) {
+    }
+
+    private record Collision(int hash, Entry[] entries) {
+
+        int get(int hash, Object key) {
+            if (hash == this.hash) {
+                for (var entry : entries) {
+                    if (Objects.equals(entry.key, key)) {
+                        return entry.value;
+                    }
+                }
+            }
+            return ABSENT;
+        }
+
+        Collision put(Entry entry) {
+            for (int i = 0; i < entries.length; i++) {
+                if (Objects.equals(entries[i].key, entry.key)) {
+                    final var newEntries = entries.clone();
+                    newEntries[i] = entry;
+                    return new Collision(hash, newEntries);
+                }
+            }
+
+            final var newEntries = new Entry[entries.length + 1];
+            arraycopy(entries, 0, newEntries, 0, entries.length);
+            newEntries[entries.length] = entry;
+            return new Collision(hash, newEntries);
+        }
+
+        // Returns this collision when the key is absent, the remaining entry when only one is left
+        Object remove(Object key, int hash) {
+            if (hash != this.hash) {
+                return this;
+            }
+
+            for (int i = 0; i < entries.length; i++) {
+                if (Objects.equals(entries[i].key, key)) {
+                    if (entries.length == 2) {
+                        return entries[1 - i];
+                    }
+                    final var newEntries = new Entry[entries.length - 1];
+                    arraycopy(entries, 0, newEntries, 0, i);
+                    arraycopy(entries, i + 1, newEntries, i, entries.length - i - 1);
+                    return new Collision(hash, newEntries);
+                }
+            }
+            return this;
+        }
+    }
+}
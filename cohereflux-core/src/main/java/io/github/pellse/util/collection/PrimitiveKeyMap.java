@@ -0,0 +1,369 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.util.collection;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Open addressing (linear probing) hash map storing its keys in a {@code long[]},
+ * there is no {@link Map.Entry} allocated per mapping and no boxing when using the primitive accessors.
+ * Null values are supported, null keys are not. Not thread safe.
+ */
+public abstract sealed class PrimitiveKeyMap<K, V> extends AbstractMap<K, V> permits LongKeyMap, IntKeyMap {
+
+    private static final byte FREE = 0;
+    private static final byte FULL = 1;
+    private static final byte REMOVED = 2;
+
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;
+    private Object[] values;
+    private byte[] states;
+
+    private int size;
+    private int usedSlots;
+    private int threshold;
+
+    private Set<K> keySet;
+    private Set<Entry<K, V>> entrySet;
+
+    PrimitiveKeyMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    protected abstract long toPrimitiveKey(Object key);
+
+    protected abstract K toKey(long primitiveKey);
+
+    protected abstract boolean isValidKey(Object key);
+
+    public boolean containsPrimitiveKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V getPrimitive(long key) {
+        final int index = indexOf(key);
+        return index >= 0 ? (V) values[index] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V putPrimitive(long key, V value) {
+        final int mask = keys.length - 1;
+        int index = mix(key) & mask;
+        int firstRemoved = -1;
+
+        while (states[index] != FREE) {
+            if (states[index] == FULL) {
+                if (keys[index] == key) {
+                    final var oldValue = (V) values[index];
+                    values[index] = value;
+                    return oldValue;
+                }
+            } else if (firstRemoved < 0) {
+                firstRemoved = index;
+            }
+            index = (index + 1) & mask;
+        }
+
+        if (firstRemoved >= 0) {
+            index = firstRemoved;
+        } else {
+            usedSlots++;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        states[index] = FULL;
+        size++;
+
+        if (usedSlots > threshold) {
+            rehash(size >= threshold / 2 ? keys.length << 1 : keys.length);
+        }
+        return null;
+    }
+
+    public V removePrimitive(long key) {
+        final int index = indexOf(key);
+        return index >= 0 ? removeAt(index) : null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return isValidKey(key) && containsPrimitiveKey(toPrimitiveKey(key));
+    }
+
+    @Override
+    public V get(Object key) {
+        return isValidKey(key) ? getPrimitive(toPrimitiveKey(key)) : null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putPrimitive(toPrimitiveKey(requireNonNull(key, "PrimitiveKeyMap doesn't support null keys")), value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return isValidKey(key) ? removePrimitive(toPrimitiveKey(key)) : null;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(states, FREE);
+        Arrays.fill(values, null);
+        size = 0;
+        usedSlots = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == FULL) {
+                action.accept(toKey(keys[i]), (V) values[i]);
+            }
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        if (keySet == null) {
+            keySet = new AbstractSet<>() {
+
+                @Override
+                public Iterator<K> iterator() {
+                    return new SlotIterator<>() {
+                        @Override
+                        K element(int index) {
+                            return toKey(keys[index]);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public boolean contains(Object key) {
+                    return containsKey(key);
+                }
+
+                @Override
+                public boolean remove(Object key) {
+                    if (!containsKey(key)) {
+                        return false;
+                    }
+                    PrimitiveKeyMap.this.remove(key);
+                    return true;
+                }
+
+                @Override
+                public void clear() {
+                    PrimitiveKeyMap.this.clear();
+                }
+            };
+        }
+        return keySet;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new SlotIterator<>() {
+                        @Override
+                        Entry<K, V> element(int index) {
+                            return new SlotEntry(index);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public void clear() {
+                    PrimitiveKeyMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private int indexOf(long key) {
+        final int mask = keys.length - 1;
+        int index = mix(key) & mask;
+
+        while (states[index] != FREE) {
+            if (states[index] == FULL && keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V removeAt(int index) {
+        final var oldValue = (V) values[index];
+        values[index] = null;
+        states[index] = REMOVED;
+        size--;
+        return oldValue;
+    }
+
+    private void rehash(int newCapacity) {
+        final var oldKeys = keys;
+        final var oldValues = values;
+        final var oldStates = states;
+
+        allocate(newCapacity);
+
+        final int mask = newCapacity - 1;
+        for (int i = 0; i < oldStates.length; i++) {
+            if (oldStates[i] == FULL) {
+                int index = mix(oldKeys[i]) & mask;
+                while (states[index] != FREE) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+                states[index] = FULL;
+            }
+        }
+        usedSlots = size;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        states = new byte[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        final int minCapacity = (int) Math.min((long) (Math.max(expectedSize, 0) / LOAD_FACTOR) + 1, 1 << 30);
+        return Math.max(Integer.highestOneBit(minCapacity - 1) << 1, MIN_CAPACITY);
+    }
+
+    private static int mix(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private abstract class SlotIterator<E> implements Iterator<E> {
+
+        private int nextIndex = nextFullSlot(0);
+        private int lastIndex = -1;
+
+        abstract E element(int index);
+
+        @Override
+        public boolean hasNext() {
+            return nextIndex < states.length;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastIndex = nextIndex;
+            nextIndex = nextFullSlot(nextIndex + 1);
+            return element(lastIndex);
+        }
+
+        @Override
+        public void remove() {
+            if (lastIndex < 0) {
+                throw new IllegalStateException();
+            }
+            // Removal only leaves a tombstone behind, slots are never moved so iteration can safely continue
+            removeAt(lastIndex);
+            lastIndex = -1;
+        }
+
+        private int nextFullSlot(int from) {
+            int index = from;
+            while (index < states.length && states[index] != FULL) {
+                index++;
+            }
+            return index;
+        }
+    }
+
+    private final class SlotEntry implements Entry<K, V> {
+
+        private final int index;
+
+        private SlotEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public K getKey() {
+            return toKey(keys[index]);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V getValue() {
+            return (V) values[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V setValue(V value) {
+            final var oldValue = (V) values[index];
+            values[index] = value;
+            return oldValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry<?, ?> e && Objects.equals(getKey(), e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.test;
+
+import io.github.pellse.util.collection.BoundedConcurrentMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedConcurrentMapTest {
+
+    @Test
+    public void testRecentlyReadEntriesGetSecondChance() {
+
+        var map = new BoundedConcurrentMap<Integer, String>(3);
+
+        map.put(1, "1");
+        map.put(2, "2");
+        map.put(3, "3");
+        assertEquals("1", map.get(1));
+
+        map.put(4, "4");
+
+        assertEquals(3, map.size());
+        assertEquals(1, map.evictionCount());
+        assertTrue(map.containsKey(1));
+        assertFalse(map.containsKey(2));
+        assertEquals("3", map.get(3));
+        assertEquals("4", map.get(4));
+
+        assertEquals("4", map.put(4, "44"));
+        assertEquals("44", map.get(4));
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    public void testAtomicComputeAndConditionalOperations() {
+
+        var map = new BoundedConcurrentMap<Integer, Integer>(2);
+
+        IntStream.range(0, 1_000).parallel().forEach(__ -> map.compute(1, (key, value) -> value == null ? 1 : value + 1));
+        assertEquals(1_000, map.get(1));
+
+        assertEquals(1_000, map.putIfAbsent(1, 0));
+        assertNull(map.putIfAbsent(2, 2));
+        assertFalse(map.replace(2, 0, 20));
+        assertTrue(map.replace(2, 2, 20));
+        assertNull(map.replace(3, 3));
+        assertFalse(map.containsKey(3));
+        assertFalse(map.remove(2, 2));
+        assertTrue(map.remove(2, 20));
+
+        assertNull(map.compute(1, (key, value) -> null));
+        assertTrue(map.isEmpty());
+
+        IntStream.range(0, 10).forEach(i -> map.compute(i, (key, value) -> i));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testRemovalChurnStaysBounded() {
+
+        var map = new BoundedConcurrentMap<Integer, Integer>(10);
+
+        IntStream.range(0, 10_000).forEach(i -> {
+            map.put(i % 20, i);
+            if (i % 3 == 0) {
+                map.keySet().removeAll(List.of(i % 20, (i + 7) % 20));
+            }
+        });
+
+        assertTrue(map.size() <= 10);
+        map.entrySet().removeIf(entry -> entry.getKey() % 2 == 0);
+        assertTrue(map.keySet().stream().allMatch(key -> key % 2 == 1));
+    }
+
+    @Test
+    public void testConcurrentWritesNeverExceedMaximumSize() {
+
+        var map = new BoundedConcurrentMap<Integer, Integer>(1_000);
+
+        var writers = IntStream.range(0, 8)
+                .mapToObj(writer -> CompletableFuture.runAsync(() ->
+                        IntStream.range(0, 50_000).forEach(i -> {
+                            map.put(writer * 50_000 + i, i);
+                            map.get(writer * 50_000 + i / 2);
+                        })))
+                .toArray(CompletableFuture[]::new);
+
+        CompletableFuture.allOf(writers).join();
+
+        assertEquals(1_000, map.size());
+        assertEquals(400_000 - 1_000, map.evictionCount());
+    }
+}
@@ -18,26 +18,39 @@ package io.github.pellse.cohereflux.test;
 
 import io.github.pellse.cohereflux.CohereFlux;
 import io.github.pellse.cohereflux.Rule;
+import io.github.pellse.cohereflux.caching.AdaptiveWindowingStrategy;
+import io.github.pellse.cohereflux.caching.AutoCacheFactory.WindowingStrategy;
+import io.github.pellse.cohereflux.caching.Cache;
 import io.github.pellse.cohereflux.caching.CacheEvent;
 import io.github.pellse.cohereflux.caching.CacheFactory;
+import io.github.pellse.cohereflux.caching.CacheFactory.CacheContext;
 import io.github.pellse.cohereflux.caching.CacheFactory.CacheTransformer;
 import io.github.pellse.cohereflux.util.*;
+import io.github.pellse.util.collection.IndexedList;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
 import reactor.test.StepVerifier;
 
 import java.io.IOException;
+import java.time.Clock;
 import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
@@ -46,27 +59,54 @@ import java.util.stream.Stream;
 
 import static io.github.pellse.cohereflux.CohereFluxBuilder.cohereFluxOf;
 import static io.github.pellse.cohereflux.LifeCycleEventBroadcaster.lifeCycleEventBroadcaster;
+import static io.github.pellse.cohereflux.MapFactory.longKeyMapFactory;
 import static io.github.pellse.cohereflux.QueryUtils.toPublisher;
 import static io.github.pellse.cohereflux.Rule.rule;
 import static io.github.pellse.cohereflux.RuleMapper.*;
 import static io.github.pellse.cohereflux.RuleMapperSource.call;
+import static io.github.pellse.cohereflux.caching.AdaptiveWindowingStrategy.adaptiveWindowing;
+import static io.github.pellse.cohereflux.caching.AutoCacheFactory.OverflowStrategy.BLOCK;
+import static io.github.pellse.cohereflux.caching.AutoCacheFactory.OverflowStrategy.KEEP_LATEST_PER_KEY;
 import static io.github.pellse.cohereflux.caching.AutoCacheFactory.autoCache;
 import static io.github.pellse.cohereflux.caching.AutoCacheFactoryBuilder.autoCacheBuilder;
 import static io.github.pellse.cohereflux.caching.AutoCacheFactoryBuilder.autoCacheEvents;
+import static io.github.pellse.cohereflux.caching.Cache.mergeStrategyAwareCache;
 import static io.github.pellse.cohereflux.caching.CacheEvent.*;
 import static io.github.pellse.cohereflux.caching.CacheFactory.cache;
 import static io.github.pellse.cohereflux.caching.CacheFactory.cached;
+import static io.github.pellse.cohereflux.caching.CacheFactory.longKeyCache;
+import static io.github.pellse.cohereflux.caching.ConcurrentCache.ConcurrencyStrategy.MULTIPLE_READERS;
+import static io.github.pellse.cohereflux.caching.ConcurrentCache.ConcurrencyStrategy.SINGLE_READER;
+import static io.github.pellse.cohereflux.caching.ConcurrentCache.concurrentCache;
+import static io.github.pellse.cohereflux.caching.ConcurrentCache.queuedConcurrentCache;
+import static io.github.pellse.cohereflux.caching.ConcurrentCache.stripedConcurrentCache;
 import static io.github.pellse.cohereflux.caching.ConcurrentCacheFactory.concurrent;
+import static io.github.pellse.cohereflux.caching.ConcurrentCacheFactory.queued;
+import static io.github.pellse.cohereflux.caching.ConcurrentCacheFactory.striped;
+import static io.github.pellse.cohereflux.caching.NegativeCacheFactory.negativeCache;
+import static io.github.pellse.cohereflux.caching.RefreshAheadCacheFactory.refreshAhead;
+import static io.github.pellse.cohereflux.caching.TieredCacheFactory.tiered;
+import static io.github.pellse.cohereflux.metrics.CacheMetrics.cacheMetrics;
+import static io.github.pellse.cohereflux.metrics.InMemoryMetrics.inMemoryMetrics;
+import static io.github.pellse.cohereflux.metrics.IngestionMetrics.ingestionMetrics;
+import static io.github.pellse.cohereflux.metrics.LockMetrics.lockMetrics;
 import static io.github.pellse.cohereflux.test.CDCAdd.cdcAdd;
 import static io.github.pellse.cohereflux.test.CDCDelete.cdcDelete;
 import static io.github.pellse.cohereflux.test.CohereFluxTestUtils.*;
 import static io.github.pellse.util.ObjectUtils.run;
+import static io.github.pellse.util.collection.CollectionUtil.readAll;
 import static io.github.pellse.util.collection.CollectionUtil.transform;
 import static java.time.Duration.ofMillis;
 import static java.time.Duration.ofNanos;
+import static java.time.Duration.ofSeconds;
+import static java.time.ZoneOffset.UTC;
+import static java.util.stream.Collectors.toSet;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
-import static reactor.core.publisher.Mono.error;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static reactor.core.publisher.Mono.*;
+import static reactor.util.retry.Retry.max;
 import static reactor.core.scheduler.Schedulers.*;
 
 sealed interface CDC<T> {
@@ -274,6 +314,25 @@ public class CacheTest {
         return Flux.just(customer1, customer2, customer3, customer1, customer2, customer3, customer1, customer2, customer3);
     }
 
+    private static Clock clockOf(AtomicReference<Instant> currentTime) {
+        return new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return currentTime.get();
+            }
+        };
+    }
+
     @BeforeEach
     void setup() {
         billingInvocationCount.set(0);
@@ -333,6 +392,610 @@ public class CacheTest {
         assertEquals(1, ordersInvocationCount.get());
     }
 
+    @Test
+    public void testReusableCohereFluxBuilderWithStripedConcurrentCaching() {
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo, cache(ConcurrentHashMap::new), striped()), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(this::getAllOrders, cache(ConcurrentHashMap::new), striped(8)))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(getCustomers()
+                        .window(3)
+                        .delayElements(ofMillis(100))
+                        .flatMapSequential(cohereFlux::process))
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(1, billingInvocationCount.get());
+        assertEquals(1, ordersInvocationCount.get());
+    }
+
+    @Test
+    public void testStripedConcurrentCacheWithDisjointKeys() {
+
+        var putAllGate = Sinks.empty();
+
+        var delegateMap = new ConcurrentHashMap<Long, List<BillingInfo>>(Map.of(
+                1L, List.of(billingInfo1),
+                2L, List.of(billingInfo2)));
+
+        Cache<Long, BillingInfo> delegateCache = Cache.adapterCache(
+                (ids, fetchFunction) -> just(readAll(ids, delegateMap)),
+                map -> putAllGate.asMono().then(fromRunnable(() -> delegateMap.putAll(map))),
+                map -> fromRunnable(() -> delegateMap.keySet().removeAll(map.keySet())));
+
+        // Ids 1 and 2 are in different stripes out of 2
+        var stripedCache = stripedConcurrentCache(delegateCache, 2, MULTIPLE_READERS, max(3));
+        var globalLockCache = concurrentCache(delegateCache, max(3));
+
+        var pendingStripedPutAll = stripedCache.putAll(Map.of(1L, List.of(billingInfo1))).subscribe();
+        var pendingGlobalPutAll = globalLockCache.putAll(Map.of(1L, List.of(billingInfo1))).subscribe();
+
+        StepVerifier.create(stripedCache.getAll(List.of(2L), null))
+                .expectNext(Map.of(2L, List.of(billingInfo2)))
+                .expectComplete()
+                .verify(ofSeconds(5));
+
+        // Lock not acquired once retries are exhausted, id 1 is still locked by putAll()
+        StepVerifier.create(stripedCache.getAll(List.of(1L, 2L), null))
+                .expectComplete()
+                .verify(ofSeconds(5));
+
+        StepVerifier.create(globalLockCache.getAll(List.of(2L), null))
+                .expectComplete()
+                .verify(ofSeconds(5));
+
+        putAllGate.tryEmitEmpty();
+        pendingStripedPutAll.dispose();
+        pendingGlobalPutAll.dispose();
+
+        StepVerifier.create(stripedCache.getAll(List.of(1L, 2L), null))
+                .expectNext(Map.of(1L, List.of(billingInfo1), 2L, List.of(billingInfo2)))
+                .expectComplete()
+                .verify(ofSeconds(5));
+    }
+
+    @Test
+    public void testReusableCohereFluxBuilderWithQueuedConcurrentCaching() {
+
+        var lockMetrics = lockMetrics();
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo, queued(lockMetrics)), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(this::getAllOrders, cache(ConcurrentHashMap::new), queued(4, lockMetrics)))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(getCustomers()
+                        .window(3)
+                        .delayElements(ofMillis(100))
+                        .flatMapSequential(cohereFlux::process))
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(1, billingInvocationCount.get());
+        assertEquals(1, ordersInvocationCount.get());
+        assertEquals(0, lockMetrics.queueDepth());
+        assertTrue(lockMetrics.acquisitionCount() > 0);
+    }
+
+    @Test
+    public void testQueuedConcurrentCacheGrantsLockInFifoOrder() {
+
+        var putAllGate = Sinks.empty();
+        var delegateMap = new ConcurrentHashMap<Long, List<BillingInfo>>();
+        var executionOrder = new CopyOnWriteArrayList<String>();
+
+        Cache<Long, BillingInfo> delegateCache = Cache.adapterCache(
+                (ids, fetchFunction) -> defer(() -> {
+                    var result = readAll(ids, delegateMap);
+                    executionOrder.add("getAll" + result.keySet());
+                    return just(result);
+                }),
+                map -> defer(() -> {
+                    executionOrder.add("putAll" + map.keySet());
+                    return putAllGate.asMono().then(fromRunnable(() -> delegateMap.putAll(map)));
+                }),
+                map -> fromRunnable(() -> delegateMap.keySet().removeAll(map.keySet())));
+
+        var lockMetrics = lockMetrics();
+        var cache = queuedConcurrentCache(delegateCache, SINGLE_READER, lockMetrics);
+
+        cache.putAll(Map.of(1L, List.of(billingInfo1))).subscribe();
+        cache.getAll(List.of(1L), null).subscribe();
+        var cancelledGetAll = cache.getAll(List.of(1L), null).subscribe();
+        cache.putAll(Map.of(2L, List.of(billingInfo2))).subscribe();
+        cache.getAll(List.of(1L, 2L), null).subscribe();
+
+        assertEquals(4, lockMetrics.queueDepth());
+        assertEquals(List.of("putAll[1]"), executionOrder);
+
+        cancelledGetAll.dispose();
+        assertEquals(3, lockMetrics.queueDepth());
+        assertEquals(1, lockMetrics.cancellationCount());
+
+        putAllGate.tryEmitEmpty();
+
+        assertEquals(List.of("putAll[1]", "getAll[1]", "putAll[2]", "getAll[1, 2]"), executionOrder);
+        assertEquals(0, lockMetrics.queueDepth());
+        assertEquals(4, lockMetrics.maxQueueDepth());
+        assertEquals(4, lockMetrics.acquisitionCount());
+        assertEquals(3, lockMetrics.contendedAcquisitionCount());
+        assertEquals(4, lockMetrics.waitTime().count());
+
+        StepVerifier.create(cache.getAll(List.of(1L, 2L), null))
+                .expectNext(Map.of(1L, List.of(billingInfo1), 2L, List.of(billingInfo2)))
+                .expectComplete()
+                .verify(ofSeconds(5));
+    }
+
+    @Test
+    public void testConcurrentCacheMissesAreCoalesced() {
+
+        var queriedCustomerIds = new CopyOnWriteArrayList<Long>();
+
+        Function<List<Customer>, Publisher<BillingInfo>> getBillingInfo = customers -> {
+            customers.forEach(customer -> queriedCustomerIds.add(customer.customerId()));
+
+            return Flux.fromIterable(customers)
+                    .delaySubscription(ofMillis(200))
+                    .map(Customer::customerId)
+                    .flatMap(customerId -> Flux.just(billingInfo1, billingInfo3).filter(billingInfo -> billingInfo.customerId().equals(customerId)))
+                    .doOnComplete(billingInvocationCount::incrementAndGet);
+        };
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(getBillingInfo, cache(ConcurrentHashMap::new), concurrent(MULTIPLE_READERS)), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(this::getAllOrders))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(Flux.merge(
+                        cohereFlux.process(Flux.just(customer1, customer2)),
+                        cohereFlux.process(Flux.just(customer2, customer3)),
+                        cohereFlux.process(Flux.just(customer1))))
+                .expectSubscription()
+                .recordWith(ArrayList::new)
+                .expectNextCount(5)
+                .consumeRecordedWith(transactions -> assertTrue(List.of(transaction1, transaction2, transaction3).containsAll(transactions)))
+                .expectComplete()
+                .verify();
+
+        assertEquals(2, billingInvocationCount.get());
+        assertEquals(List.of(1L, 2L, 3L), queriedCustomerIds.stream().sorted().toList());
+    }
+
+    @Test
+    public void testConcurrentLookupsAreCoalescedWithDefaultCaching() {
+
+        var queriedCustomerIds = new CopyOnWriteArrayList<Long>();
+        var lookedUpCustomerIds = new CopyOnWriteArrayList<Long>();
+
+        Function<List<Customer>, Publisher<BillingInfo>> getBillingInfo = customers -> {
+            customers.forEach(customer -> queriedCustomerIds.add(customer.customerId()));
+
+            return Flux.fromIterable(customers)
+                    .delaySubscription(ofMillis(200))
+                    .map(Customer::customerId)
+                    .flatMap(customerId -> Flux.just(billingInfo1, billingInfo3).filter(billingInfo -> billingInfo.customerId().equals(customerId)))
+                    .doOnComplete(billingInvocationCount::incrementAndGet);
+        };
+
+        // Records the ids reaching the cache, i.e. read under the exclusive lock of the default concurrent() cache
+        CacheFactory<Long, BillingInfo, BillingInfo> lookupRecordingCache = context -> {
+            var delegateCache = CacheFactory.<Long, BillingInfo, BillingInfo>cache().create(context);
+
+            return Cache.adapterCache(
+                    (ids, fetchFunction) -> {
+                        ids.forEach(lookedUpCustomerIds::add);
+                        return delegateCache.getAll(ids, fetchFunction);
+                    },
+                    delegateCache::putAll,
+                    delegateCache::removeAll);
+        };
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(getBillingInfo, lookupRecordingCache), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(this::getAllOrders))),
+                        Transaction::new)
+                .build();
+
+        // The last two batches only ask for ids already being looked up by the first one, they never reach the cache lock
+        StepVerifier.create(Flux.merge(
+                        cohereFlux.process(Flux.just(customer1, customer2, customer3)),
+                        cohereFlux.process(Flux.just(customer2, customer3)),
+                        cohereFlux.process(Flux.just(customer1))))
+                .expectSubscription()
+                .recordWith(ArrayList::new)
+                .expectNextCount(6)
+                .consumeRecordedWith(transactions -> assertTrue(List.of(transaction1, transaction2, transaction3).containsAll(transactions)))
+                .expectComplete()
+                .verify(ofSeconds(5));
+
+        assertEquals(1, billingInvocationCount.get());
+        assertEquals(List.of(1L, 2L, 3L), queriedCustomerIds.stream().sorted().toList());
+        assertEquals(List.of(1L, 2L, 3L), lookedUpCustomerIds.stream().sorted().toList());
+    }
+
+    @Test
+    public void testReusableCohereFluxBuilderWithBoundedCaching() {
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo, cache(1)), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(this::getAllOrders, cache(), concurrent(MULTIPLE_READERS)))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(getCustomers()
+                        .window(3)
+                        .delayElements(ofMillis(100))
+                        .flatMapSequential(cohereFlux::process))
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(3, billingInvocationCount.get());
+        assertEquals(1, ordersInvocationCount.get());
+    }
+
+    @Test
+    public void testRefreshAheadCaching() {
+
+        var currentTime = new AtomicReference<>(Instant.parse("2023-01-01T00:00:00Z"));
+
+        var clock = clockOf(currentTime);
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo, refreshAhead(ofSeconds(10), ofSeconds(60), immediate(), clock)), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(this::getAllOrders))),
+                        Transaction::new)
+                .build();
+
+        Consumer<Integer> processAndVerify = expectedBillingInvocationCount -> {
+            StepVerifier.create(cohereFlux.process(Flux.just(customer1, customer2, customer3)))
+                    .expectNext(transaction1, transaction2, transaction3)
+                    .expectComplete()
+                    .verify();
+
+            assertEquals(expectedBillingInvocationCount, billingInvocationCount.get());
+        };
+
+        processAndVerify.accept(1);
+
+        currentTime.set(currentTime.get().plusSeconds(5));
+        processAndVerify.accept(1);
+
+        // Soft TTL elapsed, served from cache and refreshed in the background
+        currentTime.set(currentTime.get().plusSeconds(10));
+        processAndVerify.accept(2);
+
+        currentTime.set(currentTime.get().plusSeconds(5));
+        processAndVerify.accept(2);
+
+        // Hard TTL elapsed, reloaded synchronously
+        currentTime.set(currentTime.get().plusSeconds(120));
+        processAndVerify.accept(3);
+
+        assertEquals(1, ordersInvocationCount.get());
+    }
+
+    @Test
+    public void testRefreshAheadCachingSweepsExpiredEntries() {
+
+        var currentTime = new AtomicReference<>(Instant.parse("2023-01-01T00:00:00Z"));
+        var billingInfoMap = new ConcurrentHashMap<Long, List<BillingInfo>>();
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo, cache(billingInfoMap), refreshAhead(ofSeconds(1), ofSeconds(2), immediate(), clockOf(currentTime))), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(this::getAllOrders))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(cohereFlux.process(Flux.just(customer1)))
+                .expectNext(transaction1)
+                .expectComplete()
+                .verify(ofSeconds(5));
+
+        // Writing customer2 triggers a sweep of customer1's expired entry, which must not deadlock on the cache's own lock
+        currentTime.set(currentTime.get().plusSeconds(3));
+
+        StepVerifier.create(cohereFlux.process(Flux.just(customer2)))
+                .expectNext(transaction2)
+                .expectComplete()
+                .verify(ofSeconds(5));
+
+        assertEquals(Set.of(2L), billingInfoMap.keySet());
+        assertEquals(2, billingInvocationCount.get());
+    }
+
+    @Test
+    public void testNegativeCaching() {
+
+        var currentTime = new AtomicReference<>(Instant.parse("2023-01-01T00:00:00Z"));
+        var queriedCustomerIds = new CopyOnWriteArrayList<Long>();
+
+        Function<List<Customer>, Publisher<BillingInfo>> getBillingInfo = customers -> {
+            customers.forEach(customer -> queriedCustomerIds.add(customer.customerId()));
+            return getBillingInfo(customers);
+        };
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(getBillingInfo, negativeCache(ofSeconds(30), 100, clockOf(currentTime))))),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(this::getAllOrders))),
+                        Transaction::new)
+                .build();
+
+        Runnable processAndVerify = () -> StepVerifier.create(cohereFlux.process(Flux.just(customer1, customer2, customer3)))
+                .expectNext(transaction1, transaction2WithNullBillingInfo, transaction3)
+                .expectComplete()
+                .verify();
+
+        processAndVerify.run();
+        processAndVerify.run();
+
+        currentTime.set(currentTime.get().plusSeconds(20));
+        processAndVerify.run();
+        assertEquals(List.of(1L, 2L, 3L), queriedCustomerIds);
+
+        currentTime.set(currentTime.get().plusSeconds(20));
+        processAndVerify.run();
+        assertEquals(List.of(1L, 2L, 3L, 2L), queriedCustomerIds);
+
+        assertEquals(2, billingInvocationCount.get());
+    }
+
+    @Test
+    public void testTieredCaching() {
+
+        var nearCacheMap = new ConcurrentHashMap<Long, List<BillingInfo>>();
+        var nearCacheMetrics = cacheMetrics();
+        var farCacheMetrics = cacheMetrics();
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo, cache(), tiered(cache(nearCacheMap), nearCacheMetrics, farCacheMetrics)))),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(this::getAllOrders))),
+                        Transaction::new)
+                .build();
+
+        Runnable processAndVerify = () -> StepVerifier.create(cohereFlux.process(Flux.just(customer1, customer2, customer3)))
+                .expectNext(transaction1, transaction2WithNullBillingInfo, transaction3)
+                .expectComplete()
+                .verify();
+
+        processAndVerify.run();
+        processAndVerify.run();
+        assertEquals(Set.of(1L, 3L), nearCacheMap.keySet());
+
+        // Entries evicted from the near cache are promoted back from the far cache without querying the data source
+        nearCacheMap.clear();
+        processAndVerify.run();
+        assertEquals(Set.of(1L, 3L), nearCacheMap.keySet());
+
+        assertEquals(2, nearCacheMetrics.hitCount());
+        assertEquals(7, nearCacheMetrics.missCount());
+        assertEquals(2, farCacheMetrics.hitCount());
+        assertEquals(5, farCacheMetrics.missCount());
+        assertEquals(3, billingInvocationCount.get());
+    }
+
+    @Test
+    public void testTieredCacheDoesNotPromoteEntriesOverlappingWrites() {
+
+        var farReadGate = Sinks.empty();
+        var farReadCount = new AtomicInteger();
+
+        var nearCacheMap = new ConcurrentHashMap<Long, List<BillingInfo>>();
+        var farCacheMap = new ConcurrentHashMap<Long, List<BillingInfo>>(Map.of(1L, List.of(billingInfo1)));
+
+        // Only the first far cache read (the lookup) waits on the gate, not the read back of the write
+        Cache<Long, BillingInfo> farCache = Cache.adapterCache(
+                (ids, fetchFunction) -> defer(() -> just(readAll(ids, farCacheMap)))
+                        .delayUntil(__ -> farReadCount.getAndIncrement() == 0 ? farReadGate.asMono() : empty()),
+                map -> fromRunnable(() -> farCacheMap.putAll(map)),
+                map -> fromRunnable(() -> farCacheMap.keySet().removeAll(map.keySet())));
+
+        var context = new CacheContext<Long, BillingInfo, BillingInfo>(false, BillingInfo::customerId, BillingInfo::id, null, null);
+        var tieredCache = tiered(ctx -> farCache, CacheFactory.<Long, BillingInfo, BillingInfo>cache(nearCacheMap)).create(context);
+
+        var pendingGetAll = tieredCache.getAll(List.of(1L), null).toFuture();
+
+        // Removed while the lookup holds the entry it read from the far cache
+        StepVerifier.create(tieredCache.removeAll(Map.of(1L, List.of(billingInfo1))).then())
+                .verifyComplete();
+
+        farReadGate.tryEmitEmpty();
+
+        assertEquals(Map.of(1L, List.of(billingInfo1)), pendingGetAll.join());
+        assertFalse(nearCacheMap.containsKey(1L));
+        assertFalse(farCacheMap.containsKey(1L));
+
+        // Promoted again once no write overlaps the lookup
+        farCacheMap.put(1L, List.of(billingInfo1));
+
+        StepVerifier.create(tieredCache.getAll(List.of(1L), null))
+                .expectNext(Map.of(1L, List.of(billingInfo1)))
+                .verifyComplete();
+
+        assertEquals(Map.of(1L, List.of(billingInfo1)), nearCacheMap);
+    }
+
+    @Test
+    public void testTieredCacheMirrorsPlainWritesWithoutReadingBackFarCache() {
+
+        var farReadCount = new AtomicInteger();
+
+        var nearCacheMap = new ConcurrentHashMap<Long, List<OrderItem>>(Map.of(1L, List.of(orderItem11)));
+        var farCacheMap = new ConcurrentHashMap<Long, List<OrderItem>>(Map.of(1L, List.of(orderItem11)));
+
+        // Merges go straight to the far cache map, only reads are counted
+        CacheFactory<Long, OrderItem, List<OrderItem>> farCacheFactory = ctx -> {
+            var farCache = CacheFactory.<Long, OrderItem, List<OrderItem>>cache(farCacheMap).create(ctx);
+
+            return mergeStrategyAwareCache(OrderItem::id, Cache.mergeableCache(
+                    Cache.adapterCache(
+                            (ids, fetchFunction) -> defer(() -> farCache.getAll(ids, fetchFunction)).doOnSubscribe(__ -> farReadCount.incrementAndGet()),
+                            farCache::putAll,
+                            farCache::removeAll),
+                    farCache::mergeAll,
+                    farCache.isAtomicMerge()));
+        };
+
+        var context = new CacheContext<Long, OrderItem, List<OrderItem>>(false, OrderItem::customerId, OrderItem::id, null, null);
+        var tieredCache = tiered(farCacheFactory, CacheFactory.<Long, OrderItem, List<OrderItem>>cache(nearCacheMap)).create(context);
+
+        StepVerifier.create(tieredCache.putAll(Map.of(1L, List.of(orderItem12), 2L, List.of(orderItem21))).then())
+                .verifyComplete();
+
+        // Merged in the entry L1 holds, ids absent from L1 are left to the next lookup
+        assertEquals(Set.of(orderItem11, orderItem12), Set.copyOf(nearCacheMap.get(1L)));
+        assertFalse(nearCacheMap.containsKey(2L));
+        assertEquals(Set.of(orderItem11, orderItem12), Set.copyOf(farCacheMap.get(1L)));
+        assertEquals(List.of(orderItem21), farCacheMap.get(2L));
+
+        StepVerifier.create(tieredCache.removeAll(Map.of(1L, List.of(orderItem11))).then())
+                .verifyComplete();
+
+        assertEquals(List.of(orderItem12), List.copyOf(nearCacheMap.get(1L)));
+        assertEquals(List.of(orderItem12), List.copyOf(farCacheMap.get(1L)));
+        assertEquals(0, farReadCount.get());
+
+        // Only L2 knows the outcome of a merge, it is read back once
+        StepVerifier.create(tieredCache.mergeAll(Map.of(1L, List.of(orderItem11)), (storedEntities, entities) -> entities).then())
+                .verifyComplete();
+
+        assertEquals(List.of(orderItem11), List.copyOf(nearCacheMap.get(1L)));
+        assertEquals(1, farReadCount.get());
+    }
+
+    @Test
+    public void testCacheTransformersPassMergesThrough() {
+
+        var context = new CacheContext<Long, BillingInfo, BillingInfo>(false, BillingInfo::customerId, BillingInfo::id, null, null);
+        var updatedBillingInfo1 = new BillingInfo(1L, 1L, "4540222222222222");
+
+        Function<CacheTransformer<Long, BillingInfo, BillingInfo>, Cache<Long, BillingInfo>> assertMergesPassedThrough = cacheTransformer -> {
+            var mergeCount = new AtomicInteger();
+            var delegateMap = new ConcurrentHashMap<Long, List<BillingInfo>>(Map.of(1L, List.of(billingInfo1)));
+
+            CacheFactory<Long, BillingInfo, BillingInfo> delegateCacheFactory = ctx -> {
+                var delegateCache = CacheFactory.<Long, BillingInfo, BillingInfo>cache(delegateMap).create(ctx);
+                return Cache.mergeableCache(delegateCache, (map, remappingFunction) -> delegateCache.mergeAll(map, remappingFunction).doOnSubscribe(__ -> mergeCount.incrementAndGet()), true);
+            };
+
+            var cache = cacheTransformer.apply(delegateCacheFactory).create(context);
+
+            StepVerifier.create(cache.mergeAll(Map.of(1L, List.of(updatedBillingInfo1)), (storedEntities, entities) -> entities).then())
+                    .verifyComplete();
+
+            assertEquals(1, mergeCount.get());
+            assertEquals(List.of(updatedBillingInfo1), delegateMap.get(1L));
+            return cache;
+        };
+
+        assertTrue(assertMergesPassedThrough.apply(negativeCache(ofSeconds(30))).isAtomicMerge());
+        assertTrue(assertMergesPassedThrough.apply(refreshAhead(ofSeconds(10), ofSeconds(60))).isAtomicMerge());
+
+        // L1 is updated after the L2 merge, a tiered cache never merges atomically
+        assertFalse(assertMergesPassedThrough.apply(tiered(CacheFactory.cache())).isAtomicMerge());
+    }
+
+    @Test
+    public void testMergeStrategyAwareCacheMergesAtomically() {
+
+        var delegateMap = new ConcurrentHashMap<Long, List<OrderItem>>();
+        var cache = concurrentCache(mergeStrategyAwareCache(OrderItem::id, CacheFactory.<Long, OrderItem, List<OrderItem>>cache(delegateMap).create(null)));
+
+        assertTrue(cache.isAtomicMerge());
+
+        var orderItems = IntStream.range(0, 100)
+                .mapToObj(i -> new OrderItem("" + i, 1L, "Item " + i, (double) i))
+                .toList();
+
+        StepVerifier.create(Flux.fromIterable(orderItems)
+                        .parallel()
+                        .runOn(parallel())
+                        .flatMap(orderItem -> cache.putAll(Map.of(1L, List.of(orderItem))))
+                        .sequential()
+                        .then(defer(() -> cache.removeAll(Map.of(1L, orderItems.subList(0, 90)))))
+                        .then(defer(() -> cache.putAll(Map.of(1L, List.of(new OrderItem("99", 1L, "Item 99 updated", 99.0)))))))
+                .verifyComplete();
+
+        assertEquals(
+                Set.of("90", "91", "92", "93", "94", "95", "96", "97", "98", "99"),
+                delegateMap.get(1L).stream().map(OrderItem::id).collect(toSet()));
+        assertTrue(delegateMap.get(1L).contains(new OrderItem("99", 1L, "Item 99 updated", 99.0)));
+        assertInstanceOf(IndexedList.class, delegateMap.get(1L));
+
+        // Entries already read from the cache are never modified by later writes
+        var readEntities = delegateMap.get(1L);
+        var newOrderItem = new OrderItem("100", 1L, "Item 100", 100.0);
+
+        StepVerifier.create(cache.putAll(Map.of(1L, List.of(newOrderItem))))
+                .verifyComplete();
+
+        assertEquals(10, readEntities.size());
+        assertEquals(11, delegateMap.get(1L).size());
+
+        StepVerifier.create(cache.removeAll(Map.of(1L, Stream.concat(orderItems.stream(), Stream.of(newOrderItem)).toList())))
+                .verifyComplete();
+
+        assertFalse(delegateMap.containsKey(1L));
+    }
+
+    @Test
+    public void testCachedRuleMetricsCountOnlyQueriedIds() {
+
+        var metrics = inMemoryMetrics();
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, this::getAllOrders)),
+                        Transaction::new)
+                .build(metrics);
+
+        StepVerifier.create(cohereFlux.process(Flux.just(customer1, customer2)))
+                .expectNext(transaction1, transaction2)
+                .expectComplete()
+                .verify();
+
+        // Only customer3 misses the billing info cache, the order items rule isn't cached
+        StepVerifier.create(cohereFlux.process(Flux.just(customer1, customer2, customer3)))
+                .expectNext(transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(3, metrics.ruleMetrics(0).queriedIdCount());
+        assertEquals(5, metrics.ruleMetrics(1).queriedIdCount());
+        assertEquals(2, metrics.ruleMetrics(0).queryCount());
+    }
+
     @Test
     public void testReusableCohereFluxBuilderWithFaultyCache() {
 
@@ -468,6 +1131,30 @@ public class CacheTest {
         assertEquals(2, ordersInvocationCount.get());
     }
 
+    @Test
+    public void testReusableCohereFluxBuilderWithLongKeyCaching() {
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, ArrayList::new, longKeyMapFactory(), oneToOne(cached(this::getBillingInfo, longKeyCache()), BillingInfo::new)),
+                        rule(OrderItem::customerId, ArrayList::new, longKeyMapFactory(), oneToMany(OrderItem::id, cached(this::getAllOrders, longKeyCache()))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(getCustomers()
+                        .window(3)
+                        .delayElements(ofMillis(100))
+                        .flatMapSequential(cohereFlux::process))
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(1, billingInvocationCount.get());
+        assertEquals(1, ordersInvocationCount.get());
+    }
+
     @Test
     public void testReusableCohereFluxBuilderWithCachingSet() {
 
@@ -584,6 +1271,357 @@ public class CacheTest {
         assertEquals(3, ordersInvocationCount.get());
     }
 
+    @Test
+    public void testAutoCachingCompactsEventsPerWindow() {
+
+        var transaction3 = new Transaction(customer3, billingInfo3, List.of(orderItem31));
+        var writtenOrderItemCount = new AtomicInteger();
+
+        CacheTransformer<Long, OrderItem, List<OrderItem>> writeCounting = cacheFactory -> context -> {
+            var cache = cacheFactory.create(context);
+            return Cache.adapterCache(
+                    cache::getAll,
+                    map -> {
+                        map.values().forEach(orderItems -> writtenOrderItemCount.addAndGet(orderItems.size()));
+                        return cache.putAll(map);
+                    },
+                    map -> {
+                        map.values().forEach(orderItems -> writtenOrderItemCount.addAndGet(orderItems.size()));
+                        return cache.removeAll(map);
+                    });
+        };
+
+        var orderItemEvents = Flux.concat(
+                Flux.range(0, 40).map(i -> updated(new OrderItem("1", 1L, "Sweater", (double) i))),
+                Flux.just(
+                        updated(orderItem11), updated(orderItem12), updated(orderItem13),
+                        removed(orderItem21), updated(orderItem21), updated(orderItem22),
+                        updated(orderItem31), updated(orderItem32), removed(orderItem32)));
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(cache(), writeCounting, autoCacheEvents(orderItemEvents).maxWindowSize(100).build()))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(cohereFlux.process(Flux.just(customer1, customer2, customer3).delaySubscription(ofMillis(100))))
+                .expectNext(transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        // Only the last event of each order item is applied
+        assertEquals(7, writtenOrderItemCount.get());
+    }
+
+    @Test
+    public void testShardedAutoCachingPreservesPerIdOrder() {
+
+        Function<Long, Function<Integer, OrderItem>> orderItem = customerId -> i -> new OrderItem(customerId + "1", customerId, "Sweater", (double) i);
+
+        // Each order item is removed then updated again, applying any of them out of order would leave it removed
+        var orderItemEvents = Flux.range(0, 100)
+                .concatMap(i -> Flux.just(1L, 2L, 3L)
+                        .map(orderItem)
+                        .flatMap(item -> Flux.just(removed(item.apply(i)), updated(item.apply(i)))));
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(cache(), autoCacheEvents(orderItemEvents).shards(4).maxWindowSize(10).build()))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(cohereFlux.process(Flux.just(customer1, customer2, customer3).delaySubscription(ofMillis(200))))
+                .expectNext(
+                        new Transaction(customer1, billingInfo1, List.of(orderItem.apply(1L).apply(99))),
+                        new Transaction(customer2, transaction2.billingInfo(), List.of(orderItem.apply(2L).apply(99))),
+                        new Transaction(customer3, billingInfo3, List.of(orderItem.apply(3L).apply(99))))
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testAutoCachingWithBoundedIngestion() {
+
+        var metrics = ingestionMetrics();
+        var maxRequested = new AtomicLong();
+
+        var orderItemEvents = Flux.range(0, 100)
+                .map(i -> updated(new OrderItem("1", 1L, "Sweater", (double) i)))
+                .concatWith(Flux.just(updated(orderItem11), updated(orderItem12), updated(orderItem13), updated(orderItem21), updated(orderItem22), updated(orderItem31)))
+                .doOnRequest(requested -> maxRequested.accumulateAndGet(requested, Math::max));
+
+        var transaction3 = new Transaction(customer3, billingInfo3, List.of(orderItem31));
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(cache(), autoCacheEvents(orderItemEvents).ingestion(8, BLOCK, metrics).maxWindowSize(10).build()))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(cohereFlux.process(Flux.just(customer1, customer2, customer3).delaySubscription(ofMillis(100))))
+                .expectNext(transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        // The data source is never asked for more than the buffer can hold
+        assertTrue(maxRequested.get() <= 8);
+        assertEquals(106, metrics.enqueuedCount());
+        assertEquals(106, metrics.eventLag().count());
+        assertEquals(0, metrics.droppedCount());
+        assertEquals(0, metrics.queueDepth());
+        assertTrue(metrics.appliedCount() > 0);
+        assertTrue(metrics.applyTime().count() > 0);
+    }
+
+    @Test
+    public void testAutoCachingWithKeepLatestPerKeyIngestion() {
+
+        var metrics = ingestionMetrics();
+        var upstreamRequests = new CopyOnWriteArrayList<Long>();
+
+        var orderItemEvents = Flux.range(0, 100)
+                .concatMap(i -> Flux.just(removed(orderItem11), updated(new OrderItem("1", 1L, "Sweater", (double) i))))
+                .concatWith(Flux.just(updated(orderItem11), updated(orderItem12), updated(orderItem13), updated(orderItem21), updated(orderItem22), updated(orderItem31)))
+                .doOnRequest(upstreamRequests::add);
+
+        var transaction3 = new Transaction(customer3, billingInfo3, List.of(orderItem31));
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(cache(), autoCacheEvents(orderItemEvents).ingestion(4, KEEP_LATEST_PER_KEY, metrics).maxWindowSize(10).build()))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(cohereFlux.process(Flux.just(customer1, customer2, customer3).delaySubscription(ofMillis(100))))
+                .expectNext(transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(206, metrics.enqueuedCount() + metrics.conflatedCount());
+        assertEquals(0, metrics.droppedCount());
+        assertEquals(0, metrics.queueDepth());
+        assertTrue(metrics.maxQueueDepth() <= 4);
+
+        // The source is asked for as many events as the buffer has free slots, not one at a time
+        assertEquals(4L, upstreamRequests.get(0));
+    }
+
+    @Test
+    public void testAdaptiveWindowingStrategy() {
+
+        AdaptiveWindowingStrategy<Integer> windowingStrategy = adaptiveWindowing(50, ofMillis(100));
+
+        // No update latency measured yet, every event is applied right away
+        StepVerifier.create(Flux.range(0, 3).delayElements(ofMillis(20)).transform(windowingStrategy).concatMap(Flux::collectList))
+                .expectNext(List.of(0), List.of(1), List.of(2))
+                .expectComplete()
+                .verify();
+
+        IntStream.range(0, 20).forEach(__ -> windowingStrategy.onApplied(1, ofMillis(10).toNanos()));
+
+        // A burst is batched up to the max window size once the event rate is measured
+        StepVerifier.create(Flux.range(0, 1000).transform(windowingStrategy).concatMap(Flux::collectList).map(List::size).collectList())
+                .assertNext(windowSizes -> {
+                    assertEquals(1000, windowSizes.stream().mapToInt(Integer::intValue).sum());
+                    assertEquals(50, windowSizes.stream().mapToInt(Integer::intValue).max().orElseThrow());
+                    assertTrue(windowSizes.size() < 100);
+                })
+                .expectComplete()
+                .verify();
+
+        // A partially filled window is applied after maxWindowTime, even when the update latency calls for larger windows
+        windowingStrategy.onApplied(1, ofSeconds(10).toNanos());
+
+        StepVerifier.create(Flux.just(1, 2, 3).concatWith(Flux.never()).transform(windowingStrategy).concatMap(Flux::collectList))
+                .expectNext(List.of(1, 2, 3))
+                .thenCancel()
+                .verify(ofSeconds(5));
+    }
+
+    @Test
+    public void testAutoCachingWithAdaptiveWindowing() {
+
+        var updateCount = new AtomicInteger();
+
+        CacheTransformer<Long, OrderItem, List<OrderItem>> slowCache = cacheFactory -> context -> {
+            var cache = cacheFactory.create(context);
+            return Cache.adapterCache(
+                    cache::getAll,
+                    map -> cache.putAll(map).delaySubscription(ofMillis(1), boundedElastic()).doOnSuccess(__ -> updateCount.incrementAndGet()),
+                    map -> cache.removeAll(map).delaySubscription(ofMillis(1), boundedElastic()).doOnSuccess(__ -> updateCount.incrementAndGet()));
+        };
+
+        // The burst only starts once the first update has been applied, windows can't adapt before a latency is measured
+        var orderItemEvents = Flux.just(updated(new OrderItem("1", 1L, "Sweater", -1.0)))
+                .concatWith(Flux.range(0, 300)
+                        .map(i -> updated(new OrderItem("1", 1L, "Sweater", (double) i)))
+                        .delaySubscription(ofMillis(500), boundedElastic()))
+                .concatWith(Flux.just(updated(orderItem11), updated(orderItem12), updated(orderItem13), updated(orderItem21), updated(orderItem22), updated(orderItem31)));
+
+        var transaction3 = new Transaction(customer3, billingInfo3, List.of(orderItem31));
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(cache(), slowCache, autoCacheEvents(orderItemEvents).adaptiveWindow(100, ofMillis(50)).build()))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(cohereFlux.process(Flux.just(customer1, customer2, customer3).delaySubscription(ofMillis(3000))))
+                .expectNext(transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertTrue(updateCount.get() < 300);
+    }
+
+    @Test
+    public void testAutoCachingDropsStaleVersionedEvents() {
+
+        var metrics = ingestionMetrics();
+
+        var transaction2WithoutOrderItem22 = new Transaction(customer2, transaction2.billingInfo(), List.of(orderItem21));
+        var transaction3 = new Transaction(customer3, billingInfo3, List.of(orderItem31));
+
+        // Events of the same order item received out of order, only the most recent version of each is applied
+        var orderItemEvents = Flux.just(
+                updated(orderItem11, 3), updated(new OrderItem("1", 1L, "Sweater", 1.0), 1), removed(orderItem11, 2),
+                updated(orderItem12, 1), updated(orderItem13, 1),
+                updated(orderItem21, 1), updated(orderItem22, 1), removed(orderItem22, 5), updated(orderItem22, 4),
+                updated(orderItem31));
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(cache(), autoCacheEvents(orderItemEvents).ingestion(100, BLOCK, metrics).build()))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(cohereFlux.process(Flux.just(customer1, customer2, customer3).delaySubscription(ofMillis(100))))
+                .expectNext(transaction1, transaction2WithoutOrderItem22, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(3, metrics.staleCount());
+    }
+
+    @Test
+    public void testAutoCachingRecordsVersionsOnlyOnceApplied() {
+
+        var updateCount = new AtomicInteger();
+
+        CacheTransformer<Long, OrderItem, List<OrderItem>> cacheFailingFirstUpdate = cacheFactory -> context -> {
+            var cache = cacheFactory.create(context);
+            return Cache.adapterCache(
+                    cache::getAll,
+                    map -> updateCount.getAndIncrement() == 0 ? error(new RuntimeException("Cache.putAll failed")) : cache.putAll(map),
+                    cache::removeAll);
+        };
+
+        // The update of version 3 fails, it must not prevent version 2 from being applied afterwards
+        var orderItemEvents = Flux.just(
+                updated(new OrderItem("1", 1L, "Sweater", 1.0), 3), updated(orderItem11, 2),
+                updated(orderItem12, 1), updated(orderItem13, 1));
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(cache(), cacheFailingFirstUpdate, autoCacheEvents(orderItemEvents).build()))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(cohereFlux.process(Flux.just(customer1).delaySubscription(ofMillis(100))))
+                .expectNext(transaction1)
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testAutoCachingKeepsLatestVersionPerKeyInIngestionBuffer() {
+
+        var metrics = ingestionMetrics();
+
+        var transaction3 = new Transaction(customer3, billingInfo3, List.of(orderItem31));
+
+        // Both versions of order item 1 are pending in the buffer at the same time, version 3 must not replace version 5
+        Flux<CacheEvent<OrderItem>> orderItemEvents = Flux.just(
+                updated(orderItem21, 1), updated(orderItem22, 1), updated(orderItem31, 1),
+                updated(orderItem11, 5), updated(new OrderItem("1", 1L, "Sweater", 1.0), 3),
+                updated(orderItem12, 1), updated(orderItem13, 1));
+
+        // Events are pulled from the buffer one at a time, slower than the data source emits them
+        WindowingStrategy<CacheEvent<OrderItem>> slowWindowing = flux -> flux
+                .concatMap(cacheEvent -> just(cacheEvent).delayElement(ofMillis(20)), 1)
+                .window(1);
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(cache(), autoCacheEvents(orderItemEvents).ingestion(4, KEEP_LATEST_PER_KEY, metrics).windowingStrategy(slowWindowing).build()))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(cohereFlux.process(Flux.just(customer1, customer2, customer3).delaySubscription(ofMillis(500))))
+                .expectNext(transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(1, metrics.staleCount());
+        assertEquals(0, metrics.conflatedCount());
+    }
+
+    @Test
+    public void testReusableCohereFluxBuilderWithAutoCachingSnapshot() {
+
+        BillingInfo updatedBillingInfo2 = new BillingInfo(2L, 2L, "4540111111111111");
+
+        Flux<BillingInfo> billingInfoSnapshot = Flux.just(billingInfo1, billingInfo2, billingInfo3).delayElements(ofMillis(50));
+        Sinks.Many<BillingInfo> billingInfoChanges = Sinks.many().multicast().directBestEffort();
+
+        Transaction transaction2 = new Transaction(customer2, updatedBillingInfo2, List.of(orderItem21, orderItem22));
+
+        var billingInfoAutoCache = autoCacheBuilder(billingInfoChanges.asFlux())
+                .snapshot(billingInfoSnapshot, 2, 2);
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(billingInfoAutoCache.build()))),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, this::getAllOrders)),
+                        Transaction::new)
+                .build();
+
+        // Emitted while the snapshot is still loading, must be buffered and applied on top of it
+        billingInfoChanges.tryEmitNext(updatedBillingInfo2);
+
+        StepVerifier.create(billingInfoAutoCache.whenReady())
+                .expectComplete()
+                .verify(ofSeconds(5));
+
+        StepVerifier.create(getCustomers()
+                        .window(3)
+                        .delayElements(ofMillis(100))
+                        .flatMapSequential(cohereFlux::process))
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(0, billingInvocationCount.get());
+    }
+
     @Test
     public void testReusableCohereFluxBuilderWithAutoCaching3() {
 
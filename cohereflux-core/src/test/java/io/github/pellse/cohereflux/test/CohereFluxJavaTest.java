@@ -25,23 +25,34 @@ import io.github.pellse.cohereflux.util.OrderItem;
 import io.github.pellse.cohereflux.util.Transaction;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 import static io.github.pellse.cohereflux.FluxAdapter.fluxAdapter;
+import static io.github.pellse.cohereflux.FluxAdapter.streamingFluxAdapter;
+import static io.github.pellse.cohereflux.PipelinedFluxAdapter.EmissionOrder.UNORDERED;
+import static io.github.pellse.cohereflux.PipelinedFluxAdapter.pipelinedFluxAdapter;
 import static io.github.pellse.cohereflux.QueryUtils.toPublisher;
 import static io.github.pellse.cohereflux.Rule.rule;
 import static io.github.pellse.cohereflux.RuleMapper.oneToMany;
 import static io.github.pellse.cohereflux.RuleMapper.oneToOne;
+import static io.github.pellse.cohereflux.metrics.InMemoryMetrics.inMemoryMetrics;
 import static io.github.pellse.cohereflux.test.CohereFluxTestUtils.*;
 import static io.github.pellse.util.collection.CollectionUtil.transform;
+import static java.time.Duration.ofMillis;
 import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toSet;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static reactor.core.scheduler.Schedulers.immediate;
 
 public class CohereFluxJavaTest {
@@ -168,6 +179,172 @@ public class CohereFluxJavaTest {
                 .verify();
     }
 
+    @Test
+    public void testCohereFluxBuilderWithStreamingFluxAdapter() {
+
+        StepVerifier.create(
+                        CohereFluxBuilder.cohereFluxOf(Transaction.class)
+                                .withCorrelationIdResolver(Customer::customerId)
+                                .withRules(
+                                        rule(BillingInfo::customerId, oneToOne(this::getBillingInfo, BillingInfo::new)),
+                                        rule(OrderItem::customerId, oneToMany(OrderItem::id, this::getAllOrders)),
+                                        Transaction::new)
+                                .build(streamingFluxAdapter(2, 2))
+                                .process(getCustomers())
+                )
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(3, billingInvocationCount.get());
+        assertEquals(3, ordersInvocationCount.get());
+    }
+
+    @Test
+    public void testCohereFluxBuilderWithStreamingFluxAdapterAndMaxBatchTime() {
+
+        StepVerifier.create(
+                        CohereFluxBuilder.cohereFluxOf(Transaction.class)
+                                .withCorrelationIdResolver(Customer::customerId)
+                                .withRules(
+                                        rule(BillingInfo::customerId, oneToOne(this::getBillingInfo, BillingInfo::new)),
+                                        rule(OrderItem::customerId, oneToMany(OrderItem::id, this::getAllOrders)),
+                                        Transaction::new)
+                                .build(streamingFluxAdapter(100, ofMillis(50)))
+                                .process(getCustomers().delayElements(ofMillis(100)))
+                )
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(6, billingInvocationCount.get());
+        assertEquals(6, ordersInvocationCount.get());
+    }
+
+    @Test
+    public void testCohereFluxBuilderWithPipelinedFluxAdapter() {
+
+        var inFlightQueries = new AtomicInteger();
+        var maxInFlightQueries = new AtomicInteger();
+
+        Function<List<Customer>, Publisher<BillingInfo>> getBillingInfo = customers -> Mono.delay(ofMillis(100))
+                .thenMany(getBillingInfo(customers))
+                .doOnSubscribe(__ -> maxInFlightQueries.accumulateAndGet(inFlightQueries.incrementAndGet(), Math::max))
+                .doFinally(__ -> inFlightQueries.decrementAndGet());
+
+        StepVerifier.create(
+                        CohereFluxBuilder.cohereFluxOf(Transaction.class)
+                                .withCorrelationIdResolver(Customer::customerId)
+                                .withRules(
+                                        rule(BillingInfo::customerId, oneToOne(getBillingInfo, BillingInfo::new)),
+                                        rule(OrderItem::customerId, oneToMany(OrderItem::id, this::getAllOrders)),
+                                        Transaction::new)
+                                .build(pipelinedFluxAdapter(1, ofMillis(500), 3))
+                                .process(getCustomers())
+                )
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(6, billingInvocationCount.get());
+        assertEquals(6, ordersInvocationCount.get());
+        assertTrue(maxInFlightQueries.get() > 1, "Batches were not pipelined");
+        assertTrue(maxInFlightQueries.get() <= 3, "Too many batches in flight");
+    }
+
+    @Test
+    public void testCohereFluxBuilderWithUnorderedPipelinedFluxAdapter() {
+
+        StepVerifier.create(
+                        CohereFluxBuilder.cohereFluxOf(Transaction.class)
+                                .withCorrelationIdResolver(Customer::customerId)
+                                .withRules(
+                                        rule(BillingInfo::customerId, oneToOne(this::getBillingInfo, BillingInfo::new)),
+                                        rule(OrderItem::customerId, oneToMany(OrderItem::id, this::getAllOrders)),
+                                        Transaction::new)
+                                .build(pipelinedFluxAdapter(2, ofMillis(500), 3, UNORDERED, 1))
+                                .process(getCustomers())
+                                .collect(toSet())
+                )
+                .expectSubscription()
+                .expectNext(Set.of(transaction1, transaction2, transaction3))
+                .expectComplete()
+                .verify();
+
+        assertEquals(3, billingInvocationCount.get());
+        assertEquals(3, ordersInvocationCount.get());
+    }
+
+    @Test
+    public void testCohereFluxBuilderWithInMemoryMetrics() {
+
+        var metrics = inMemoryMetrics();
+
+        StepVerifier.create(
+                        CohereFluxBuilder.cohereFluxOf(Transaction.class)
+                                .withCorrelationIdResolver(Customer::customerId)
+                                .withRules(
+                                        rule(BillingInfo::customerId, oneToOne(this::getBillingInfo, BillingInfo::new)),
+                                        rule(OrderItem::customerId, oneToMany(OrderItem::id, this::getAllOrders)),
+                                        Transaction::new)
+                                .build(fluxAdapter(immediate()), metrics)
+                                .process(getCustomers())
+                )
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(1, metrics.batchCount());
+        assertEquals(6, metrics.entityCount());
+        assertEquals(1, metrics.aggregationLatency().count());
+        assertEquals(2, metrics.allRuleMetrics().size());
+
+        var billingInfoMetrics = metrics.ruleMetrics(0);
+        assertEquals(1, billingInfoMetrics.queryCount());
+        assertEquals(0, billingInfoMetrics.errorCount());
+        // Every top level entity is sent to an uncached query function, duplicates included
+        assertEquals(6, billingInfoMetrics.queriedIdCount());
+        assertEquals(3, billingInfoMetrics.resultCount());
+        assertEquals(1, billingInfoMetrics.queryLatency().count());
+
+        var orderItemMetrics = metrics.ruleMetrics(1);
+        assertEquals(1, orderItemMetrics.queryCount());
+        assertEquals(6, orderItemMetrics.queriedIdCount());
+        assertEquals(1, orderItemMetrics.queryLatency().count());
+
+        var queryLatency = billingInfoMetrics.queryLatency();
+        assertTrue(queryLatency.percentileNanos(50) <= queryLatency.percentileNanos(99));
+        assertTrue(queryLatency.percentileNanos(99) <= queryLatency.maxNanos());
+    }
+
+    @Test
+    public void testCohereFluxBuilderWithInMemoryMetricsWithError() {
+
+        var metrics = inMemoryMetrics();
+
+        StepVerifier.create(
+                        CohereFluxBuilder.cohereFluxOf(Transaction.class)
+                                .withCorrelationIdResolver(Customer::customerId)
+                                .withRules(
+                                        rule(BillingInfo::customerId, oneToOne(CohereFluxTestUtils::errorBillingInfos, BillingInfo::new)),
+                                        rule(OrderItem::customerId, oneToMany(OrderItem::id, this::getAllOrders)),
+                                        Transaction::new)
+                                .build(fluxAdapter(immediate()), metrics)
+                                .process(getCustomers())
+                )
+                .expectSubscription()
+                .expectError(SQLException.class)
+                .verify();
+
+        assertEquals(1, metrics.batchCount());
+        assertEquals(0, metrics.ruleMetrics(0).queryCount());
+        assertEquals(1, metrics.ruleMetrics(0).errorCount());
+    }
+
     @Test
     public void testReusableCohereFluxBuilderWithFluxWithBuffering() {
 
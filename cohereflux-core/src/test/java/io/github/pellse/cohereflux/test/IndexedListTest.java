@@ -0,0 +1,104 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.test;
+
+import io.github.pellse.util.collection.IndexedList;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexedListTest {
+
+    record Item(int id, String value) {
+    }
+
+    @Test
+    public void testUpsertKeepsPositionAndRemoveByKey() {
+
+        var list = new IndexedList<Integer, Item>(List.of(new Item(1, "a"), new Item(2, "b"), new Item(3, "c")), Item::id)
+                .upsert(new Item(2, "bb"))
+                .upsert(new Item(4, "d"));
+
+        assertEquals(List.of(new Item(1, "a"), new Item(2, "bb"), new Item(3, "c"), new Item(4, "d")), list);
+
+        list = list.removeKey(1).removeKey(4);
+        assertSame(list, list.removeKey(5));
+        assertEquals(List.of(new Item(2, "bb"), new Item(3, "c")), list);
+        assertEquals(new Item(3, "c"), list.get(1));
+        assertFalse(list.containsKey(1));
+
+        list = list.upsert(new Item(1, "aa"));
+        assertEquals(List.of(new Item(2, "bb"), new Item(3, "c"), new Item(1, "aa")), list);
+
+        var emptyList = list.removeAllOf(List.of(new Item(2, "?"), new Item(3, "?"), new Item(1, "?")));
+        assertTrue(emptyList.isEmpty());
+        assertThrows(IndexOutOfBoundsException.class, () -> emptyList.get(0));
+    }
+
+    @Test
+    public void testChangesReturnNewLists() {
+
+        var list = new IndexedList<Integer, Item>(List.of(new Item(1, "a"), new Item(2, "b")), Item::id);
+
+        var updatedList = list.upsertAll(List.of(new Item(2, "bb"), new Item(3, "c")));
+        var trimmedList = updatedList.removeKey(1);
+
+        // Lists already handed out never change
+        assertEquals(List.of(new Item(1, "a"), new Item(2, "b")), list);
+        assertEquals(List.of(new Item(1, "a"), new Item(2, "bb"), new Item(3, "c")), updatedList);
+        assertEquals(List.of(new Item(2, "bb"), new Item(3, "c")), trimmedList);
+
+        assertThrows(UnsupportedOperationException.class, () -> list.add(new Item(4, "d")));
+        assertThrows(UnsupportedOperationException.class, () -> list.remove(0));
+    }
+
+    @Test
+    public void testLargeListsWithCollidingKeys() {
+
+        // "Aa" and "BB" share the same hash code, every pair below collides
+        var keys = IntStream.range(0, 2_000)
+                .boxed()
+                .flatMap(i -> Stream.of("Aa" + i, "BB" + i))
+                .toList();
+
+        var list = new IndexedList<String, String>(Function.identity());
+        for (var key : keys) {
+            list = list.upsert(key);
+        }
+        var fullList = list;
+
+        assertEquals(keys, fullList);
+        assertEquals("BB1999", fullList.get(3_999));
+
+        // Removing every "Aa" key compacts the list once removed slots outnumber the live ones
+        for (int i = 0; i < 2_000; i++) {
+            list = list.removeKey("Aa" + i);
+            assertTrue(list.containsKey("BB" + i));
+        }
+
+        assertEquals(keys.stream().filter(key -> key.startsWith("BB")).toList(), list);
+        assertEquals("BB1500", list.get(1_500));
+        assertEquals(4_000, fullList.size());
+        assertTrue(fullList.containsKey("Aa0"));
+    }
+}
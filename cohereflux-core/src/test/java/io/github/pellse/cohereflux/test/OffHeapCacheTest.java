@@ -0,0 +1,384 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pellse.cohereflux.test;
+
+import io.github.pellse.cohereflux.caching.CacheFactory;
+import io.github.pellse.cohereflux.caching.offheap.Codec;
+import io.github.pellse.cohereflux.caching.offheap.OffHeapMap;
+import io.github.pellse.cohereflux.caching.offheap.PersistentCache;
+import io.github.pellse.cohereflux.caching.offheap.PersistentMap;
+import io.github.pellse.cohereflux.util.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static io.github.pellse.cohereflux.CohereFluxBuilder.cohereFluxOf;
+import static io.github.pellse.cohereflux.Rule.rule;
+import static io.github.pellse.cohereflux.RuleMapper.oneToMany;
+import static io.github.pellse.cohereflux.RuleMapper.oneToOne;
+import static io.github.pellse.cohereflux.caching.CacheFactory.cached;
+import static io.github.pellse.cohereflux.caching.offheap.Codec.listCodec;
+import static io.github.pellse.cohereflux.caching.offheap.Codec.longCodec;
+import static io.github.pellse.cohereflux.caching.offheap.OffHeapCacheFactory.offHeapCache;
+import static io.github.pellse.cohereflux.caching.offheap.PersistentCacheFactory.persistentCache;
+import static io.github.pellse.cohereflux.test.CohereFluxTestUtils.*;
+import static io.github.pellse.util.collection.CollectionUtil.transform;
+import static java.util.stream.Collectors.toMap;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapCacheTest {
+
+    static final Codec<BillingInfo> BILLING_INFO_CODEC = new Codec<>() {
+
+        @Override
+        public void encode(BillingInfo billingInfo, DataOutput output) throws IOException {
+            writeNullable(billingInfo.id(), output, id -> output.writeLong(id));
+            output.writeLong(billingInfo.customerId());
+            writeNullable(billingInfo.creditCardNumber(), output, output::writeUTF);
+        }
+
+        @Override
+        public BillingInfo decode(DataInput input) throws IOException {
+            return new BillingInfo(input.readBoolean() ? input.readLong() : null, input.readLong(), input.readBoolean() ? input.readUTF() : null);
+        }
+    };
+
+    static final Codec<OrderItem> ORDER_ITEM_CODEC = new Codec<>() {
+
+        @Override
+        public void encode(OrderItem orderItem, DataOutput output) throws IOException {
+            output.writeUTF(orderItem.id());
+            output.writeLong(orderItem.customerId());
+            output.writeUTF(orderItem.orderDescription());
+            output.writeDouble(orderItem.price());
+        }
+
+        @Override
+        public OrderItem decode(DataInput input) throws IOException {
+            return new OrderItem(input.readUTF(), input.readLong(), input.readUTF(), input.readDouble());
+        }
+    };
+
+    private final AtomicInteger billingInvocationCount = new AtomicInteger();
+    private final AtomicInteger ordersInvocationCount = new AtomicInteger();
+
+    @FunctionalInterface
+    interface Writer<T> {
+        void write(T value) throws IOException;
+    }
+
+    private static <T> void writeNullable(T value, DataOutput output, Writer<T> writer) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            writer.write(value);
+        }
+    }
+
+    private Publisher<BillingInfo> getBillingInfo(List<Customer> customers) {
+
+        var customerIds = transform(customers, Customer::customerId);
+
+        return Flux.just(billingInfo1, billingInfo3)
+                .filter(billingInfo -> customerIds.contains(billingInfo.customerId()))
+                .doOnComplete(billingInvocationCount::incrementAndGet);
+    }
+
+    private Publisher<OrderItem> getAllOrders(List<Customer> customers) {
+
+        var customerIds = transform(customers, Customer::customerId);
+
+        return Flux.just(orderItem11, orderItem12, orderItem13, orderItem21, orderItem22)
+                .filter(orderItem -> customerIds.contains(orderItem.customerId()))
+                .doOnComplete(ordersInvocationCount::incrementAndGet);
+    }
+
+    @BeforeEach
+    void setup() {
+        billingInvocationCount.set(0);
+        ordersInvocationCount.set(0);
+    }
+
+    @Test
+    public void testOffHeapMapRoundTrip() {
+
+        var map = new OffHeapMap<Long, List<OrderItem>>(listCodec(ORDER_ITEM_CODEC), 1 << 16, 1 << 12);
+
+        map.put(1L, List.of(orderItem11, orderItem12, orderItem13));
+        map.put(2L, List.of(orderItem21, orderItem22));
+        map.put(3L, List.of());
+        map.put(2L, List.of(orderItem22));
+
+        assertEquals(3, map.size());
+        assertEquals(List.of(orderItem11, orderItem12, orderItem13), map.get(1L));
+        assertEquals(List.of(orderItem22), map.get(2L));
+        assertEquals(List.of(), map.get(3L));
+        assertNull(map.get(4L));
+
+        // Removed values aren't decoded to be returned
+        assertNull(map.remove(3L));
+        map.keySet().removeAll(List.of(1L));
+
+        assertEquals(1, map.size());
+        assertFalse(map.containsKey(1L));
+        assertEquals(List.of(orderItem22), map.get(2L));
+    }
+
+    @Test
+    public void testOffHeapMapEvictsOldestSegment() {
+
+        var recordSize = BILLING_INFO_CODEC.toBytes(billingInfo1).length + 2 * Integer.BYTES;
+        var map = new OffHeapMap<Long, BillingInfo>(BILLING_INFO_CODEC, 4L * recordSize, 2 * recordSize);
+
+        map.put(1L, billingInfo1);
+        map.put(2L, billingInfo1);
+        map.put(3L, billingInfo1);
+        map.put(4L, billingInfo1);
+
+        // Both segments are full, the oldest one holding keys 1 and 2 is recycled
+        map.put(1L, billingInfo3);
+
+        assertEquals(3, map.size());
+        assertEquals(2, map.evictionCount());
+        assertEquals(billingInfo3, map.get(1L));
+        assertNull(map.get(2L));
+
+        map.put(5L, billingInfo3);
+        map.put(6L, billingInfo3);
+
+        assertEquals(3, map.size());
+        assertEquals(4, map.evictionCount());
+        assertEquals(billingInfo3, map.get(1L));
+        assertEquals(billingInfo3, map.get(6L));
+        assertNull(map.get(3L));
+        assertNull(map.get(4L));
+    }
+
+    @Test
+    public void testOffHeapMapRecyclesSegmentsByWalkingTheirRecords() {
+
+        var map = new OffHeapMap<Long, BillingInfo>(BILLING_INFO_CODEC, 1 << 16, 1 << 12);
+
+        // Every key is written twice, in reverse order the second time, so the oldest segments get recycled while they
+        // hold both overwritten records and the only record of keys not rewritten yet
+        for (long id = 0; id < 2_000; id++) {
+            map.put(id, new BillingInfo(id, id, "1"));
+        }
+        for (long id = 1_999; id >= 0; id--) {
+            map.put(id, new BillingInfo(id, id, "2"));
+        }
+
+        var removedCount = LongStream.range(0, 100)
+                .filter(id -> id % 2 == 0)
+                .filter(id -> map.keySet().remove(id))
+                .count();
+
+        // Recycling never brings back the value of an older record, the most recently written keys are all kept
+        assertTrue(map.evictionCount() > 0);
+        assertEquals(50, removedCount);
+        assertEquals(map.size(), map.keySet().size());
+        assertTrue(LongStream.range(0, 100).filter(id -> id % 2 == 1).allMatch(map::containsKey));
+        map.forEach((id, billingInfo) -> assertEquals(new BillingInfo(id, id, "2"), billingInfo));
+        assertEquals(new BillingInfo(1L, 1L, "2"), map.get(1L));
+        assertNull(map.get(0L));
+    }
+
+    @Test
+    public void testReusableCohereFluxBuilderWithOffHeapCaching() {
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo, offHeapCache(BILLING_INFO_CODEC, 1 << 16, 1 << 12)), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(this::getAllOrders, offHeapCache(ORDER_ITEM_CODEC, 1 << 16, 1 << 12)))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(Flux.just(customer1, customer2, customer3, customer1, customer2, customer3, customer1, customer2, customer3)
+                        .window(3)
+                        .concatMap(cohereFlux::process))
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(1, billingInvocationCount.get());
+        assertEquals(1, ordersInvocationCount.get());
+    }
+
+    @Test
+    public void testPersistentMapSurvivesRestart(@TempDir Path directory) {
+
+        try (var map = new PersistentMap<>(directory, longCodec(), BILLING_INFO_CODEC, 1 << 12)) {
+            map.put(1L, billingInfo1);
+            map.put(2L, billingInfo2Unknown);
+            map.put(3L, billingInfo3);
+            map.put(2L, billingInfo2);
+            map.remove(3L);
+        }
+
+        try (var map = new PersistentMap<>(directory, longCodec(), BILLING_INFO_CODEC, 1 << 12)) {
+            assertEquals(Map.of(1L, billingInfo1, 2L, billingInfo2), Map.copyOf(map));
+
+            map.keySet().removeAll(List.of(1L));
+        }
+
+        try (var map = new PersistentMap<>(directory, longCodec(), BILLING_INFO_CODEC, 1 << 12)) {
+            assertEquals(Map.of(2L, billingInfo2), Map.copyOf(map));
+        }
+    }
+
+    @Test
+    public void testPersistentMapIgnoresTornRecord(@TempDir Path directory) throws IOException {
+
+        try (var map = new PersistentMap<>(directory, longCodec(), BILLING_INFO_CODEC, 1 << 12)) {
+            map.put(1L, billingInfo1);
+            map.put(3L, billingInfo3);
+        }
+
+        // File header, then records made of length, crc, type, key length, key and value
+        var firstRecordSize = 8 + 1 + 4 + Long.BYTES + BILLING_INFO_CODEC.toBytes(billingInfo1).length;
+        var lastValueByteOffset = 2 * Integer.BYTES + firstRecordSize + firstRecordSize - 1;
+
+        try (var file = new RandomAccessFile(directory.resolve("cache-1.dat").toFile(), "rw")) {
+            file.seek(lastValueByteOffset);
+            var lastValueByte = file.read();
+            file.seek(lastValueByteOffset);
+            file.write(lastValueByte ^ 0xFF);
+        }
+
+        try (var map = new PersistentMap<>(directory, longCodec(), BILLING_INFO_CODEC, 1 << 12)) {
+            assertEquals(Map.of(1L, billingInfo1), Map.copyOf(map));
+
+            map.put(3L, billingInfo3);
+            assertEquals(billingInfo3, map.get(3L));
+        }
+
+        try (var map = new PersistentMap<>(directory, longCodec(), BILLING_INFO_CODEC, 1 << 12)) {
+            assertEquals(Map.of(1L, billingInfo1, 3L, billingInfo3), Map.copyOf(map));
+        }
+    }
+
+    @Test
+    public void testPersistentMapCompactsAndEvictsOldestEntries(@TempDir Path directory) {
+
+        try (var map = new PersistentMap<>(directory, longCodec(), BILLING_INFO_CODEC, 1 << 10)) {
+            LongStream.range(0, 1_000).forEach(i -> map.put(i % 5, billingInfo1));
+            LongStream.range(5, 100).forEach(i -> map.put(i, billingInfo3));
+
+            assertTrue(map.compactionCount() > 0);
+            assertTrue(map.evictionCount() > 0);
+            assertEquals(billingInfo3, map.get(99L));
+            assertNull(map.get(0L));
+        }
+
+        try (var map = new PersistentMap<>(directory, longCodec(), BILLING_INFO_CODEC, 1 << 10)) {
+            assertEquals(billingInfo3, map.get(99L));
+            assertNull(map.get(0L));
+            assertTrue(map.values().stream().allMatch(billingInfo3::equals));
+        }
+    }
+
+    @Test
+    public void testPersistentMapLocksItsDirectoryUntilClosed(@TempDir Path directory) {
+
+        var map = new PersistentMap<>(directory, longCodec(), BILLING_INFO_CODEC, 1 << 12);
+        map.put(1L, billingInfo1);
+
+        assertThrows(IllegalStateException.class, () -> new PersistentMap<>(directory, longCodec(), BILLING_INFO_CODEC, 1 << 12));
+
+        map.close();
+        map.close();
+        assertThrows(IllegalStateException.class, () -> map.put(2L, billingInfo2));
+
+        try (var reopenedMap = new PersistentMap<>(directory, longCodec(), BILLING_INFO_CODEC, 1 << 12)) {
+            assertEquals(Map.of(1L, billingInfo1), Map.copyOf(reopenedMap));
+        }
+    }
+
+    @Test
+    public void testReusableCohereFluxBuilderWithPersistentCaching(@TempDir Path directory) {
+
+        var billingInfoMap = new PersistentMap<>(directory, longCodec(), listCodec(BILLING_INFO_CODEC), 1 << 12);
+
+        processWithPersistentCaching(persistentCache(billingInfoMap));
+        billingInfoMap.close();
+
+        try (var restartedBillingInfoMap = new PersistentMap<>(directory, longCodec(), listCodec(BILLING_INFO_CODEC), 1 << 12)) {
+            processWithPersistentCaching(persistentCache(restartedBillingInfoMap));
+        }
+
+        assertEquals(1, billingInvocationCount.get());
+        assertEquals(2, ordersInvocationCount.get());
+    }
+
+    @Test
+    public void testPersistentCacheSharesItsMapUntilClosed(@TempDir Path directory) {
+
+        PersistentCache<Long, BillingInfo, BillingInfo> billingInfoCache = persistentCache(directory, longCodec(), BILLING_INFO_CODEC, 1 << 12);
+
+        // Each build creates a new cache from the same factory, both share the map opened by the first one
+        processWithPersistentCaching(billingInfoCache);
+        processWithPersistentCaching(billingInfoCache);
+        billingInfoCache.flush();
+
+        assertThrows(IllegalStateException.class, () -> new PersistentMap<>(directory, longCodec(), listCodec(BILLING_INFO_CODEC), 1 << 12));
+
+        billingInfoCache.close();
+        billingInfoCache.close();
+        assertThrows(IllegalStateException.class, () -> processWithPersistentCaching(billingInfoCache));
+
+        try (PersistentCache<Long, BillingInfo, BillingInfo> restartedBillingInfoCache = persistentCache(directory, longCodec(), BILLING_INFO_CODEC, 1 << 12)) {
+            processWithPersistentCaching(restartedBillingInfoCache);
+        }
+
+        assertEquals(1, billingInvocationCount.get());
+        assertEquals(3, ordersInvocationCount.get());
+    }
+
+    private void processWithPersistentCaching(CacheFactory<Long, BillingInfo, BillingInfo> billingInfoCacheFactory) {
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(cached(this::getBillingInfo, billingInfoCacheFactory), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, cached(this::getAllOrders))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(Flux.just(customer1, customer2, customer3, customer1, customer2, customer3)
+                        .window(3)
+                        .concatMap(cohereFlux::process))
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+    }
+}
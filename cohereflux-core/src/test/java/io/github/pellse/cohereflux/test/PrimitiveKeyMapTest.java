@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.test;
+
+import io.github.pellse.util.collection.IntKeyMap;
+import io.github.pellse.util.collection.LongKeyMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrimitiveKeyMapTest {
+
+    @Test
+    public void testLongKeyMapBehavesLikeHashMap() {
+
+        var map = new LongKeyMap<String>();
+        var expected = new HashMap<Long, String>();
+
+        LongStream.range(-1_000, 10_000).forEach(i -> {
+            map.put(i * 31, "v" + i);
+            expected.put(i * 31, "v" + i);
+        });
+        LongStream.range(-1_000, 10_000).filter(i -> i % 3 == 0).forEach(i -> {
+            assertEquals(expected.remove(i * 31), map.remove(i * 31));
+        });
+        LongStream.range(0, 2_000).forEach(i -> {
+            map.put(i * 31, null);
+            expected.put(i * 31, null);
+        });
+
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+        assertTrue(map.containsKey(31L));
+        assertNull(map.get(31L));
+        assertFalse(map.containsKey(3_000 * 31L));
+        assertFalse(map.containsKey("31"));
+    }
+
+    @Test
+    public void testLongKeyMapKeySetAndIteratorRemoval() {
+
+        var map = LongStream.range(0, 100).boxed()
+                .collect(toMap(i -> i, i -> i * 2, (v1, v2) -> v1, LongKeyMap::new));
+
+        map.keySet().removeAll(List.of(1L, 2L, 3L, 1_000L));
+        map.entrySet().removeIf(e -> e.getKey() >= 50);
+        map.replaceAll((k, v) -> v + 1);
+
+        assertEquals(47, map.size());
+        assertFalse(map.containsKey(2L));
+        assertEquals(9L, map.getPrimitive(4L));
+        assertNull(map.getPrimitive(50L));
+    }
+
+    @Test
+    public void testIntKeyMapAsCollectorMapFactory() {
+
+        Map<Integer, List<String>> map = List.of("a", "bb", "cc", "ddd").stream()
+                .collect(groupingBy(String::length, IntKeyMap::new, toList()));
+
+        assertEquals(Map.of(1, List.of("a"), 2, List.of("bb", "cc"), 3, List.of("ddd")), map);
+        assertInstanceOf(IntKeyMap.class, map);
+    }
+}
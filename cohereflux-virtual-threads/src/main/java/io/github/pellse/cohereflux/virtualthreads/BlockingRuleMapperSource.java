@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.virtualthreads;
+
+import io.github.pellse.cohereflux.RuleMapperSource;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+import static io.github.pellse.cohereflux.RuleMapperSource.call;
+import static io.github.pellse.cohereflux.virtualthreads.VirtualThreadSchedulers.virtualThreadScheduler;
+import static java.util.Objects.requireNonNull;
+import static reactor.core.publisher.Flux.fromIterable;
+
+/**
+ * {@link RuleMapperSource} factories for blocking query functions, each invocation runs on a virtual thread
+ * instead of the subscribing thread, the blocking call only starts on subscription.
+ * <p>
+ * With the default scheduler, a query subscribed from a virtual thread (e.g. a sub-query of
+ * {@link VirtualThreadFluxAdapter}) runs inline instead of hopping to a second virtual thread,
+ * an explicit {@link Scheduler} is always honored.
+ */
+public interface BlockingRuleMapperSource {
+
+    static <T, TC extends Collection<T>, ID, EID, R, RRC> RuleMapperSource<T, TC, ID, EID, R, RRC> blocking(
+            Function<List<ID>, List<R>> queryFunction) {
+        return blocking(queryFunction, virtualThreadScheduler());
+    }
+
+    static <T, TC extends Collection<T>, ID, EID, R, RRC> RuleMapperSource<T, TC, ID, EID, R, RRC> blocking(
+            Function<List<ID>, List<R>> queryFunction,
+            Scheduler scheduler) {
+        return call(toPublisher(queryFunction, scheduler));
+    }
+
+    static <T, TC extends Collection<T>, ID, EID, R, RRC, K> RuleMapperSource<T, TC, ID, EID, R, RRC> blocking(
+            Function<T, K> idResolver,
+            Function<List<K>, List<R>> queryFunction) {
+        return blocking(idResolver, queryFunction, virtualThreadScheduler());
+    }
+
+    static <T, TC extends Collection<T>, ID, EID, R, RRC, K> RuleMapperSource<T, TC, ID, EID, R, RRC> blocking(
+            Function<T, K> idResolver,
+            Function<List<K>, List<R>> queryFunction,
+            Scheduler scheduler) {
+        return call(idResolver, toPublisher(queryFunction, scheduler));
+    }
+
+    private static <K, R> Function<List<K>, Publisher<R>> toPublisher(Function<List<K>, List<R>> queryFunction, Scheduler scheduler) {
+        requireNonNull(queryFunction, "queryFunction cannot be null");
+        requireNonNull(scheduler, "scheduler cannot be null");
+
+        return ids -> {
+            final var query = Flux.defer(() -> fromIterable(queryFunction.apply(ids)));
+
+            if (scheduler != virtualThreadScheduler()) {
+                return query.subscribeOn(scheduler);
+            }
+
+            // Already on a virtual thread (e.g. under virtualThreadFluxAdapter()), blocking in place avoids a second hop
+            return Flux.defer(() -> Thread.currentThread().isVirtual() ? query : query.subscribeOn(scheduler));
+        };
+    }
+}
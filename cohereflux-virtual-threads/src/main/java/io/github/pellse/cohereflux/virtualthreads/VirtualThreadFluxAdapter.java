@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.virtualthreads;
+
+import io.github.pellse.cohereflux.CohereFluxAdapter;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static io.github.pellse.cohereflux.FluxAdapter.fluxAdapter;
+import static io.github.pellse.cohereflux.virtualthreads.VirtualThreadSchedulers.virtualThreadScheduler;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Subscribes to each sub-query on its own virtual thread, so blocking query functions (e.g. JDBC or legacy clients)
+ * of the same batch run concurrently without holding a platform thread, the batching and aggregation of results
+ * are left to the delegate {@link CohereFluxAdapter}.
+ * <p>
+ * Sources built with {@link BlockingRuleMapperSource#blocking(Function)} and the default scheduler detect they are
+ * already on a virtual thread and block in place, a source with its own {@code subscribeOn()} still hops a second time,
+ * in which case the plain delegate adapter is enough.
+ */
+public final class VirtualThreadFluxAdapter<T, ID, R> implements CohereFluxAdapter<T, ID, R> {
+
+    private final CohereFluxAdapter<T, ID, R> delegateAdapter;
+    private final Scheduler scheduler;
+
+    private VirtualThreadFluxAdapter(CohereFluxAdapter<T, ID, R> delegateAdapter, Scheduler scheduler) {
+        this.delegateAdapter = requireNonNull(delegateAdapter);
+        this.scheduler = requireNonNull(scheduler);
+    }
+
+    public static <T, ID, R> VirtualThreadFluxAdapter<T, ID, R> virtualThreadFluxAdapter() {
+        return virtualThreadFluxAdapter(fluxAdapter());
+    }
+
+    public static <T, ID, R> VirtualThreadFluxAdapter<T, ID, R> virtualThreadFluxAdapter(CohereFluxAdapter<T, ID, R> delegateAdapter) {
+        return virtualThreadFluxAdapter(delegateAdapter, virtualThreadScheduler());
+    }
+
+    public static <T, ID, R> VirtualThreadFluxAdapter<T, ID, R> virtualThreadFluxAdapter(CohereFluxAdapter<T, ID, R> delegateAdapter, Scheduler scheduler) {
+        return new VirtualThreadFluxAdapter<>(delegateAdapter, scheduler);
+    }
+
+    @Override
+    public Flux<R> convertSubQueryMappers(
+            Publisher<T> topLevelEntitiesProvider,
+            Function<Iterable<T>, Stream<Publisher<? extends Map<ID, ?>>>> subQueryMapperBuilder,
+            BiFunction<Iterable<T>, List<Map<ID, ?>>, Stream<R>> aggregateStreamBuilder) {
+
+        return delegateAdapter.convertSubQueryMappers(
+                topLevelEntitiesProvider,
+                subQueryMapperBuilder.andThen(subQueryMappers -> subQueryMappers.map(this::subscribeOnVirtualThread)),
+                aggregateStreamBuilder);
+    }
+
+    private Publisher<? extends Map<ID, ?>> subscribeOnVirtualThread(Publisher<? extends Map<ID, ?>> subQueryMapper) {
+        return Mono.from(subQueryMapper).subscribeOn(scheduler);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.virtualthreads;
+
+import reactor.core.scheduler.Scheduler;
+
+import static java.util.concurrent.Executors.newVirtualThreadPerTaskExecutor;
+import static reactor.core.scheduler.Schedulers.fromExecutorService;
+
+public interface VirtualThreadSchedulers {
+
+    // One virtual thread per task, so there is no pool size to tune
+    Scheduler VIRTUAL_THREAD_SCHEDULER = newVirtualThreadScheduler();
+
+    static Scheduler virtualThreadScheduler() {
+        return VIRTUAL_THREAD_SCHEDULER;
+    }
+
+    static Scheduler newVirtualThreadScheduler() {
+        return newVirtualThreadScheduler("virtualThreads");
+    }
+
+    static Scheduler newVirtualThreadScheduler(String executorName) {
+        return fromExecutorService(newVirtualThreadPerTaskExecutor(), executorName);
+    }
+}
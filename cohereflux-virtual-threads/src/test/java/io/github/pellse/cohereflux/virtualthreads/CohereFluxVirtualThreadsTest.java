@@ -0,0 +1,188 @@
+/*
+ * Copyright 2023 Sebastien Pelletier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pellse.cohereflux.virtualthreads;
+
+import io.github.pellse.cohereflux.util.BillingInfo;
+import io.github.pellse.cohereflux.util.Customer;
+import io.github.pellse.cohereflux.util.OrderItem;
+import io.github.pellse.cohereflux.util.Transaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static io.github.pellse.cohereflux.CohereFluxBuilder.cohereFluxOf;
+import static io.github.pellse.cohereflux.FluxAdapter.fluxAdapter;
+import static io.github.pellse.cohereflux.FluxAdapter.streamingFluxAdapter;
+import static io.github.pellse.cohereflux.QueryUtils.toPublisher;
+import static io.github.pellse.cohereflux.Rule.rule;
+import static io.github.pellse.cohereflux.RuleMapper.oneToMany;
+import static io.github.pellse.cohereflux.RuleMapper.oneToOne;
+import static io.github.pellse.cohereflux.RuleMapperSource.call;
+import static io.github.pellse.cohereflux.test.CohereFluxTestUtils.*;
+import static io.github.pellse.cohereflux.virtualthreads.BlockingRuleMapperSource.blocking;
+import static io.github.pellse.cohereflux.virtualthreads.VirtualThreadFluxAdapter.virtualThreadFluxAdapter;
+import static java.time.Duration.ofSeconds;
+import static java.util.concurrent.Executors.newThreadPerTaskExecutor;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static reactor.core.scheduler.Schedulers.fromExecutorService;
+
+public class CohereFluxVirtualThreadsTest {
+
+    private final AtomicInteger platformThreadInvocationCount = new AtomicInteger();
+
+    private List<BillingInfo> getBillingInfo(List<Long> customerIds) {
+        sleep(100);
+        return List.of(billingInfo1, billingInfo3).stream()
+                .filter(billingInfo -> customerIds.contains(billingInfo.customerId()))
+                .toList();
+    }
+
+    private List<OrderItem> getAllOrders(List<Long> customerIds) {
+        sleep(100);
+        return List.of(orderItem11, orderItem12, orderItem13, orderItem21, orderItem22).stream()
+                .filter(orderItem -> customerIds.contains(orderItem.customerId()))
+                .toList();
+    }
+
+    private Flux<Customer> getCustomers() {
+        return Flux.just(customer1, customer2, customer3, customer1, customer2, customer3, customer1, customer2, customer3);
+    }
+
+    private void sleep(long millis) {
+        if (!Thread.currentThread().isVirtual()) {
+            platformThreadInvocationCount.incrementAndGet();
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @BeforeEach
+    void setup() {
+        platformThreadInvocationCount.set(0);
+    }
+
+    @Test
+    public void testBlockingRuleMapperSource() {
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(blocking(this::getBillingInfo), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, blocking(this::getAllOrders))),
+                        Transaction::new)
+                .build();
+
+        StepVerifier.create(getCustomers()
+                        .window(3)
+                        .flatMapSequential(cohereFlux::process))
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(0, platformThreadInvocationCount.get());
+    }
+
+    @Test
+    public void testVirtualThreadFluxAdapterWithNonReactiveSources() {
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(call(toPublisher(this::getBillingInfo)), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, call(toPublisher(this::getAllOrders)))),
+                        Transaction::new)
+                .build(virtualThreadFluxAdapter());
+
+        StepVerifier.create(getCustomers()
+                        .window(3)
+                        .flatMapSequential(cohereFlux::process))
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3, transaction1, transaction2, transaction3, transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(0, platformThreadInvocationCount.get());
+    }
+
+    @Test
+    public void testBlockingRuleMapperSourceDoesNotHopAgainUnderVirtualThreadFluxAdapter() {
+
+        var adapterScheduler = fromExecutorService(newThreadPerTaskExecutor(Thread.ofVirtual().name("adapter-", 0).factory()));
+        var queryThreadNames = new CopyOnWriteArrayList<String>();
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(blocking(ids -> {
+                            queryThreadNames.add(Thread.currentThread().getName());
+                            return getBillingInfo(ids);
+                        }), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, blocking(ids -> {
+                            queryThreadNames.add(Thread.currentThread().getName());
+                            return getAllOrders(ids);
+                        }))),
+                        Transaction::new)
+                .build(virtualThreadFluxAdapter(fluxAdapter(), adapterScheduler));
+
+        StepVerifier.create(cohereFlux.process(getCustomers().take(3)))
+                .expectSubscription()
+                .expectNext(transaction1, transaction2, transaction3)
+                .expectComplete()
+                .verify();
+
+        assertEquals(2, queryThreadNames.size());
+        assertTrue(queryThreadNames.stream().allMatch(name -> name.startsWith("adapter-")));
+
+        adapterScheduler.dispose();
+    }
+
+    @Test
+    public void testThousandsOfConcurrentBlockingSubQueries() {
+
+        var customers = LongStream.rangeClosed(1, 2_000)
+                .mapToObj(id -> new Customer(id, "Customer " + id))
+                .toList();
+
+        var cohereFlux = cohereFluxOf(Transaction.class)
+                .withCorrelationIdResolver(Customer::customerId)
+                .withRules(
+                        rule(BillingInfo::customerId, oneToOne(blocking(this::getBillingInfo), BillingInfo::new)),
+                        rule(OrderItem::customerId, oneToMany(OrderItem::id, blocking(this::getAllOrders))),
+                        Transaction::new)
+                .build(streamingFluxAdapter(1, customers.size()));
+
+        // 4000 blocking calls of 100ms each, far beyond what a bounded pool of platform threads could absorb in time
+        StepVerifier.create(cohereFlux.process(Flux.fromIterable(customers)))
+                .expectSubscription()
+                .expectNextCount(customers.size())
+                .expectComplete()
+                .verify(ofSeconds(20));
+
+        assertEquals(0, platformThreadInvocationCount.get());
+    }
+}